@@ -0,0 +1,116 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.mozilla.javascript.ErrorReporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per optimize of the test case profiles with every runner.
+ *
+ * <ul>
+ * <li><tt>cold</tt> is the first optimize in a new JVM with a new runner, as
+ * in a single module build.</li>
+ * <li><tt>warm</tt> reuses one runner for all optimizes, as in later config
+ * files and reactor modules of a build.</li>
+ * </ul>
+ *
+ * All runners optimize with uglify (closure only works in the JVM). When node
+ * is not installed, a script which only exits stands in for it, so the node
+ * numbers then show the process start alone; nodeDaemon needs a real node.
+ * Run with <tt>-prof gc</tt> (the default of the benchmark profile) for the
+ * allocation rate.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OptimizerBenchmark {
+
+    private static final String[] PARAMETERS = { "optimize=uglify" };
+
+    @Param({ "rhino", "nashorn", "nodejs", "nodeDaemon" })
+    public String runner;
+
+    @Param({ "testcase1/buildconfig1.js", "testcase2/buildconfig2.js" })
+    public String profile;
+
+    private File profileFile;
+
+    private Optimizer optimizer;
+
+    private ErrorReporter reporter;
+
+    private Runner warmRunner;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        profileFile = new File(getClass().getClassLoader().getResource(profile).toURI());
+        optimizer = new Optimizer();
+        reporter = new MojoErrorReporter(new SystemStreamLog(), false);
+        warmRunner = newRunner();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        NodeJsDaemonRunner.shutdown();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(5)
+    public void cold() throws Exception {
+        optimizer.optimize(profileFile, reporter, newRunner(), PARAMETERS);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 10)
+    @Measurement(iterations = 5, time = 10)
+    @Fork(1)
+    public void warm() throws Exception {
+        optimizer.optimize(profileFile, reporter, warmRunner, PARAMETERS);
+    }
+
+    private Runner newRunner() throws Exception {
+        if ("rhino".equals(runner)) {
+            return new RhinoRunner();
+        } else if ("nashorn".equals(runner)) {
+            ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
+            if (engine == null) {
+                throw new IllegalStateException("Nashorn is not available in this JVM.");
+            }
+            return new ScriptEngineRunner(engine);
+        } else if ("nodeDaemon".equals(runner)) {
+            String node = NodeJsRunner.detectNodeCommand();
+            if (node == null) {
+                throw new IllegalStateException("nodeDaemon needs node to be installed.");
+            }
+            return new NodeJsDaemonRunner(node);
+        } else if ("nodejs".equals(runner)) {
+            String node = NodeJsRunner.detectNodeCommand();
+            if (node == null) {
+                node = new File(getClass().getClassLoader().getResource("benchmark/node").toURI()).getAbsolutePath();
+            }
+            return new NodeJsRunner(node);
+        }
+        throw new IllegalArgumentException("Unknown runner " + runner);
+    }
+}
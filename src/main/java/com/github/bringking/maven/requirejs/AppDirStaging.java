@@ -0,0 +1,395 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Copies the appDir of a build profile to its dir before r.js runs, which r.js
+ * would otherwise do itself one file at a time after deleting the dir. Files
+ * whose length and modification time match in the dir are left alone, the
+ * others are copied in parallel with their modification time, so the copy
+ * r.js still makes (with keepBuildDir) finds nothing newer. Files and
+ * directories matching the fileExclusionRegExp of the profile are skipped
+ * and files in the dir which are not in the appDir any more are removed,
+ * except for the {@link Precompressor} variants of staged files, unless the
+ * profile keeps the build dir.
+ *
+ * In {@link Mode#LINK} mode, files r.js never rewrites (everything but
+ * JavaScript and CSS) are hard linked instead of copied where the JVM and
+ * the file system support it. r.js writes the files it optimizes in place,
+ * a linked file would change the source.
+ */
+public class AppDirStaging {
+
+    /**
+     * How files are staged.
+     */
+    public enum Mode {
+        LINK, COPY;
+
+        /**
+         * @param name the mode name, case insensitive
+         * @return the mode
+         * @throws IllegalArgumentException if there is no such mode
+         */
+        public static Mode parse(String name) {
+            String upper = name.trim().toUpperCase();
+            for (Mode mode : values()) {
+                if (upper.equals(mode.name())) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown appDir staging mode " + name
+                    + ", expected link, copy or none.");
+        }
+    }
+
+    /**
+     * The exclusion r.js applies to file and directory names by default.
+     */
+    private static final String DEFAULT_EXCLUSION = "^\\.";
+
+    /**
+     * Files r.js may rewrite in the dir, these are always copied.
+     */
+    private static final Pattern REWRITTEN = Pattern.compile("(?i).*\\.(js|css)$");
+
+    private static final int BATCH_SIZE = 64;
+
+    private static final Method TO_PATH;
+    private static final Method CREATE_LINK;
+
+    static {
+        Method toPath = null;
+        Method createLink = null;
+        try {
+            // hard links need java.nio.file of Java 7
+            Class<?> path = Class.forName("java.nio.file.Path");
+            toPath = File.class.getMethod("toPath");
+            createLink = Class.forName("java.nio.file.Files").getMethod("createLink", path, path);
+        } catch (Exception e) {
+            toPath = null;
+            createLink = null;
+        }
+        TO_PATH = toPath;
+        CREATE_LINK = createLink;
+    }
+
+    private final BuildProfile profile;
+    private final Mode mode;
+    private final int parallelism;
+    private volatile boolean linksFailed;
+
+    private final AtomicInteger linked = new AtomicInteger();
+    private final AtomicInteger copied = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private int removed;
+
+    /**
+     * @param profile the build profile
+     * @param mode how files are staged
+     * @param parallelism the number of files copied at the same time
+     */
+    public AppDirStaging(BuildProfile profile, Mode mode, int parallelism) {
+        this.profile = profile;
+        this.mode = mode;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Check whether the appDir of the profile can be staged.
+     *
+     * @return <code>null</code> if it can, else the reason why it can not
+     */
+    public String getUnstageableReason() {
+        File appDir = profile.getAppDir();
+        File dir = profile.getDir();
+        if (appDir == null || dir == null || profile.getOut() != null || profile.getString("cssIn") != null) {
+            return "the profile has no appDir and dir settings";
+        }
+        if (!appDir.isDirectory()) {
+            return "the appDir " + appDir + " does not exist";
+        }
+        String appPath = appDir.getPath() + File.separator;
+        String dirPath = dir.getPath() + File.separator;
+        if (appPath.startsWith(dirPath) || dirPath.startsWith(appPath)) {
+            return "the dir and the appDir contain one another";
+        }
+        try {
+            getExclusion();
+        } catch (PatternSyntaxException e) {
+            return "the fileExclusionRegExp is not a Java regular expression: " + e.getDescription();
+        }
+        return null;
+    }
+
+    /**
+     * Bring the dir up to date with the appDir.
+     *
+     * @throws IOException if a file can not be copied
+     */
+    public void stage() throws IOException {
+        File appDir = profile.getAppDir();
+        File dir = profile.getDir();
+        Pattern exclusion = getExclusion();
+        Map<String, File> sources = new TreeMap<String, File>();
+        list(appDir, "", exclusion, sources);
+
+        if (!profile.isEnabled("keepBuildDir")) {
+            removed = removeOthers(dir, "", sources.keySet());
+        }
+
+        List<Callable<Void>> batches = new ArrayList<Callable<Void>>();
+        List<Map.Entry<String, File>> batch = null;
+        for (Map.Entry<String, File> source : sources.entrySet()) {
+            if (batch == null || batch.size() == BATCH_SIZE) {
+                batch = new ArrayList<Map.Entry<String, File>>(BATCH_SIZE);
+                batches.add(createTask(batch, dir));
+            }
+            batch.add(source);
+        }
+        run(batches);
+    }
+
+    /**
+     * @return a summary of the staged files for the log
+     */
+    public String getSummary() {
+        return linked.get() + " linked, " + copied.get() + " copied, " + unchanged.get() + " unchanged, " + removed
+                + " removed";
+    }
+
+    private Callable<Void> createTask(final List<Map.Entry<String, File>> batch, final File dir) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                for (Map.Entry<String, File> source : batch) {
+                    stage(source.getValue(), new File(dir, source.getKey()));
+                }
+                return null;
+            }
+        };
+    }
+
+    private void run(List<Callable<Void>> batches) throws IOException {
+        if (batches.size() <= 1 || parallelism == 1) {
+            for (Callable<Void> batch : batches) {
+                try {
+                    batch.call();
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, batches.size()));
+        try {
+            List<Future<Void>> futures = executor.invokeAll(batches);
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while staging " + profile.getAppDir() + ".");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void stage(File source, File target) throws IOException {
+        long length = source.length();
+        long lastModified = source.lastModified();
+        if (target.isFile() && target.length() == length && target.lastModified() == lastModified) {
+            unchanged.incrementAndGet();
+            return;
+        }
+        File parent = target.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create directory: " + parent);
+        }
+        if (target.exists() && !target.delete()) {
+            throw new IOException("Unable to replace " + target + ".");
+        }
+        new File(target.getPath() + Precompressor.SUFFIX).delete();
+        if (mode == Mode.LINK && !REWRITTEN.matcher(source.getName()).matches() && link(source, target)) {
+            linked.incrementAndGet();
+            return;
+        }
+        copy(source, target);
+        target.setLastModified(lastModified);
+        copied.incrementAndGet();
+    }
+
+    /**
+     * @return whether the link was created, else the file must be copied
+     */
+    private boolean link(File source, File target) {
+        if (CREATE_LINK == null || linksFailed) {
+            return false;
+        }
+        try {
+            CREATE_LINK.invoke(null, TO_PATH.invoke(target), TO_PATH.invoke(source));
+            return true;
+        } catch (InvocationTargetException e) {
+            // e.g. another file system or no support for links, copy the rest
+            linksFailed = true;
+            return false;
+        } catch (IllegalAccessException e) {
+            linksFailed = true;
+            return false;
+        }
+    }
+
+    private static void copy(File source, File target) throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileOutputStream out = new FileOutputStream(target);
+            try {
+                long size = in.getChannel().size();
+                for (long position = 0; position < size;) {
+                    position += in.getChannel().transferTo(position, size - position, out.getChannel());
+                }
+            } finally {
+                IOUtil.close(out);
+            }
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * List the files of a directory the way r.js copies them.
+     */
+    private static void list(File dir, String prefix, Pattern exclusion, Map<String, File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (exclusion != null && exclusion.matcher(child.getName()).find()) {
+                continue;
+            }
+            if (child.isFile()) {
+                files.put(prefix + child.getName(), child);
+            } else if (child.isDirectory()) {
+                list(child, prefix + child.getName() + "/", exclusion, files);
+            }
+        }
+    }
+
+    /**
+     * Remove what r.js would not find in a dir it rebuilt from scratch.
+     *
+     * @return the number of removed files
+     */
+    private static int removeOthers(File dir, String prefix, Set<String> keep) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return 0;
+        }
+        int count = 0;
+        Set<String> names = new HashSet<String>();
+        for (File child : children) {
+            names.add(child.getName());
+            String path = prefix + child.getName();
+            if (child.isDirectory()) {
+                count += removeOthers(child, path + "/", keep);
+                String[] remaining = child.list();
+                if (remaining != null && remaining.length == 0) {
+                    child.delete();
+                }
+            } else if (!keep.contains(path) && !isVariant(path, keep)) {
+                if (!child.delete()) {
+                    throw new IOException("Unable to delete " + child + ".");
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The precompressed variant of a staged file stays while the file is
+     * unchanged, staging the file again removes it.
+     */
+    private static boolean isVariant(String path, Set<String> keep) {
+        return path.endsWith(Precompressor.SUFFIX)
+                && keep.contains(path.substring(0, path.length() - Precompressor.SUFFIX.length()));
+    }
+
+    /**
+     * Return the exclusion pattern r.js applies to the names of files and
+     * directories: fileExclusionRegExp (a string or a regular expression,
+     * on the command line or in the profile), the older dirExclusionRegExp,
+     * or the default of r.js.
+     *
+     * @return the pattern or <code>null</code> if nothing is excluded
+     */
+    Pattern getExclusion() {
+        String[] params = profile.getParameters();
+        if (params != null) {
+            for (int i = params.length - 1; i >= 0; i--) {
+                if (params[i].startsWith("fileExclusionRegExp=")) {
+                    return Pattern.compile(params[i].substring("fileExclusionRegExp=".length()));
+                }
+            }
+        }
+        Scriptable config = profile.getConfig();
+        for (String name : new String[] { "fileExclusionRegExp", "dirExclusionRegExp" }) {
+            if (ScriptableObject.hasProperty(config, name)) {
+                return toPattern(ScriptableObject.getProperty(config, name));
+            }
+        }
+        return Pattern.compile(DEFAULT_EXCLUSION);
+    }
+
+    private static Pattern toPattern(Object value) {
+        if (value instanceof CharSequence) {
+            return Pattern.compile(value.toString());
+        }
+        if (value instanceof Scriptable && "RegExp".equals(((Scriptable) value).getClassName())) {
+            Scriptable regExp = (Scriptable) value;
+            String source = String.valueOf(ScriptableObject.getProperty(regExp, "source"));
+            boolean ignoreCase = Boolean.TRUE.equals(ScriptableObject.getProperty(regExp, "ignoreCase"));
+            return Pattern.compile(source, ignoreCase ? Pattern.CASE_INSENSITIVE : 0);
+        }
+        // r.js tests names against whatever is set, a false value excludes nothing
+        return null;
+    }
+}
@@ -0,0 +1,277 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Fingerprint of everything a build profile reads, stored next to the build
+ * output so that an unchanged profile does not have to be optimized again.
+ *
+ * Settings, the profile and the optimizer script are fingerprinted by content.
+ * Source trees are fingerprinted by relative path, size and modification time
+ * so that large application directories can be checked without reading them.
+ */
+public class BuildManifest {
+
+    private static final String INPUTS = "inputs";
+    private static final String OUTPUTS = "outputs";
+    private static final String PROFILE = "profile";
+
+    private final File manifestFile;
+    private final BuildProfile profile;
+    private final MessageDigest inputs;
+    private String inputFingerprint;
+    private File outputFile;
+
+    /**
+     * Create a manifest for a build profile.
+     *
+     * @param manifestDir directory holding the manifests of all profiles
+     * @param profile the build profile
+     */
+    public BuildManifest(File manifestDir, BuildProfile profile) {
+        this.profile = profile;
+        this.manifestFile = new File(manifestDir, Digests.sha1(profile.getFile().getAbsolutePath()) + ".properties");
+        this.inputs = Digests.newDigest();
+    }
+
+    /**
+     * Stamp another file instead of the out file of the profile, for builds
+     * which do not leave the out file where the profile puts it.
+     *
+     * @param outputFile the file to stamp
+     */
+    public void setOutputFile(File outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * Add a named setting to the fingerprint.
+     *
+     * @param name setting name
+     * @param value setting value, may be null
+     */
+    public void addSetting(String name, String value) {
+        Digests.update(inputs, "setting:" + name + "=" + value + "\n");
+    }
+
+    /**
+     * Add the content of a file to the fingerprint.
+     *
+     * @param name the role of the file
+     * @param file the file, ignored when <code>null</code>
+     * @throws IOException if the file can not be read
+     */
+    public void addFile(String name, File file) throws IOException {
+        if (file == null) {
+            return;
+        }
+        Digests.update(inputs, "file:" + name + "\n");
+        if (file.isFile()) {
+            Digests.update(inputs, new FileInputStream(file));
+        }
+    }
+
+    /**
+     * Add the content of a stream to the fingerprint. The stream is closed.
+     *
+     * @param name the role of the content
+     * @param in the content
+     * @throws IOException if the stream can not be read
+     */
+    public void addContent(String name, InputStream in) throws IOException {
+        Digests.update(inputs, "content:" + name + "\n");
+        Digests.update(inputs, in);
+    }
+
+    /**
+     * Add the source tree of the profile (appDir, baseUrl or build file
+     * directory) and its mainConfigFile to the fingerprint. The output
+     * directory is left out when it lies inside the source tree, as are the
+     * out file and the files written next to it: its precompressed variant,
+     * its renamed copies and their manifest.
+     *
+     * @throws IOException if the mainConfigFile can not be read
+     */
+    public void addSources() throws IOException {
+        File sourceDir = profile.getSourceDir();
+        Digests.update(inputs, "tree:" + sourceDir + "\n");
+        final File dir = profile.getDir();
+        final File manifestDir = manifestFile.getParentFile();
+        final File out = profile.getOut();
+        final Pattern outputs = out != null ? getOutputPattern(out.getName()) : null;
+        stampTree(inputs, sourceDir, "", new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.equals(dir) || file.equals(manifestDir) || (outputs != null
+                        && file.getParentFile().equals(out.getParentFile())
+                        && outputs.matcher(file.getName()).matches());
+            }
+        });
+        addFile("mainConfigFile", profile.getMainConfigFile());
+    }
+
+    /**
+     * @return the pattern of the names of the out file and the files the plugin writes next to it
+     */
+    static Pattern getOutputPattern(String outName) {
+        String baseName = Fingerprinter.getBaseName(outName);
+        String extension = outName.substring(baseName.length());
+        return Pattern.compile(Pattern.quote(baseName) + "(\\.[0-9a-f]{" + Fingerprinter.HASH_LENGTH + "})?"
+                + Pattern.quote(extension) + "(" + Pattern.quote(Precompressor.SUFFIX) + ")?|"
+                + Pattern.quote(baseName + Fingerprinter.OUT_MANIFEST_SUFFIX));
+    }
+
+    /**
+     * Add some source files of the profile and its mainConfigFile to the
+     * fingerprint, instead of its whole source tree. Used for profiles whose
+     * inputs are known from the module graph.
+     *
+     * @param files the files the build reads
+     * @throws IOException if the mainConfigFile can not be read
+     */
+    public void addSources(Collection<File> files) throws IOException {
+        List<File> sorted = new ArrayList<File>(files);
+        Collections.sort(sorted);
+        for (File file : sorted) {
+            Digests.update(inputs, "source:" + file.getAbsolutePath() + ":" + file.length() + ":"
+                    + file.lastModified() + "\n");
+        }
+        addFile("mainConfigFile", profile.getMainConfigFile());
+    }
+
+    /**
+     * Check whether the last successful build of the profile used the same
+     * inputs and its output is still in place.
+     *
+     * @return <code>null</code> if the output is up to date, else the reason why it is not
+     * @throws IOException if the manifest can not be read
+     */
+    public String getStaleReason() throws IOException {
+        if (!manifestFile.isFile()) {
+            return "no previous build recorded";
+        }
+        Properties stored = load();
+        if (!getInputFingerprint().equals(stored.getProperty(INPUTS))) {
+            return "inputs changed since the last build";
+        }
+        String outputs = stampOutputs();
+        if (outputs == null) {
+            return "the profile has no dir or out setting to check";
+        }
+        if (!outputs.equals(stored.getProperty(OUTPUTS))) {
+            return "build output is missing or was modified";
+        }
+        return null;
+    }
+
+    /**
+     * Record the current inputs and outputs as a successful build.
+     *
+     * @throws IOException if the manifest can not be written
+     */
+    public void save() throws IOException {
+        String outputs = stampOutputs();
+        if (outputs == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty(PROFILE, profile.getFile().getAbsolutePath());
+        properties.setProperty(INPUTS, getInputFingerprint());
+        properties.setProperty(OUTPUTS, outputs);
+
+        manifestFile.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(manifestFile);
+        try {
+            properties.store(out, "requirejs-maven-plugin build manifest");
+        } finally {
+            IOUtil.close(out);
+        }
+    }
+
+    /**
+     * Remove the manifest, forcing the next build of the profile.
+     */
+    public void invalidate() {
+        manifestFile.delete();
+    }
+
+    /**
+     * @return the manifest file
+     */
+    public File getManifestFile() {
+        return manifestFile;
+    }
+
+    private String getInputFingerprint() {
+        if (inputFingerprint == null) {
+            inputFingerprint = Digests.toHex(inputs.digest());
+        }
+        return inputFingerprint;
+    }
+
+    private Properties load() throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(manifestFile);
+        try {
+            properties.load(in);
+        } finally {
+            IOUtil.close(in);
+        }
+        return properties;
+    }
+
+    private String stampOutputs() {
+        MessageDigest digest = Digests.newDigest();
+        if (profile.getDir() != null) {
+            if (!profile.getDir().isDirectory()) {
+                return "missing";
+            }
+            stampTree(digest, profile.getDir(), "", null);
+        } else if (profile.getOut() != null) {
+            File out = outputFile != null ? outputFile : profile.getOut();
+            if (!out.isFile()) {
+                return "missing";
+            }
+            Digests.update(digest, out.getName() + ":" + out.length() + ":" + out.lastModified() + "\n");
+        } else {
+            return null;
+        }
+        return Digests.toHex(digest.digest());
+    }
+
+    private static void stampTree(MessageDigest digest, File dir, String prefix, FileFilter skip) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        // listFiles order depends on the file system, the fingerprint must not
+        Arrays.sort(files);
+        for (File file : files) {
+            if (skip != null && skip.accept(file)) {
+                continue;
+            }
+            String path = prefix + file.getName();
+            if (file.isDirectory()) {
+                stampTree(digest, file, path + "/", skip);
+            } else {
+                Digests.update(digest, path + ":" + file.length() + ":" + file.lastModified() + "\n");
+            }
+        }
+    }
+}
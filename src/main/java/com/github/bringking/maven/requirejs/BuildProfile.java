@@ -0,0 +1,253 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Read-only view of an r.js build profile. The profile is evaluated the same
+ * way r.js does it (as a javascript object literal) and the path settings are
+ * resolved the same way r.js resolves them: relative to the build file for
+ * settings from the profile, relative to the working directory for settings
+ * given on the command line.
+ */
+public class BuildProfile {
+
+    private final File file;
+    private final Scriptable config;
+    private String[] params;
+    private File appDir;
+    private File baseUrl;
+    private File dir;
+    private File out;
+    private File mainConfigFile;
+
+    private BuildProfile(File file, Scriptable config) {
+        this.file = file;
+        this.config = config;
+    }
+
+    /**
+     * Read a build profile.
+     *
+     * @param file the build profile
+     * @param params optimizer command line parameters (name=value), may be null
+     * @return the parsed profile
+     * @throws IOException if the file can not be read or is not a valid profile
+     */
+    public static BuildProfile read(File file, String[] params) throws IOException {
+        String source = FileUtils.fileRead(file, "UTF-8");
+        Context cx = Context.enter();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            Object result = cx.evaluateString(scope, "(" + source + ")", file.getAbsolutePath(), 1, null);
+            if (!(result instanceof Scriptable)) {
+                throw new IOException("Build profile " + file + " is not an object literal.");
+            }
+            BuildProfile profile = new BuildProfile(file.getAbsoluteFile(), (Scriptable) result);
+            profile.resolvePaths(params);
+            return profile;
+        } catch (RhinoException e) {
+            IOException ioe = new IOException("Unable to evaluate build profile " + file + ": " + e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private void resolvePaths(String[] params) {
+        this.params = params;
+        File profileDir = file.getParentFile();
+        File workingDir = new File(".").getAbsoluteFile();
+
+        appDir = resolve(profileDir, getString("appDir"));
+        dir = resolve(profileDir, getString("dir"));
+        out = resolveOut(profileDir, getString("out"));
+        mainConfigFile = resolve(profileDir, getString("mainConfigFile"));
+        String baseUrlValue = getString("baseUrl");
+
+        if (params != null) {
+            for (String param : params) {
+                int separator = param.indexOf('=');
+                if (separator == -1) {
+                    continue;
+                }
+                String name = param.substring(0, separator);
+                String value = param.substring(separator + 1);
+                if ("appDir".equals(name)) {
+                    appDir = resolve(workingDir, value);
+                } else if ("dir".equals(name)) {
+                    dir = resolve(workingDir, value);
+                } else if ("out".equals(name)) {
+                    out = resolveOut(workingDir, value);
+                } else if ("mainConfigFile".equals(name)) {
+                    mainConfigFile = resolve(workingDir, value);
+                } else if ("baseUrl".equals(name)) {
+                    baseUrlValue = value;
+                    profileDir = workingDir;
+                }
+            }
+        }
+
+        // with an appDir, the baseUrl is relative to the appDir, not the build file
+        baseUrl = resolve(appDir != null ? appDir : profileDir, baseUrlValue);
+    }
+
+    private static File resolve(File base, String path) {
+        if (path == null || path.length() == 0) {
+            return null;
+        }
+        File result = new File(path);
+        if (!result.isAbsolute()) {
+            result = new File(base, path);
+        }
+        return normalize(result);
+    }
+
+    private static File resolveOut(File base, String path) {
+        // "stdout" is not a file, the build result is printed
+        if ("stdout".equals(path)) {
+            return null;
+        }
+        return resolve(base, path);
+    }
+
+    private static File normalize(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    /**
+     * Return a top level string setting of the profile.
+     *
+     * @param name the setting name
+     * @return the value or <code>null</code> if it is not set or not a string
+     */
+    public String getString(String name) {
+        Object value = ScriptableObject.getProperty(config, name);
+        if (value instanceof CharSequence) {
+            return value.toString();
+        }
+        return null;
+    }
+
+    /**
+     * Return a top level boolean setting, a command line parameter wins over
+     * the profile.
+     *
+     * @param name the setting name
+     * @return whether the setting is set to a true value
+     */
+    public boolean isEnabled(String name) {
+        if (params != null) {
+            for (int i = params.length - 1; i >= 0; i--) {
+                if (params[i].startsWith(name + "=")) {
+                    return "true".equals(params[i].substring(name.length() + 1));
+                }
+            }
+        }
+        Object value = ScriptableObject.getProperty(config, name);
+        return value != Scriptable.NOT_FOUND && ScriptRuntime.toBoolean(value);
+    }
+
+    /**
+     * @return the entries of the modules setting, empty if it is not set
+     */
+    public List<Scriptable> getModules() {
+        List<Scriptable> modules = new ArrayList<Scriptable>();
+        Object value = ScriptableObject.getProperty(config, "modules");
+        if (value instanceof NativeArray) {
+            NativeArray array = (NativeArray) value;
+            for (int i = 0; i < array.getLength(); i++) {
+                Object module = array.get(i, array);
+                modules.add(module instanceof Scriptable ? (Scriptable) module : null);
+            }
+        }
+        return modules;
+    }
+
+    /**
+     * @return the evaluated profile object
+     */
+    public Scriptable getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the optimizer command line parameters the profile was read with, may be null
+     */
+    public String[] getParameters() {
+        return params;
+    }
+
+    /**
+     * @return the build profile file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the resolved appDir or <code>null</code>
+     */
+    public File getAppDir() {
+        return appDir;
+    }
+
+    /**
+     * @return the resolved baseUrl or <code>null</code>
+     */
+    public File getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * @return the resolved output directory or <code>null</code>
+     */
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * @return the resolved single output file or <code>null</code>
+     */
+    public File getOut() {
+        return out;
+    }
+
+    /**
+     * @return the resolved mainConfigFile or <code>null</code>
+     */
+    public File getMainConfigFile() {
+        return mainConfigFile;
+    }
+
+    /**
+     * Return the directory holding the sources read by the build: the appDir,
+     * the baseUrl or, if neither is set, the directory of the build file.
+     *
+     * @return the source directory
+     */
+    public File getSourceDir() {
+        if (appDir != null) {
+            return appDir;
+        }
+        if (baseUrl != null) {
+            return baseUrl;
+        }
+        return normalize(file.getParentFile());
+    }
+}
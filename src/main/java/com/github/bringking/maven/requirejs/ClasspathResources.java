@@ -0,0 +1,119 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Extracts scripts bundled with the plugin to files, once. A resource is
+ * written to a file named after its content hash (e.g. r-&lt;sha1&gt;.js), so
+ * every profile, module and build using the same plugin version finds the
+ * same file, and different plugin versions never overwrite each other.
+ */
+final class ClasspathResources {
+
+    /**
+     * Used when no cache directory is configured.
+     */
+    static final File DEFAULT_DIRECTORY = new File(System.getProperty("java.io.tmpdir"), "requirejs-maven-plugin");
+
+    private static final Map<String, byte[]> contents = new HashMap<String, byte[]>();
+    private static final Map<String, String> hashes = new HashMap<String, String>();
+    private static final Set<File> verified = new HashSet<File>();
+
+    private ClasspathResources() {
+    }
+
+    /**
+     * Return a file with the content of a classpath resource.
+     *
+     * @param resource the absolute resource name, e.g. /r.js
+     * @param directory the directory to extract to, created if needed
+     * @return the extracted file
+     * @throws IOException if the resource can not be read or written
+     */
+    static synchronized File extract(String resource, File directory) throws IOException {
+        byte[] content = getContent(resource);
+        String hash = hashes.get(resource);
+
+        String name = resource.substring(resource.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        String fileName = dot == -1 ? name + "-" + hash : name.substring(0, dot) + "-" + hash + name.substring(dot);
+        File file = new File(directory, fileName);
+
+        // a file of the right size is checked once per JVM, after that the
+        // size is enough to notice it was removed or truncated
+        if (file.length() == content.length && (verified.contains(file) || hash.equals(Digests.sha1(file)))) {
+            verified.add(file);
+            return file;
+        }
+
+        directory.mkdirs();
+        File temp = File.createTempFile(fileName, ".tmp", directory);
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(content);
+        } finally {
+            IOUtil.close(out);
+        }
+        // other JVMs may extract the same file at the same time, so the
+        // complete file is moved into place rather than written in place
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Unable to extract " + resource + " to " + file);
+            }
+        }
+        verified.add(file);
+        return file;
+    }
+
+    /**
+     * @param resource the absolute resource name, e.g. /r.js
+     * @return the hex SHA-1 of the content of the resource
+     * @throws IOException if the resource can not be read
+     */
+    static synchronized String getHash(String resource) throws IOException {
+        getContent(resource);
+        return hashes.get(resource);
+    }
+
+    /**
+     * @param resource the absolute resource name of a UTF-8 text file
+     * @return the content of the resource
+     * @throws IOException if the resource can not be read
+     */
+    static synchronized String read(String resource) throws IOException {
+        return new String(getContent(resource), "UTF-8");
+    }
+
+    private static byte[] getContent(String resource) throws IOException {
+        byte[] content = contents.get(resource);
+        if (content == null) {
+            InputStream in = ClasspathResources.class.getResourceAsStream(resource);
+            if (in == null) {
+                throw new IOException("Resource " + resource + " not found.");
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try {
+                IOUtil.copy(in, buffer);
+            } finally {
+                IOUtil.close(in);
+            }
+            content = buffer.toByteArray();
+            contents.put(resource, content);
+            hashes.put(resource, Digests.toHex(Digests.newDigest().digest(content)));
+        }
+        return content;
+    }
+}
@@ -0,0 +1,236 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.mozilla.javascript.ErrorReporter;
+
+import com.google.javascript.jscomp.BasicErrorManager;
+import com.google.javascript.jscomp.CheckLevel;
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSError;
+import com.google.javascript.jscomp.Result;
+import com.google.javascript.jscomp.SourceFile;
+import com.google.javascript.jscomp.WarningLevel;
+
+/**
+ * Minifies the JavaScript output of r.js with the Closure Compiler in this
+ * JVM, instead of r.js calling it one file at a time through the Java bridge
+ * of Rhino. Files are compressed in parallel, every file by its own compiler
+ * on a worker thread, with the same settings and externs for all of them.
+ */
+public class ClosureMinifier {
+
+    /**
+     * Compilation modes, matching the Closure Compiler levels.
+     */
+    public enum Mode {
+        SIMPLE(CompilationLevel.SIMPLE_OPTIMIZATIONS), WHITESPACE(CompilationLevel.WHITESPACE_ONLY);
+
+        private final CompilationLevel level;
+
+        private Mode(CompilationLevel level) {
+            this.level = level;
+        }
+
+        /**
+         * @param name SIMPLE or WHITESPACE, or the Closure Compiler level names
+         * @return the mode
+         * @throws IllegalArgumentException if the name is unknown
+         */
+        public static Mode parse(String name) {
+            String upper = name.trim().toUpperCase();
+            for (Mode mode : values()) {
+                if (upper.equals(mode.name()) || upper.equals(mode.level.name())) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown Closure Compiler mode " + name
+                    + ", expected SIMPLE or WHITESPACE.");
+        }
+    }
+
+    /**
+     * The compiler recurses deeply on large files, it runs its own compiler
+     * thread with a big stack for the same reason.
+     */
+    private static final long STACK_SIZE = 16 * 1024 * 1024;
+
+    static {
+        Compiler.setLoggingLevel(Level.OFF);
+    }
+
+    private final Mode mode;
+    private final List<SourceFile> externs;
+    private final String settingsKey;
+    private final int threads;
+    private final MinificationCache cache;
+
+    /**
+     * Create a minifier.
+     *
+     * @param mode the compilation mode
+     * @param externFiles externs for all files, may be null
+     * @param threads number of files to compress at the same time
+     * @param cache cache of minified files, may be null
+     * @throws IOException if an extern can not be read
+     */
+    public ClosureMinifier(Mode mode, List<File> externFiles, int threads, MinificationCache cache)
+            throws IOException {
+        this.mode = mode;
+        this.threads = Math.max(1, threads);
+        this.cache = cache;
+
+        StringBuilder key = new StringBuilder("closure ").append(Compiler.getReleaseVersion()).append(' ')
+                .append(mode);
+        externs = new ArrayList<SourceFile>();
+        if (externFiles != null) {
+            for (File file : externFiles) {
+                String code = FileUtils.fileRead(file, "UTF-8");
+                externs.add(SourceFile.fromCode(file.getAbsolutePath(), code));
+                key.append(' ').append(Digests.sha1(code));
+            }
+        }
+        settingsKey = key.toString();
+    }
+
+    /**
+     * Minify files in place. A file which can not be compiled is left as it
+     * is and its errors are reported.
+     *
+     * @param files the files
+     * @param reporter receives compilation errors
+     * @throws IOException if a file can not be read or written
+     * @throws OptimizationException if any file could not be compiled
+     */
+    public void minify(List<File> files, final ErrorReporter reporter) throws IOException, OptimizationException {
+        if (files.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()),
+                new CompilerThreadFactory());
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        final Trace trace = Trace.current();
+        int failed = 0;
+        try {
+            for (final File file : files) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException {
+                        Trace.attach(trace);
+                        try {
+                            return minify(file, reporter);
+                        } finally {
+                            Trace.attach(null);
+                        }
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                if (!result.get()) {
+                    failed++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OptimizationException("Interrupted while minifying.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new OptimizationException("Minification failed.", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        if (failed > 0) {
+            throw new OptimizationException("The Closure Compiler failed to compile " + failed + " of "
+                    + files.size() + " files.");
+        }
+    }
+
+    /**
+     * @return whether the file was minified
+     */
+    private boolean minify(File file, ErrorReporter reporter) throws IOException {
+        Trace.Span span = Trace.begin("closure", file.getName());
+        try {
+            String code = FileUtils.fileRead(file, "UTF-8");
+            String key = cache != null ? Digests.sha1(settingsKey + "\n" + code) : null;
+            String minified = cache != null ? cache.get(key) : null;
+            if (minified == null) {
+                Compiler compiler = new Compiler(new SilentErrorManager());
+                compiler.disableThreads();
+                Result result = compiler.compile(externs,
+                        Collections.singletonList(SourceFile.fromCode(file.getAbsolutePath(), code)), createOptions());
+                if (!result.success) {
+                    synchronized (reporter) {
+                        for (JSError error : result.errors) {
+                            reporter.error(error.description, error.sourceName, error.lineNumber, null, 0);
+                        }
+                    }
+                    return false;
+                }
+                minified = compiler.toSource();
+                if (cache != null) {
+                    cache.put(key, minified);
+                }
+            }
+            FileUtils.fileWrite(file.getAbsolutePath(), "UTF-8", minified);
+            return true;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * The compiler adjusts the options it is given while initializing, so
+     * every compilation gets its own instance of the same settings.
+     */
+    private CompilerOptions createOptions() {
+        CompilerOptions options = new CompilerOptions();
+        mode.level.setOptionsForCompilationLevel(options);
+        WarningLevel.QUIET.setOptionsForWarningLevel(options);
+        options.setLanguageIn(CompilerOptions.LanguageMode.ECMASCRIPT5);
+        return options;
+    }
+
+    /**
+     * Errors are taken from the result instead of being printed.
+     */
+    private static class SilentErrorManager extends BasicErrorManager {
+        @Override
+        public void println(CheckLevel level, JSError error) {
+        }
+
+        @Override
+        protected void printSummary() {
+        }
+    }
+
+    private static class CompilerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(null, runnable, "closure-compiler-" + count.incrementAndGet(), STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
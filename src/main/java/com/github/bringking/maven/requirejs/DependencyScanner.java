@@ -0,0 +1,262 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Lists the modules in a folder for the ${scanFolder} token of a filtered
+ * build profile: the paths of the matching files relative to the folder,
+ * without extension, quoted and sorted.
+ *
+ * Directories are listed in parallel, one level of the tree at a time. The
+ * listing of every directory is kept in an index file together with the
+ * modification time of the directory, so a later scan only lists directories
+ * whose entries changed and just checks the others.
+ */
+public class DependencyScanner {
+
+    private static final String[] DEFAULT_INCLUDES = { "**/*.js" };
+
+    /**
+     * A directory modified this close to the previous scan may have changed
+     * after it was listed, within the resolution of its modification time.
+     */
+    private static final long MODIFICATION_TIME_RESOLUTION = 2000;
+
+    private static final String SCAN_TIME = "scanTime";
+
+    private final File folder;
+    private final String[] includes;
+    private final String[] excludes;
+    private final File indexFile;
+    private final int parallelism;
+
+    /**
+     * Create a scanner.
+     *
+     * @param folder the folder to scan
+     * @param includes patterns of the files to list, relative to the folder, null for all .js files
+     * @param excludes patterns of the files and directories to leave out, may be null
+     * @param indexFile file keeping the directory listings between builds, may be null
+     * @param parallelism number of directories listed at the same time
+     */
+    public DependencyScanner(File folder, String[] includes, String[] excludes, File indexFile, int parallelism) {
+        this.folder = folder;
+        this.includes = normalize(includes != null && includes.length > 0 ? includes : DEFAULT_INCLUDES);
+        this.excludes = normalize(excludes != null ? excludes : new String[0]);
+        this.indexFile = indexFile;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Scan the folder.
+     *
+     * @return the quoted module names, comma separated
+     * @throws IOException if the scan is interrupted or the index can not be written
+     */
+    public String scan() throws IOException {
+        List<String> modules = new ArrayList<String>();
+        for (String path : listFiles()) {
+            if (isIncluded(path)) {
+                int dot = path.lastIndexOf('.');
+                modules.add(dot > path.lastIndexOf('/') ? path.substring(0, dot) : path);
+            }
+        }
+        Collections.sort(modules);
+
+        StringBuilder result = new StringBuilder();
+        for (String module : modules) {
+            result.append(result.length() == 0 ? "" : ",").append('"').append(module).append('"');
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return the relative paths of all files below the folder, with / as separator
+     */
+    List<String> listFiles() throws IOException {
+        final Properties index = loadIndex();
+        final Properties newIndex = new Properties();
+        final long previousScan = Long.parseLong(index.getProperty(SCAN_TIME, "0"));
+        long scanTime = System.currentTimeMillis();
+
+        List<String> files = new ArrayList<String>();
+        List<String> level = Collections.singletonList("");
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            while (!level.isEmpty()) {
+                List<Future<String[]>> listings = new ArrayList<Future<String[]>>();
+                for (final String dir : level) {
+                    listings.add(executor.submit(new Callable<String[]>() {
+                        @Override
+                        public String[] call() {
+                            return list(dir, index, newIndex, previousScan);
+                        }
+                    }));
+                }
+                List<String> next = new ArrayList<String>();
+                for (int i = 0; i < level.size(); i++) {
+                    for (String entry : listings.get(i).get()) {
+                        String path = level.get(i) + entry;
+                        if (!entry.endsWith("/")) {
+                            files.add(path);
+                        } else if (!isExcludedDirectory(path.substring(0, path.length() - 1))) {
+                            next.add(path);
+                        }
+                    }
+                }
+                level = next;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning " + folder);
+        } catch (ExecutionException e) {
+            IOException ioe = new IOException("Unable to scan " + folder + ": " + e.getCause());
+            ioe.initCause(e.getCause());
+            throw ioe;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        newIndex.setProperty(SCAN_TIME, String.valueOf(scanTime));
+        saveIndex(newIndex);
+        return files;
+    }
+
+    /**
+     * List a directory, or take its listing from the index if the directory
+     * was not modified since. Subdirectories end with a slash.
+     */
+    private String[] list(String relativePath, Properties index, Properties newIndex, long previousScan) {
+        File dir = new File(folder, relativePath);
+        long modified = dir.lastModified();
+        String key = "dir:" + relativePath;
+        String stamp = String.valueOf(modified);
+        String cached = index.getProperty(key);
+
+        String[] entries;
+        if (cached != null && cached.startsWith(stamp + "|") && modified < previousScan - MODIFICATION_TIME_RESOLUTION) {
+            String names = cached.substring(stamp.length() + 1);
+            entries = names.length() == 0 ? new String[0] : names.split("\\|");
+        } else {
+            File[] children = dir.listFiles();
+            if (children == null) {
+                children = new File[0];
+            }
+            entries = new String[children.length];
+            for (int i = 0; i < children.length; i++) {
+                entries[i] = children[i].getName() + (children[i].isDirectory() ? "/" : "");
+            }
+            Arrays.sort(entries);
+        }
+
+        StringBuilder value = new StringBuilder(stamp).append('|');
+        for (int i = 0; i < entries.length; i++) {
+            value.append(i == 0 ? "" : "|").append(entries[i]);
+        }
+        synchronized (newIndex) {
+            newIndex.setProperty(key, value.toString());
+        }
+        return entries;
+    }
+
+    private boolean isIncluded(String path) {
+        for (String exclude : excludes) {
+            if (matchPath(exclude, path)) {
+                return false;
+            }
+        }
+        for (String include : includes) {
+            if (matchPath(include, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A directory is skipped when an exclude pattern ending in ** matches it,
+     * nothing below it could be included.
+     */
+    private boolean isExcludedDirectory(String path) {
+        for (String exclude : excludes) {
+            if (exclude.endsWith("**") && matchPath(exclude, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * SelectorUtils splits patterns and paths at the platform separator, so
+     * both are matched with it instead of /.
+     */
+    private static boolean matchPath(String pattern, String path) {
+        return SelectorUtils.matchPath(pattern.replace('/', File.separatorChar), path.replace('/',
+                File.separatorChar));
+    }
+
+    private Properties loadIndex() {
+        Properties index = new Properties();
+        if (indexFile != null && indexFile.isFile()) {
+            try {
+                InputStream in = new FileInputStream(indexFile);
+                try {
+                    index.load(in);
+                } finally {
+                    IOUtil.close(in);
+                }
+            } catch (IOException e) {
+                // list everything
+                index.clear();
+            }
+        }
+        return index;
+    }
+
+    private void saveIndex(Properties index) throws IOException {
+        if (indexFile == null) {
+            return;
+        }
+        indexFile.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(indexFile);
+        try {
+            index.store(out, "requirejs-maven-plugin directory index of " + folder);
+        } finally {
+            IOUtil.close(out);
+        }
+    }
+
+    /**
+     * Patterns use / as separator, like the relative paths they are matched
+     * against, see {@link #matchPath(String, String)}.
+     */
+    private static String[] normalize(String[] patterns) {
+        String[] result = new String[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            String pattern = patterns[i].trim().replace('\\', '/');
+            if (pattern.endsWith("/")) {
+                pattern += "**";
+            }
+            result[i] = pattern;
+        }
+        return result;
+    }
+}
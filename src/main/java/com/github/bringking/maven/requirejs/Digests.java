@@ -0,0 +1,86 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * SHA-1 helpers for content keyed caches and fingerprints.
+ */
+final class Digests {
+
+    private Digests() {
+    }
+
+    /**
+     * @return a new SHA-1 digest
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available.", e);
+        }
+    }
+
+    /**
+     * Add the UTF-8 bytes of a string to a digest.
+     */
+    static void update(MessageDigest digest, String value) {
+        try {
+            digest.update(value.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not available.", e);
+        }
+    }
+
+    /**
+     * Add the content of a stream to a digest. The stream is closed.
+     */
+    static void update(MessageDigest digest, InputStream in) throws IOException {
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * @return the hex SHA-1 of the UTF-8 bytes of a string
+     */
+    static String sha1(String value) {
+        MessageDigest digest = newDigest();
+        update(digest, value);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return the hex SHA-1 of the content of a file
+     */
+    static String sha1(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, new FileInputStream(file));
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return the bytes as lower case hex string
+     */
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Detects changed files below a set of roots by comparing the modification
+ * time and size of every file with the previous poll. Excluded files and
+ * the files below excluded directories, like the output of the optimizer,
+ * are ignored.
+ */
+class FileWatcher {
+
+    private final List<File> roots = new ArrayList<File>();
+    private FileFilter excluded;
+    private Map<String, long[]> snapshot;
+
+    /**
+     * Create a watcher and take the first snapshot.
+     *
+     * @param roots the files and directories to watch
+     * @param excluded accepts the files and directories not to watch
+     */
+    FileWatcher(Collection<File> roots, FileFilter excluded) {
+        setPaths(roots, excluded);
+        snapshot = takeSnapshot();
+    }
+
+    /**
+     * Watch other roots, keeping the snapshot of the files watched before, so
+     * changes made since the previous poll are still reported by the next.
+     * Files which are watched only now are taken as they are.
+     *
+     * @param roots the files and directories to watch
+     * @param excluded accepts the files and directories not to watch
+     */
+    void setRoots(Collection<File> roots, FileFilter excluded) {
+        List<File> previousRoots = new ArrayList<File>(this.roots);
+        FileFilter previousExcluded = this.excluded;
+        setPaths(roots, excluded);
+        Map<String, long[]> current = takeSnapshot();
+        for (Iterator<String> paths = current.keySet().iterator(); paths.hasNext();) {
+            String path = paths.next();
+            if (!snapshot.containsKey(path) && isBelow(new File(path), previousRoots)
+                    && !isExcluded(path, previousExcluded)) {
+                // added since the previous poll
+                paths.remove();
+            }
+        }
+        for (Map.Entry<String, long[]> entry : snapshot.entrySet()) {
+            String path = entry.getKey();
+            if (isBelow(new File(path), this.roots) && !isExcluded(path, this.excluded)) {
+                current.put(path, entry.getValue());
+            }
+        }
+        snapshot = current;
+    }
+
+    private void setPaths(Collection<File> roots, FileFilter excluded) {
+        this.roots.clear();
+        for (File root : roots) {
+            this.roots.add(root.getAbsoluteFile());
+        }
+        this.excluded = excluded;
+    }
+
+    /**
+     * Compare the files with the previous poll.
+     *
+     * @return the added, modified and deleted files, sorted
+     */
+    Set<File> poll() {
+        Map<String, long[]> current = takeSnapshot();
+        Set<File> changed = new TreeSet<File>();
+        for (Map.Entry<String, long[]> entry : current.entrySet()) {
+            long[] previous = snapshot.get(entry.getKey());
+            if (previous == null || previous[0] != entry.getValue()[0] || previous[1] != entry.getValue()[1]) {
+                changed.add(new File(entry.getKey()));
+            }
+        }
+        for (String path : snapshot.keySet()) {
+            if (!current.containsKey(path)) {
+                changed.add(new File(path));
+            }
+        }
+        snapshot = current;
+        return changed;
+    }
+
+    private Map<String, long[]> takeSnapshot() {
+        Map<String, long[]> files = new HashMap<String, long[]>();
+        for (File root : roots) {
+            add(files, root);
+        }
+        return files;
+    }
+
+    private void add(Map<String, long[]> files, File file) {
+        String path = file.getPath();
+        if (excluded.accept(file) || files.containsKey(path)) {
+            return;
+        }
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    add(files, child);
+                }
+            }
+        } else if (file.exists()) {
+            files.put(path, new long[] { file.lastModified(), file.length() });
+        }
+    }
+
+    /**
+     * @return whether the file or a directory it is in is excluded
+     */
+    private static boolean isExcluded(String path, FileFilter excluded) {
+        for (File file = new File(path); file != null; file = file.getParentFile()) {
+            if (excluded.accept(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether a file is one of the roots or below one of them.
+     *
+     * @param file an absolute file
+     * @param roots the roots
+     * @return whether the file is watched through one of the roots
+     */
+    static boolean isBelow(File file, Collection<File> roots) {
+        String path = file.getAbsolutePath();
+        for (File root : roots) {
+            String rootPath = root.getAbsolutePath();
+            if (path.equals(rootPath) || path.startsWith(rootPath + File.separator)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
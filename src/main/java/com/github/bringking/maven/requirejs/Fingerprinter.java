@@ -0,0 +1,422 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Renames the build layers of a profile to names containing a hash of their
+ * content (<tt>main.3f2a9c1b0d.js</tt> for <tt>main.js</tt>), so they can be
+ * served with a far future expiry. The layers are the out file, or the
+ * modules listed in the build.txt of a dir build.
+ *
+ * In a dir build, the copy of the mainConfigFile in the dir gets a paths
+ * entry for every renamed module, which also covers bundles, as the loader
+ * resolves bundle ids through paths. The mainConfigFile is renamed last,
+ * when it is a layer itself, so its name covers the new paths.
+ *
+ * A JSON manifest maps every module to its file, relative to the manifest,
+ * with the size and gzip size of the file, for server side templates:
+ * <tt>requirejs-manifest.json</tt> in the dir, or
+ * <tt>main.manifest.json</tt> next to the out file <tt>main.js</tt>.
+ *
+ * The compressed variants of the layers of earlier builds are removed with
+ * them; compress the layers after renaming them, see {@link #getLayerFiles()}.
+ */
+public class Fingerprinter {
+
+    static final String DIR_MANIFEST = "requirejs-manifest.json";
+
+    static final String OUT_MANIFEST_SUFFIX = ".manifest.json";
+
+    /**
+     * The number of hex digits of the SHA-1 of the content in a name.
+     */
+    static final int HASH_LENGTH = 10;
+
+    private final BuildProfile profile;
+    private final int parallelism;
+    private final Map<String, Layer> layers = new TreeMap<String, Layer>();
+    private File configFile;
+    private int pathsAdded = -1;
+
+    /**
+     * @param profile the build profile
+     * @param parallelism the number of files hashed at the same time
+     */
+    public Fingerprinter(BuildProfile profile, int parallelism) {
+        this.profile = profile;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Return the manifest written for a profile.
+     *
+     * @param profile the build profile
+     * @return the manifest or <code>null</code> if the profile has neither an out nor a dir
+     */
+    public static File getManifestFile(BuildProfile profile) {
+        if (profile.getOut() != null) {
+            return new File(profile.getOut().getParentFile(), getBaseName(profile.getOut().getName())
+                    + OUT_MANIFEST_SUFFIX);
+        }
+        return profile.getDir() != null ? new File(profile.getDir(), DIR_MANIFEST) : null;
+    }
+
+    /**
+     * Rename the layers and write the manifest.
+     *
+     * @throws IOException if a layer can not be read or renamed, or the manifest not written
+     */
+    public void fingerprint() throws IOException {
+        File manifestFile = getManifestFile(profile);
+        if (manifestFile == null) {
+            return;
+        }
+        File root = manifestFile.getParentFile();
+        findLayers();
+
+        Layer configLayer = null;
+        List<Layer> first = new ArrayList<Layer>();
+        for (Layer layer : layers.values()) {
+            if (layer.file.equals(configFile)) {
+                configLayer = layer;
+            } else {
+                first.add(layer);
+            }
+        }
+        hash(first);
+        if (configFile != null) {
+            pathsAdded = addPaths();
+        }
+        if (configLayer != null) {
+            hash(Collections.singletonList(configLayer));
+        }
+        writeManifest(manifestFile, root);
+    }
+
+    /**
+     * @return a summary for the log
+     */
+    public String getSummary() {
+        return layers.size() + " layers renamed"
+                + (pathsAdded >= 0 ? ", " + pathsAdded + " paths set in " + configFile.getName() : "");
+    }
+
+    /**
+     * @return the renamed layers, with their new names
+     */
+    public List<File> getLayerFiles() {
+        List<File> files = new ArrayList<File>();
+        for (Layer layer : layers.values()) {
+            if (layer.hashed != null) {
+                files.add(layer.hashed);
+            }
+        }
+        return files;
+    }
+
+    private void findLayers() throws IOException {
+        File out = profile.getOut();
+        if (out != null) {
+            if (out.isFile() && out.getName().endsWith(".js")) {
+                String name = profile.getString("name");
+                layers.put(name != null ? name : getBaseName(out.getName()), new Layer(out));
+            }
+            return;
+        }
+
+        File dir = profile.getDir();
+        Set<String> paths = new LinkedHashSet<String>();
+        ShardedBuild.readBuildText(new File(dir, ShardedBuild.BUILD_TXT), paths, new HashSet<String>());
+        Map<File, String> ids = getModuleIds();
+        File dirBaseUrl = getDirBaseUrl();
+        for (String path : paths) {
+            File file = new File(dir, path);
+            if (!path.endsWith(".js") || path.startsWith("..") || !file.isFile()) {
+                continue;
+            }
+            String id = ids.get(normalize(file));
+            if (id == null) {
+                id = getBaseName(relativize(dirBaseUrl, file));
+            }
+            layers.put(id, new Layer(file));
+        }
+
+        File mainConfigFile = profile.getMainConfigFile();
+        String relative = mainConfigFile != null ? relativize(profile.getSourceDir(), mainConfigFile) : null;
+        if (relative != null && !relative.startsWith("..")) {
+            File copy = normalize(new File(dir, relative));
+            if (copy.isFile()) {
+                configFile = copy;
+            }
+        }
+    }
+
+    /**
+     * Map the output files of the modules of the profile to their ids, the
+     * way r.js finds the files of the modules it builds.
+     */
+    private Map<File, String> getModuleIds() {
+        Map<File, String> ids = new LinkedHashMap<File, String>();
+        ModuleGraph graph = ModuleGraph.forProfile(profile);
+        if (graph == null) {
+            return ids;
+        }
+        File sourceDir = profile.getSourceDir();
+        for (Scriptable module : profile.getModules()) {
+            Object name = module != null ? ScriptableObject.getProperty(module, "name") : null;
+            if (!(name instanceof CharSequence)) {
+                continue;
+            }
+            File source = graph.resolve(name.toString());
+            String relative = source != null ? relativize(sourceDir, new File(source.getPath() + ".js")) : null;
+            if (relative != null && !relative.startsWith("..")) {
+                ids.put(normalize(new File(profile.getDir(), relative)), name.toString());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return the baseUrl of the built application in the dir
+     */
+    private File getDirBaseUrl() {
+        File baseUrl = profile.getBaseUrl();
+        String relative = baseUrl != null && profile.getAppDir() != null ? relativize(profile.getAppDir(), baseUrl)
+                : null;
+        return relative != null && !relative.startsWith("..") ? normalize(new File(profile.getDir(), relative))
+                : profile.getDir();
+    }
+
+    private void hash(List<Layer> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (batch.size() == 1 || parallelism == 1) {
+            for (Layer layer : batch) {
+                layer.rename();
+            }
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final Layer layer : batch) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    layer.rename();
+                    return null;
+                }
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()));
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while renaming the layers of " + profile.getFile() + ".");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Point the modules of the renamed layers to their new names in the
+     * config of the copied mainConfigFile.
+     *
+     * @return the number of paths set, 0 if the file has no config
+     */
+    private int addPaths() throws IOException {
+        File dirBaseUrl = getDirBaseUrl();
+        Map<String, String> paths = new TreeMap<String, String>();
+        for (Map.Entry<String, Layer> layer : layers.entrySet()) {
+            if (layer.getValue().hashed != null) {
+                String path = relativize(dirBaseUrl, layer.getValue().hashed);
+                paths.put(layer.getKey(), path.substring(0, path.length() - ".js".length()));
+            }
+        }
+        String source = FileUtils.fileRead(configFile, "UTF-8");
+        String rewritten = ModuleGraph.setPaths(source, configFile.getPath(), paths);
+        if (rewritten == null) {
+            return 0;
+        }
+        FileUtils.fileWrite(configFile.getPath(), "UTF-8", rewritten);
+        return paths.size();
+    }
+
+    private void writeManifest(File manifestFile, File root) throws IOException {
+        StringBuilder json = new StringBuilder("{");
+        String separator = "\n";
+        for (Map.Entry<String, Layer> entry : layers.entrySet()) {
+            Layer layer = entry.getValue();
+            json.append(separator).append("  ").append(Trace.quote(entry.getKey())).append(": {\"file\": ")
+                    .append(Trace.quote(relativize(root, layer.hashed))).append(", \"size\": ").append(layer.size)
+                    .append(", \"gzipSize\": ").append(layer.gzipSize).append('}');
+            separator = ",\n";
+        }
+        json.append("\n}\n");
+        FileUtils.fileWrite(manifestFile.getPath(), "UTF-8", json.toString());
+    }
+
+    static String getBaseName(String name) {
+        return name.endsWith(".js") ? name.substring(0, name.length() - ".js".length()) : name;
+    }
+
+    /**
+     * @return the path of a file relative to a directory with / as separator, ../ where needed
+     */
+    static String relativize(File dir, File file) {
+        String[] from = normalize(dir).getPath().split(Pattern.quote(File.separator));
+        String[] to = normalize(file).getPath().split(Pattern.quote(File.separator));
+        int common = 0;
+        while (common < from.length && common < to.length && from[common].equals(to[common])) {
+            common++;
+        }
+        StringBuilder path = new StringBuilder();
+        for (int i = common; i < from.length; i++) {
+            path.append("../");
+        }
+        for (int i = common; i < to.length; i++) {
+            path.append(to[i]).append(i < to.length - 1 ? "/" : "");
+        }
+        return path.toString();
+    }
+
+    /**
+     * Read a file once for its size, the size it compresses to with gzip at
+     * the best compression level and optionally its digest.
+     *
+     * @param file the file
+     * @param digest the digest to update or <code>null</code>
+     * @return the size and the gzip size
+     * @throws IOException if the file can not be read
+     */
+    static long[] measure(File file, MessageDigest digest) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream();
+        OutputStream gzip = new GZIPOutputStream(counter, 64 * 1024) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        };
+        long size = 0;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                if (digest != null) {
+                    digest.update(buffer, 0, read);
+                }
+                gzip.write(buffer, 0, read);
+                size += read;
+            }
+            gzip.close();
+        } finally {
+            IOUtil.close(in);
+        }
+        return new long[] { size, counter.count };
+    }
+
+    private static File normalize(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    /**
+     * A layer and what its content hashes to.
+     */
+    private static final class Layer {
+        private final File file;
+        private File hashed;
+        private long size;
+        private long gzipSize;
+
+        Layer(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Hash the content and measure it in one pass, then rename the
+         * file and remove the files of earlier builds.
+         */
+        void rename() throws IOException {
+            MessageDigest digest = Digests.newDigest();
+            long[] sizes = measure(file, digest);
+            size = sizes[0];
+            gzipSize = sizes[1];
+
+            String baseName = getBaseName(file.getName());
+            String hash = Digests.toHex(digest.digest()).substring(0, HASH_LENGTH);
+            hashed = new File(file.getParentFile(), baseName + "." + hash + ".js");
+            if (hashed.exists() && !hashed.delete()) {
+                throw new IOException("Unable to replace " + hashed + ".");
+            }
+            if (!file.renameTo(hashed)) {
+                throw new IOException("Unable to rename " + file + " to " + hashed.getName() + ".");
+            }
+
+            Pattern earlier = Pattern.compile(Pattern.quote(baseName) + "\\.[0-9a-f]{" + HASH_LENGTH
+                    + "}\\.js(\\.gz)?");
+            File[] siblings = file.getParentFile().listFiles();
+            for (File sibling : siblings != null ? siblings : new File[0]) {
+                if (!sibling.equals(hashed) && earlier.matcher(sibling.getName()).matches()) {
+                    sibling.delete();
+                }
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
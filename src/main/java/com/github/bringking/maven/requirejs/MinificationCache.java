@@ -0,0 +1,183 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Cache of minified files shared by all profiles and builds. Generated build
+ * profiles install a hook in r.js which looks up the minified content of every
+ * file in the cache directory before minifying it, keyed by the content, the
+ * optimizer and the minification settings (see minifyCache.js). Minification
+ * done in Java uses {@link #get(String)} and {@link #put(String, String)}
+ * with the same layout. The cache is kept below a maximum size by removing
+ * the least recently used entries.
+ */
+public class MinificationCache {
+
+    static final String CLASSPATH_MINIFY_CACHE_JS = "/minifyCache.js";
+
+    /**
+     * Temporary files left by an interrupted build are removed after this
+     * many milliseconds.
+     */
+    private static final long TEMP_FILE_AGE = 60 * 60 * 1000;
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * @param directory the cache directory
+     * @param maxSize maximum size of all entries in bytes
+     */
+    public MinificationCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Generate a build profile which minifies through the cache.
+     *
+     * @param buildProfile the build profile
+     * @param stagingRoot directory for the generated profiles
+     * @param optimizerKey identifies the optimizer script, e.g. its hash
+     * @return the generated profile, with the same name as the original one
+     * @throws IOException if the profile can not be read or written
+     */
+    public File wrapProfile(File buildProfile, File stagingRoot, String optimizerKey) throws IOException {
+        StringBuilder js = new StringBuilder();
+        js.append("    config._minifyCache = { dir: ").append(ProfileWrapper.quote(directory.getAbsolutePath()
+                .replace('\\', '/')));
+        js.append(", optimizer: ").append(ProfileWrapper.quote(optimizerKey)).append(" };\n");
+        js.append(ClasspathResources.read(CLASSPATH_MINIFY_CACHE_JS).replaceAll("(?m)^(?=.)", "    "));
+        if (js.charAt(js.length() - 1) != '\n') {
+            js.append('\n');
+        }
+
+        String profile = ProfileWrapper.wrap(buildProfile, ProfileWrapper.read(buildProfile), "minification cache",
+                js.toString());
+        File dir = new File(stagingRoot, Digests.sha1(buildProfile.getAbsolutePath()));
+        dir.mkdirs();
+        File file = new File(dir, buildProfile.getName());
+        FileUtils.fileWrite(file.getAbsolutePath(), "UTF-8", profile);
+        return file;
+    }
+
+    /**
+     * Look up minified content stored by {@link #put(String, String)}.
+     *
+     * @param key the hex SHA-1 of the content and everything else which changes the result
+     * @return the minified content or <code>null</code>
+     */
+    public String get(String key) {
+        File entry = getEntry(key);
+        try {
+            if (entry.isFile()) {
+                String content = FileUtils.fileRead(entry, "UTF-8");
+                entry.setLastModified(System.currentTimeMillis());
+                return content;
+            }
+        } catch (IOException e) {
+            // evicted meanwhile
+        }
+        return null;
+    }
+
+    /**
+     * Store minified content. Failures are ignored, the cache only saves
+     * time.
+     *
+     * @param key the hex SHA-1 of the content and everything else which changes the result
+     * @param content the minified content
+     */
+    public void put(String key, String content) {
+        File entry = getEntry(key);
+        try {
+            entry.getParentFile().mkdirs();
+            // concurrent builds never read a partial entry
+            File temp = File.createTempFile(key, ".tmp", entry.getParentFile());
+            FileUtils.fileWrite(temp.getAbsolutePath(), "UTF-8", content);
+            if (!temp.renameTo(entry)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            // not cached
+        }
+    }
+
+    private File getEntry(String key) {
+        return new File(directory, key.substring(0, 2) + "/" + key + ".js");
+    }
+
+    /**
+     * Remove the least recently used entries until the cache is smaller than
+     * its maximum size.
+     *
+     * @return the number of removed entries
+     */
+    public int trim() {
+        List<File> entries = new ArrayList<File>();
+        // other builds touch entries meanwhile, sort by the times seen now
+        final Map<File, Long> lastUsed = new HashMap<File, Long>();
+        long size = 0;
+        long now = System.currentTimeMillis();
+        File[] dirs = directory.listFiles();
+        if (dirs == null) {
+            return 0;
+        }
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.getName().endsWith(".tmp")) {
+                    if (now - file.lastModified() > TEMP_FILE_AGE) {
+                        file.delete();
+                    }
+                } else {
+                    entries.add(file);
+                    lastUsed.put(file, file.lastModified());
+                    size += file.length();
+                }
+            }
+        }
+        if (size <= maxSize) {
+            return 0;
+        }
+
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = lastUsed.get(a) - lastUsed.get(b);
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        int removed = 0;
+        for (File entry : entries) {
+            if (size <= maxSize) {
+                break;
+            }
+            long length = entry.length();
+            if (entry.delete()) {
+                size -= length;
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return the cache directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+}
@@ -0,0 +1,829 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ErrorReporter;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.Parser;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.ast.ArrayLiteral;
+import org.mozilla.javascript.ast.AstNode;
+import org.mozilla.javascript.ast.FunctionCall;
+import org.mozilla.javascript.ast.Name;
+import org.mozilla.javascript.ast.NodeVisitor;
+import org.mozilla.javascript.ast.ObjectLiteral;
+import org.mozilla.javascript.ast.ObjectProperty;
+import org.mozilla.javascript.ast.StringLiteral;
+import org.mozilla.javascript.ast.VariableInitializer;
+
+/**
+ * Dependency graph of the AMD modules below a baseUrl, built without running
+ * r.js. Every file is parsed with the Rhino parser for the string literal
+ * dependencies of its define and require calls, the same dependencies r.js
+ * traces. Module ids are resolved to files with the paths setting, plugin
+ * resources (text!template.html) to the resource files. The deps of shimmed
+ * modules count as their dependencies, r.js traces them as well.
+ *
+ * The dependencies of every file are kept together with its size and
+ * modification time in an index file, so later builds only parse the files
+ * which changed. Files are parsed in parallel.
+ */
+public class ModuleGraph {
+
+    /**
+     * Dependencies which are provided by require.js itself.
+     */
+    private static final Set<String> SPECIAL_MODULES = new HashSet<String>(Arrays.asList("require", "exports",
+            "module"));
+
+    /**
+     * Settings changing the resolution of module ids in ways the graph does
+     * not follow.
+     */
+    private static final String[] UNSUPPORTED_SETTINGS = { "packages", "map", "bundles" };
+
+    private static final String BASE_URL = "baseUrl";
+
+    /**
+     * Returned for modules which are not part of the build, like empty: paths.
+     */
+    private static final File EXTERNAL = new File("empty:");
+
+    private static final int BATCH_SIZE = 64;
+
+    private final File baseUrl;
+    private final Map<String, String> paths;
+    private final Map<String, List<String>> shim;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Create an empty graph.
+     *
+     * @param baseUrl the directory module ids are relative to
+     * @param paths the paths setting: module id prefixes and their locations
+     */
+    public ModuleGraph(File baseUrl, Map<String, String> paths) {
+        this(baseUrl, paths, Collections.<String, List<String>> emptyMap());
+    }
+
+    /**
+     * Create an empty graph.
+     *
+     * @param baseUrl the directory module ids are relative to
+     * @param paths the paths setting: module id prefixes and their locations
+     * @param shim the deps of the shimmed modules by module id
+     */
+    public ModuleGraph(File baseUrl, Map<String, String> paths, Map<String, List<String>> shim) {
+        this.baseUrl = baseUrl.getAbsoluteFile();
+        this.paths = new HashMap<String, String>(paths);
+        this.shim = new HashMap<String, List<String>>(shim);
+    }
+
+    /**
+     * Create an empty graph for a build profile, with the baseUrl and paths
+     * r.js would use, including those of its mainConfigFile.
+     *
+     * @param profile the build profile
+     * @return the graph or <code>null</code> if the profile resolves modules in ways the graph does not follow
+     */
+    public static ModuleGraph forProfile(BuildProfile profile) {
+        Map<String, String> paths = new HashMap<String, String>();
+        Map<String, List<String>> shim = new HashMap<String, List<String>>();
+        File mainConfigFile = profile.getMainConfigFile();
+        if (mainConfigFile != null) {
+            Scriptable mainConfig = readMainConfig(mainConfigFile);
+            // without a baseUrl in the profile, r.js takes the one of the main config
+            if (mainConfig == null || profile.getBaseUrl() == null || !addPaths(mainConfig, paths)
+                    || !addShim(mainConfig, shim)) {
+                return null;
+            }
+        }
+        if (!addPaths(profile.getConfig(), paths) || !addShim(profile.getConfig(), shim)) {
+            return null;
+        }
+        File baseUrl = profile.getBaseUrl() != null ? profile.getBaseUrl() : profile.getSourceDir();
+        return new ModuleGraph(baseUrl, paths, shim);
+    }
+
+    /**
+     * Return the modules a single file build starts from: name, include,
+     * deps, exclude and excludeShallow, and the deps of the mainConfigFile,
+     * which r.js merges into the profile.
+     *
+     * @param profile the build profile
+     * @return the module ids or <code>null</code> if the profile does not build modules into an out file
+     */
+    public static List<String> getRootModules(BuildProfile profile) {
+        if (profile.getOut() == null || profile.getDir() != null) {
+            return null;
+        }
+        Scriptable config = profile.getConfig();
+        if (ScriptableObject.getProperty(config, "wrap") instanceof Scriptable
+                || ScriptableObject.hasProperty(config, "cssIn")) {
+            return null;
+        }
+        List<String> modules = new ArrayList<String>();
+        for (String setting : new String[] { "name", "include", "deps", "exclude", "excludeShallow" }) {
+            addStrings(ScriptableObject.getProperty(config, setting), modules);
+        }
+        Scriptable mainConfig = profile.getMainConfigFile() != null ? readMainConfig(profile.getMainConfigFile())
+                : null;
+        if (mainConfig != null) {
+            addStrings(ScriptableObject.getProperty(mainConfig, "deps"), modules);
+        }
+        return modules.isEmpty() ? null : modules;
+    }
+
+    /**
+     * Add a string or the strings of an array.
+     */
+    private static void addStrings(Object value, List<String> strings) {
+        if (value instanceof CharSequence) {
+            strings.add(value.toString());
+        } else if (value instanceof NativeArray) {
+            NativeArray array = (NativeArray) value;
+            for (int i = 0; i < array.getLength(); i++) {
+                Object string = array.get(i, array);
+                if (string instanceof CharSequence) {
+                    strings.add(string.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Load the dependencies saved by a previous build. An index for another
+     * baseUrl or an unreadable index is ignored.
+     *
+     * @param indexFile the index file
+     */
+    public void load(File indexFile) {
+        if (!indexFile.isFile()) {
+            return;
+        }
+        Properties index = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(indexFile);
+            index.load(in);
+        } catch (IOException e) {
+            return;
+        } finally {
+            IOUtil.close(in);
+        }
+        if (!baseUrl.getPath().equals(index.getProperty(BASE_URL))) {
+            return;
+        }
+        for (String path : index.stringPropertyNames()) {
+            Entry entry = Entry.parse(index.getProperty(path));
+            if (!BASE_URL.equals(path) && entry != null) {
+                File file = new File(path);
+                entries.put((file.isAbsolute() ? file : new File(baseUrl, path)).getPath(), entry);
+            }
+        }
+    }
+
+    /**
+     * Save the dependencies of all parsed files, paths below the baseUrl
+     * relative to it.
+     *
+     * @param indexFile the index file
+     * @throws IOException if the file can not be written
+     */
+    public void save(File indexFile) throws IOException {
+        Properties index = new Properties();
+        index.setProperty(BASE_URL, baseUrl.getPath());
+        String prefix = baseUrl.getPath() + File.separator;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            String path = entry.getKey();
+            if (path.startsWith(prefix)) {
+                path = path.substring(prefix.length()).replace(File.separatorChar, '/');
+            }
+            index.setProperty(path, entry.getValue().toString());
+        }
+        indexFile.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(indexFile);
+        try {
+            index.store(out, "requirejs-maven-plugin module graph");
+        } finally {
+            IOUtil.close(out);
+        }
+    }
+
+    /**
+     * Bring the graph up to date with the .js files below the baseUrl:
+     * files which are new or changed since they were parsed are parsed
+     * again, in parallel, and deleted files are removed.
+     *
+     * @param excludes patterns of files and folders not to parse, like the build output, may be null
+     * @param listingIndex index file for the directory listings, may be null
+     * @param parallelism number of files parsed at the same time
+     * @return the number of parsed files
+     * @throws IOException if the baseUrl can not be listed
+     */
+    public int update(String[] excludes, File listingIndex, int parallelism) throws IOException {
+        List<File> files = new ArrayList<File>();
+        Set<String> present = new HashSet<String>();
+        if (baseUrl.isDirectory()) {
+            for (String path : new DependencyScanner(baseUrl, null, excludes, listingIndex, parallelism).listFiles()) {
+                if (path.endsWith(".js")) {
+                    File file = new File(baseUrl, path);
+                    files.add(file);
+                    present.add(file.getPath());
+                }
+            }
+        }
+        String prefix = baseUrl.getPath() + File.separator;
+        for (String path : new ArrayList<String>(entries.keySet())) {
+            if (path.startsWith(prefix) && !present.contains(path)) {
+                entries.remove(path);
+            }
+        }
+        return update(files, parallelism);
+    }
+
+    /**
+     * Bring the graph up to date with some files, e.g. files reported as
+     * changed. Files which are unchanged since they were parsed are skipped.
+     *
+     * @param files the files
+     * @param parallelism number of files parsed at the same time
+     * @return the number of parsed files
+     * @throws IOException if the update is interrupted
+     */
+    public int update(Collection<File> files, int parallelism) throws IOException {
+        List<File> list = new ArrayList<File>(files);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism,
+                (list.size() + BATCH_SIZE - 1) / BATCH_SIZE)));
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        try {
+            for (int i = 0; i < list.size(); i += BATCH_SIZE) {
+                final List<File> batch = list.subList(i, Math.min(list.size(), i + BATCH_SIZE));
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int parsed = 0;
+                        for (File file : batch) {
+                            if (refresh(file.getAbsoluteFile())) {
+                                parsed++;
+                            }
+                        }
+                        return parsed;
+                    }
+                }));
+            }
+            int parsed = 0;
+            for (Future<Integer> result : results) {
+                parsed += result.get();
+            }
+            return parsed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing modules below " + baseUrl);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Return every file the modules depend on, directly or indirectly: module
+     * files and plugin resources. Files which were not parsed yet are parsed
+     * on the way.
+     *
+     * @param modules the module ids
+     * @return the files, or <code>null</code> if a dependency can not be resolved to a file or parsed
+     */
+    public Set<File> getFiles(Collection<String> modules) {
+        Set<File> files = new TreeSet<File>();
+        Set<String> seen = new HashSet<String>();
+        LinkedList<String> queue = new LinkedList<String>(modules);
+        while (!queue.isEmpty()) {
+            String id = queue.removeFirst();
+            if (SPECIAL_MODULES.contains(id) || !seen.add(id)) {
+                continue;
+            }
+
+            int bang = id.indexOf('!');
+            File file;
+            String moduleId = id;
+            if (bang != -1) {
+                queue.add(id.substring(0, bang));
+                moduleId = id.substring(bang + 1);
+                if (moduleId.length() == 0) {
+                    continue;
+                }
+                // a resource with its extension (text!a.html) or a module (i18n!nls/strings)
+                file = resolve(moduleId);
+                if (file != null && file != EXTERNAL && !file.isFile()) {
+                    file = new File(file.getPath() + ".js");
+                }
+            } else {
+                file = resolve(moduleId);
+                if (file != null && file != EXTERNAL) {
+                    file = new File(file.getPath() + ".js");
+                }
+            }
+            if (file == EXTERNAL) {
+                continue;
+            }
+            if (file == null || !file.isFile()) {
+                return null;
+            }
+
+            files.add(file);
+            List<String> shimDeps = shim.get(moduleId);
+            if (shimDeps != null) {
+                queue.addAll(shimDeps);
+            }
+            if (file.getName().endsWith(".js")) {
+                refresh(file);
+                Entry entry = entries.get(file.getPath());
+                if (entry == null || entry.dependencies == null) {
+                    return null;
+                }
+                for (String dependency : entry.dependencies) {
+                    queue.add(normalize(dependency, moduleId));
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @return the directory module ids are relative to
+     */
+    public File getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * @param file a parsed file
+     * @return its dependencies as written, or <code>null</code> if it was not parsed or could not be parsed
+     */
+    List<String> getDependencies(File file) {
+        Entry entry = entries.get(file.getAbsolutePath());
+        return entry != null ? entry.dependencies : null;
+    }
+
+    /**
+     * Parse a file if it is new or changed since it was parsed.
+     *
+     * @return whether the file was parsed
+     */
+    private boolean refresh(File file) {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        Entry entry = entries.get(file.getPath());
+        if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+            return false;
+        }
+        List<String> dependencies;
+        try {
+            dependencies = findDependencies(FileUtils.fileRead(file, "UTF-8"), file.getPath());
+        } catch (IOException e) {
+            dependencies = null;
+        }
+        entries.put(file.getPath(), new Entry(lastModified, length, dependencies));
+        return true;
+    }
+
+    /**
+     * Find the string literal dependencies of the define, require and
+     * requirejs calls in a script, the way r.js finds them.
+     *
+     * @param source the script
+     * @param name the name of the script for errors
+     * @return the dependencies as written, or <code>null</code> if the script can not be parsed
+     */
+    static List<String> findDependencies(String source, String name) {
+        final Set<String> dependencies = new TreeSet<String>();
+        try {
+            createParser().parse(source, name, 1).visit(new NodeVisitor() {
+                @Override
+                public boolean visit(AstNode node) {
+                    if (node instanceof FunctionCall) {
+                        addDependencies((FunctionCall) node, dependencies);
+                    }
+                    return true;
+                }
+            });
+        } catch (RhinoException e) {
+            return null;
+        }
+        return new ArrayList<String>(dependencies);
+    }
+
+    private static void addDependencies(FunctionCall call, Set<String> dependencies) {
+        if (!(call.getTarget() instanceof Name)) {
+            return;
+        }
+        String function = ((Name) call.getTarget()).getIdentifier();
+        List<AstNode> arguments = call.getArguments();
+        if ("define".equals(function)) {
+            // define(id?, dependencies?, factory), requires in the factory are found as calls
+            for (AstNode argument : arguments) {
+                if (argument instanceof ArrayLiteral) {
+                    addStrings((ArrayLiteral) argument, dependencies);
+                    break;
+                }
+            }
+        } else if ("require".equals(function) || "requirejs".equals(function)) {
+            // require('id'), require([ids], callback) or require(config, [ids], callback)
+            AstNode first = arguments.isEmpty() ? null : arguments.get(0);
+            if (first instanceof ObjectLiteral) {
+                first = arguments.size() > 1 ? arguments.get(1) : null;
+            }
+            if (first instanceof StringLiteral) {
+                dependencies.add(((StringLiteral) first).getValue());
+            } else if (first instanceof ArrayLiteral) {
+                addStrings((ArrayLiteral) first, dependencies);
+            }
+        }
+    }
+
+    private static void addStrings(ArrayLiteral array, Set<String> dependencies) {
+        for (AstNode element : array.getElements()) {
+            if (element instanceof StringLiteral) {
+                dependencies.add(((StringLiteral) element).getValue());
+            }
+        }
+    }
+
+    /**
+     * Read the config of a main config file the way r.js finds it: the
+     * object passed to require.config, requirejs.config, require or
+     * requirejs, or assigned to a require variable.
+     *
+     * @return the config or <code>null</code> if it can not be read
+     */
+    private static Scriptable readMainConfig(File mainConfigFile) {
+        ObjectLiteral found;
+        try {
+            found = findConfigLiteral(FileUtils.fileRead(mainConfigFile, "UTF-8"), mainConfigFile.getPath());
+        } catch (IOException e) {
+            return null;
+        } catch (RhinoException e) {
+            return null;
+        }
+        if (found == null) {
+            return null;
+        }
+
+        Context cx = Context.enter();
+        try {
+            Object config = cx.evaluateString(cx.initStandardObjects(), "(" + found.toSource() + ")",
+                    mainConfigFile.getPath(), 1, null);
+            return config instanceof Scriptable ? (Scriptable) config : null;
+        } catch (RhinoException e) {
+            return null;
+        } finally {
+            Context.exit();
+        }
+    }
+
+    /**
+     * Set paths in the config of a main config file, replacing the locations
+     * of modules it has paths for and adding the others. The rest of the
+     * source is left as it is.
+     *
+     * @param source the source of the main config file
+     * @param sourceName the name of the file for errors
+     * @param paths the paths to set
+     * @return the new source or <code>null</code> if the source has no config with paths which can be set
+     */
+    static String setPaths(String source, String sourceName, Map<String, String> paths) {
+        ObjectLiteral config;
+        try {
+            config = findConfigLiteral(source, sourceName);
+        } catch (RhinoException e) {
+            return null;
+        }
+        if (config == null) {
+            return null;
+        }
+        // edits by position, applied from the end so the positions before stay valid
+        TreeMap<Integer, Object[]> edits = new TreeMap<Integer, Object[]>();
+        ObjectProperty pathsProperty = getProperty(config, "paths");
+        if (pathsProperty == null) {
+            StringBuilder literal = new StringBuilder("paths: {");
+            String separator = "";
+            for (Map.Entry<String, String> path : paths.entrySet()) {
+                literal.append(separator).append(ProfileWrapper.quote(path.getKey())).append(": ")
+                        .append(ProfileWrapper.quote(path.getValue()));
+                separator = ", ";
+            }
+            insert(edits, config, literal.append('}').toString());
+        } else if (pathsProperty.getRight() instanceof ObjectLiteral) {
+            ObjectLiteral configPaths = (ObjectLiteral) pathsProperty.getRight();
+            for (Map.Entry<String, String> path : paths.entrySet()) {
+                ObjectProperty property = getProperty(configPaths, path.getKey());
+                if (property != null) {
+                    AstNode value = property.getRight();
+                    edits.put(value.getAbsolutePosition(), new Object[] {
+                            value.getAbsolutePosition() + value.getLength(), ProfileWrapper.quote(path.getValue()) });
+                } else {
+                    insert(edits, configPaths, ProfileWrapper.quote(path.getKey()) + ": "
+                            + ProfileWrapper.quote(path.getValue()));
+                }
+            }
+        } else {
+            return null;
+        }
+
+        StringBuilder result = new StringBuilder(source);
+        for (Map.Entry<Integer, Object[]> edit : edits.descendingMap().entrySet()) {
+            result.replace(edit.getKey(), (Integer) edit.getValue()[0], (String) edit.getValue()[1]);
+        }
+        return result.toString();
+    }
+
+    private static ObjectProperty getProperty(ObjectLiteral literal, String name) {
+        for (ObjectProperty property : literal.getElements()) {
+            AstNode key = property.getLeft();
+            String keyName = key instanceof Name ? ((Name) key).getIdentifier()
+                    : key instanceof StringLiteral ? ((StringLiteral) key).getValue() : null;
+            if (name.equals(keyName)) {
+                return property;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add an insertion of a property after the last property of a literal,
+     * merged with the insertions before it at the same position.
+     */
+    private static void insert(TreeMap<Integer, Object[]> edits, ObjectLiteral literal, String property) {
+        List<ObjectProperty> elements = literal.getElements();
+        int position;
+        if (elements.isEmpty()) {
+            position = literal.getAbsolutePosition() + 1;
+        } else {
+            AstNode last = elements.get(elements.size() - 1);
+            position = last.getAbsolutePosition() + last.getLength();
+            property = ", " + property;
+        }
+        Object[] edit = edits.get(position);
+        if (edit == null) {
+            edits.put(position, new Object[] { position, property });
+        } else {
+            edit[1] = edit[1] + (elements.isEmpty() ? ", " : "") + property;
+        }
+    }
+
+    private static ObjectLiteral findConfigLiteral(String source, String sourceName) {
+        final ObjectLiteral[] found = new ObjectLiteral[1];
+        createParser().parse(source, sourceName, 1).visit(new NodeVisitor() {
+            @Override
+            public boolean visit(AstNode node) {
+                if (found[0] == null) {
+                    found[0] = getConfigLiteral(node);
+                }
+                return found[0] == null;
+            }
+        });
+        return found[0];
+    }
+
+    private static ObjectLiteral getConfigLiteral(AstNode node) {
+        if (node instanceof FunctionCall) {
+            FunctionCall call = (FunctionCall) node;
+            String target = call.getTarget().toSource();
+            if (("require.config".equals(target) || "requirejs.config".equals(target) || "require".equals(target)
+                    || "requirejs".equals(target)) && !call.getArguments().isEmpty()
+                    && call.getArguments().get(0) instanceof ObjectLiteral) {
+                return (ObjectLiteral) call.getArguments().get(0);
+            }
+        } else if (node instanceof VariableInitializer) {
+            VariableInitializer initializer = (VariableInitializer) node;
+            if (initializer.getTarget() instanceof Name
+                    && "require".equals(((Name) initializer.getTarget()).getIdentifier())
+                    && initializer.getInitializer() instanceof ObjectLiteral) {
+                return (ObjectLiteral) initializer.getInitializer();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add the paths setting of a config.
+     *
+     * @return <code>false</code> if the config uses settings the graph does not follow
+     */
+    private static boolean addPaths(Scriptable config, Map<String, String> paths) {
+        for (String setting : UNSUPPORTED_SETTINGS) {
+            if (ScriptableObject.hasProperty(config, setting)) {
+                return false;
+            }
+        }
+        Object value = ScriptableObject.getProperty(config, "paths");
+        if (!(value instanceof Scriptable)) {
+            return true;
+        }
+        Scriptable configPaths = (Scriptable) value;
+        for (Object id : configPaths.getIds()) {
+            Object path = ScriptableObject.getProperty(configPaths, id.toString());
+            // r.js builds with the first of several locations
+            if (path instanceof NativeArray && ((NativeArray) path).getLength() > 0) {
+                path = ((NativeArray) path).get(0, configPaths);
+            }
+            if (!(path instanceof CharSequence)) {
+                return false;
+            }
+            paths.put(id.toString(), path.toString());
+        }
+        return true;
+    }
+
+    /**
+     * Add the deps of the shim setting of a config, given as
+     * <tt>id: {deps: [...]}</tt> or <tt>id: [...]</tt>.
+     *
+     * @return <code>false</code> if the shim setting can not be read
+     */
+    private static boolean addShim(Scriptable config, Map<String, List<String>> shim) {
+        Object value = ScriptableObject.getProperty(config, "shim");
+        if (!(value instanceof Scriptable)) {
+            return true;
+        }
+        Scriptable configShim = (Scriptable) value;
+        for (Object id : configShim.getIds()) {
+            Object module = ScriptableObject.getProperty(configShim, id.toString());
+            Object deps = module instanceof NativeArray || !(module instanceof Scriptable) ? module
+                    : ScriptableObject.getProperty((Scriptable) module, "deps");
+            if (deps == Scriptable.NOT_FOUND) {
+                continue;
+            }
+            if (!(deps instanceof NativeArray)) {
+                return false;
+            }
+            List<String> moduleDeps = new ArrayList<String>();
+            addStrings(deps, moduleDeps);
+            shim.put(id.toString(), moduleDeps);
+        }
+        return true;
+    }
+
+    /**
+     * Resolve a module id with the paths setting.
+     *
+     * @return the location without extension, {@link #EXTERNAL} or <code>null</code> for URLs
+     */
+    File resolve(String id) {
+        if (id.endsWith(".js") || id.startsWith("/") || id.indexOf(':') != -1) {
+            return null;
+        }
+        String prefix = null;
+        for (String candidate : paths.keySet()) {
+            if ((id.equals(candidate) || id.startsWith(candidate + "/"))
+                    && (prefix == null || candidate.length() > prefix.length())) {
+                prefix = candidate;
+            }
+        }
+        if (prefix == null) {
+            return new File(baseUrl, id);
+        }
+        String path = paths.get(prefix);
+        if (path.startsWith("empty:") || path.startsWith("//") || path.indexOf("://") != -1) {
+            return EXTERNAL;
+        }
+        path += id.substring(prefix.length());
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(baseUrl, path);
+    }
+
+    /**
+     * Resolve a relative module id (./a, ../a) against the id of the module
+     * it appears in. Plugin resources are resolved the same way.
+     */
+    static String normalize(String id, String referenceId) {
+        int bang = id.indexOf('!');
+        if (bang != -1) {
+            return normalize(id.substring(0, bang), referenceId) + "!"
+                    + normalize(id.substring(bang + 1), referenceId);
+        }
+        if (!id.startsWith("./") && !id.startsWith("../")) {
+            return id;
+        }
+        List<String> segments = new ArrayList<String>(Arrays.asList(referenceId.split("/")));
+        segments.remove(segments.size() - 1);
+        for (String segment : id.split("/")) {
+            if ("..".equals(segment)) {
+                if (!segments.isEmpty()) {
+                    segments.remove(segments.size() - 1);
+                }
+            } else if (!".".equals(segment)) {
+                segments.add(segment);
+            }
+        }
+        StringBuilder normalized = new StringBuilder();
+        for (String segment : segments) {
+            normalized.append(normalized.length() == 0 ? "" : "/").append(segment);
+        }
+        return normalized.toString();
+    }
+
+    private static Parser createParser() {
+        CompilerEnvirons environment = new CompilerEnvirons();
+        environment.setLanguageVersion(Context.VERSION_1_8);
+        environment.setRecordingComments(false);
+        return new Parser(environment, new ErrorReporter() {
+            @Override
+            public void warning(String message, String sourceName, int line, String lineSource, int lineOffset) {
+            }
+
+            @Override
+            public void error(String message, String sourceName, int line, String lineSource, int lineOffset) {
+                throw runtimeError(message, sourceName, line, lineSource, lineOffset);
+            }
+
+            @Override
+            public EvaluatorException runtimeError(String message, String sourceName, int line,
+                    String lineSource, int lineOffset) {
+                return new EvaluatorException(message, sourceName, line, lineSource, lineOffset);
+            }
+        });
+    }
+
+    /**
+     * Dependencies of a parsed file, stored as
+     * lastModified|length|dependencies with a comma between the dependencies,
+     * or ? for a file which can not be parsed.
+     */
+    private static final class Entry {
+        private final long lastModified;
+        private final long length;
+        private final List<String> dependencies;
+
+        private Entry(long lastModified, long length, List<String> dependencies) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.dependencies = dependencies;
+        }
+
+        private static Entry parse(String value) {
+            String[] parts = value.split("\\|", 3);
+            if (parts.length < 3) {
+                return null;
+            }
+            try {
+                List<String> dependencies = null;
+                if (!"?".equals(parts[2])) {
+                    dependencies = parts[2].length() == 0 ? Collections.<String> emptyList() : Arrays
+                            .asList(parts[2].split(","));
+                }
+                return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), dependencies);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder value = new StringBuilder().append(lastModified).append('|').append(length).append('|');
+            if (dependencies == null) {
+                return value.append('?').toString();
+            }
+            for (int i = 0; i < dependencies.size(); i++) {
+                value.append(i == 0 ? "" : ",").append(dependencies.get(i));
+            }
+            return value.toString();
+        }
+    }
+}
@@ -85,6 +85,16 @@ public class MojoErrorReporter implements ErrorReporter {
         }
     }
 
+    /**
+     * Report a line of optimizer output which is neither an error nor a
+     * warning.
+     *
+     * @param message the output line
+     */
+    public void info( String message ) {
+        log.info( message );
+    }
+
     public int getErrorCnt() {
         return errorCount;
     }
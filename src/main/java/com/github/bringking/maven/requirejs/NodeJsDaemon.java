@@ -0,0 +1,145 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.exec.StreamPumper;
+
+/**
+ * A long running node process with r.js loaded, see nodeDaemon.js for the
+ * protocol. Jobs are run one at a time.
+ */
+class NodeJsDaemon {
+
+    private final Process process;
+    private final BufferedReader reader;
+    private final Writer writer;
+    private int jobCount;
+
+    private NodeJsDaemon(Process process) throws IOException {
+        this.process = process;
+        this.reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        this.writer = new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+    }
+
+    /**
+     * Start a node process and wait until it has loaded r.js.
+     *
+     * @param nodeJsFile the node executable
+     * @param options heap size, flags and compile cache for node
+     * @param daemonScript the daemon script (nodeDaemon.js)
+     * @param optimizerFile the optimizer script to load
+     * @param idleTimeout milliseconds after which an idle process exits, 0 to keep it running
+     * @return the started daemon
+     * @throws IOException if the process can not be started
+     */
+    static NodeJsDaemon start(String nodeJsFile, NodeJsOptions options, File daemonScript, File optimizerFile,
+            long idleTimeout) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(nodeJsFile);
+        command.addAll(options.getArguments());
+        command.add(daemonScript.getAbsolutePath());
+        command.add(optimizerFile.getAbsolutePath());
+        command.add(String.valueOf(idleTimeout));
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.environment().putAll(options.getEnvironment());
+        options.createDirectories();
+        Process process = builder.start();
+        Thread stderr = new Thread(new StreamPumper(process.getErrorStream(), System.err, false));
+        stderr.setDaemon(true);
+        stderr.start();
+
+        NodeJsDaemon daemon = new NodeJsDaemon(process);
+        String[] message = daemon.read();
+        if (message == null || !"READY".equals(message[0])) {
+            daemon.stop();
+            throw new IOException("The node optimizer process did not start.");
+        }
+        return daemon;
+    }
+
+    /**
+     * Run the optimizer.
+     *
+     * @param args r.js command line arguments
+     * @param output receives the output of the job
+     * @return the exit status of the job
+     * @throws IOException if the process died or does not follow the protocol
+     */
+    synchronized ExitStatus optimize(String[] args, OptimizerOutput output) throws IOException {
+        String id = String.valueOf(++jobCount);
+        StringBuilder request = new StringBuilder("OPTIMIZE ").append(id);
+        for (String arg : args) {
+            request.append(' ').append(encode(arg));
+        }
+        writer.write(request.append('\n').toString());
+        writer.flush();
+
+        String[] message;
+        while ((message = read()) != null) {
+            if ("LOG".equals(message[0]) && message.length > 2) {
+                output.line(message[2]);
+            } else if ("DONE".equals(message[0]) && message.length > 2 && id.equals(message[1])) {
+                ExitStatus status = new ExitStatus();
+                status.setExitCode(Integer.parseInt(message[2]));
+                return status;
+            }
+        }
+        throw new IOException("The node optimizer process exited unexpectedly.");
+    }
+
+    /**
+     * @return whether the process is still running
+     */
+    boolean isAlive() {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Ask the process to exit, kill it if it does not listen.
+     */
+    void stop() {
+        try {
+            writer.write("EXIT\n");
+            writer.flush();
+        } catch (IOException e) {
+            // already gone
+        }
+        process.destroy();
+    }
+
+    private String[] read() throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        String[] fields = line.split(" ", -1);
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = URLDecoder.decode(fields[i], "UTF-8");
+        }
+        return fields;
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not available.", e);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mozilla.javascript.ErrorReporter;
+
+/**
+ * Runner which keeps node processes with r.js loaded around for the rest of
+ * the build, so later optimizations in the same build (other config files,
+ * other modules of the reactor) do not pay for process startup and parsing
+ * r.js again. Idle processes are shared by all instances of this runner; a
+ * process is used by one optimization at a time.
+ */
+public class NodeJsDaemonRunner implements Runner {
+
+    private static final String CLASSPATH_NODE_DAEMON_JS = "/nodeDaemon.js";
+
+    /**
+     * Idle processes exit on their own after this time, in case the JVM
+     * outlives the build (e.g. an IDE or a Maven daemon).
+     */
+    private static final long IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    private static final AtomicInteger startedDaemons = new AtomicInteger();
+
+    private static final Map<String, LinkedList<NodeJsDaemon>> idleDaemons = new HashMap<String, LinkedList<NodeJsDaemon>>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                shutdown();
+            }
+        });
+    }
+
+    private final String nodeJsFile;
+
+    private final File cacheDirectory;
+
+    private final NodeJsOptions options;
+
+    public NodeJsDaemonRunner(String nodeJsFile) {
+        this(nodeJsFile, ClasspathResources.DEFAULT_DIRECTORY, new NodeJsOptions());
+    }
+
+    /**
+     * @param nodeJsFile the node executable
+     * @param cacheDirectory directory the daemon script is extracted to
+     * @param options heap size, flags and compile cache for node
+     */
+    public NodeJsDaemonRunner(String nodeJsFile, File cacheDirectory, NodeJsOptions options) {
+        this.nodeJsFile = nodeJsFile;
+        this.cacheDirectory = cacheDirectory;
+        this.options = options;
+    }
+
+    @Override
+    public ExitStatus exec(File mainScript, String[] args, ErrorReporter reporter) {
+        ExitStatus exitStatus = new ExitStatus();
+        try {
+            OptimizerOutput output = new OptimizerOutput(reporter, args);
+            String key = nodeJsFile + "\n" + options + "\n" + Digests.sha1(mainScript);
+            NodeJsDaemon daemon = borrow(key);
+            boolean reused = daemon != null;
+            if (daemon == null) {
+                daemon = startDaemon(mainScript);
+            }
+
+            try {
+                exitStatus = daemon.optimize(args, output);
+            } catch (IOException e) {
+                daemon.stop();
+                if (!reused) {
+                    throw e;
+                }
+                // the idle process may have timed out just now, try a new one
+                daemon = startDaemon(mainScript);
+                exitStatus = daemon.optimize(args, output);
+            }
+            release(key, daemon);
+        } catch (IOException e) {
+            reporter.error("Node.js daemon failed: " + e.getMessage(), mainScript.getPath(), 0, null, 0);
+            exitStatus.setExitCode(1);
+        }
+        return exitStatus;
+    }
+
+    /**
+     * Stop all idle node processes.
+     */
+    public static void shutdown() {
+        List<NodeJsDaemon> daemons = new ArrayList<NodeJsDaemon>();
+        synchronized (idleDaemons) {
+            for (LinkedList<NodeJsDaemon> idle : idleDaemons.values()) {
+                daemons.addAll(idle);
+            }
+            idleDaemons.clear();
+        }
+        for (NodeJsDaemon daemon : daemons) {
+            daemon.stop();
+        }
+    }
+
+    private static NodeJsDaemon borrow(String key) {
+        synchronized (idleDaemons) {
+            LinkedList<NodeJsDaemon> idle = idleDaemons.get(key);
+            while (idle != null && !idle.isEmpty()) {
+                NodeJsDaemon daemon = idle.removeFirst();
+                if (daemon.isAlive()) {
+                    return daemon;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static void release(String key, NodeJsDaemon daemon) {
+        synchronized (idleDaemons) {
+            LinkedList<NodeJsDaemon> idle = idleDaemons.get(key);
+            if (idle == null) {
+                idle = new LinkedList<NodeJsDaemon>();
+                idleDaemons.put(key, idle);
+            }
+            idle.addFirst(daemon);
+        }
+    }
+
+    /**
+     * @return the number of daemon processes started by all runners
+     */
+    static int getStartedDaemons() {
+        return startedDaemons.get();
+    }
+
+    private NodeJsDaemon startDaemon(File mainScript) throws IOException {
+        Trace.Span span = Trace.begin("compile r.js", mainScript.getPath());
+        try {
+            startedDaemons.incrementAndGet();
+            return NodeJsDaemon.start(nodeJsFile, options, getDaemonScript(), mainScript, IDLE_TIMEOUT_MILLIS);
+        } finally {
+            span.end();
+        }
+    }
+
+    private File getDaemonScript() throws IOException {
+        return ClasspathResources.extract(CLASSPATH_NODE_DAEMON_JS, cacheDirectory);
+    }
+}
@@ -0,0 +1,245 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.PumpStreamHandler;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * A detected node executable: the command, the file it resolves to and the
+ * version it reports.
+ *
+ * Detection runs <tt>node --version</tt> at most once per JVM for the same
+ * PATH and command, so later modules of a reactor do not fork node again.
+ * With a cache file, the result is also kept between builds and reused while
+ * PATH and the modification time of the executable stay the same.
+ */
+public final class NodeJsInstallation {
+
+    private static final String[] NODE_COMMANDS = new String[] { "node", "nodejs" };
+
+    private static final Map<String, NodeJsInstallation> detected = new HashMap<String, NodeJsInstallation>();
+
+    private final String command;
+    private final File executable;
+    private final String version;
+
+    private NodeJsInstallation(String command, File executable, String version) {
+        this.command = command;
+        this.executable = executable;
+        this.version = version;
+    }
+
+    /**
+     * Find node on the PATH, trying "node", then "nodejs".
+     *
+     * @param cacheFile file keeping detection results between builds, may be null
+     * @return the installation or <code>null</code> if none was found
+     */
+    public static NodeJsInstallation detect(File cacheFile) {
+        for (String command : NODE_COMMANDS) {
+            NodeJsInstallation installation = probe(command, cacheFile);
+            if (installation != null) {
+                return installation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Describe a configured node executable. It is used even if probing its
+     * version fails.
+     *
+     * @param command the configured executable
+     * @param cacheFile file keeping detection results between builds, may be null
+     * @return the installation, its version may be <code>null</code>
+     */
+    public static NodeJsInstallation forCommand(String command, File cacheFile) {
+        NodeJsInstallation installation = probe(command, cacheFile);
+        if (installation == null) {
+            installation = new NodeJsInstallation(command, resolve(command), null);
+        }
+        return installation;
+    }
+
+    /**
+     * @return the command as configured or found on the PATH
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return the absolute path of the executable, or the command if it could not be resolved
+     */
+    public String getPath() {
+        return executable != null ? executable.getAbsolutePath() : command;
+    }
+
+    /**
+     * @return the version reported by <tt>--version</tt>, e.g. "v18.19.0", or <code>null</code>
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the major version, or 0 if it is not known
+     */
+    public int getMajorVersion() {
+        if (version == null) {
+            return 0;
+        }
+        String number = version.startsWith("v") ? version.substring(1) : version;
+        int end = 0;
+        while (end < number.length() && Character.isDigit(number.charAt(end))) {
+            end++;
+        }
+        return end == 0 ? 0 : Integer.parseInt(number.substring(0, end));
+    }
+
+    @Override
+    public String toString() {
+        return getPath() + (version != null ? " (" + version + ")" : "");
+    }
+
+    private static synchronized NodeJsInstallation probe(String command, File cacheFile) {
+        String path = System.getenv("PATH");
+        String key = Digests.sha1(path + "\n" + command);
+        if (detected.containsKey(key)) {
+            return detected.get(key);
+        }
+
+        File executable = resolve(command);
+        NodeJsInstallation installation = readCache(cacheFile, key, command, executable);
+        if (installation == null) {
+            Trace.Span span = Trace.begin("detect node", command);
+            try {
+                String version = runVersion(executable != null ? executable.getAbsolutePath() : command);
+                if (version != null) {
+                    installation = new NodeJsInstallation(command, executable, version);
+                    writeCache(cacheFile, key, installation);
+                }
+            } finally {
+                span.end();
+            }
+        }
+        detected.put(key, installation);
+        return installation;
+    }
+
+    /**
+     * Find the file a command runs: the command itself if it is a path,
+     * else the first match on the PATH.
+     */
+    private static File resolve(String command) {
+        File file = new File(command);
+        if (file.isAbsolute() || command.indexOf('/') != -1 || command.indexOf('\\') != -1) {
+            return file.isFile() ? file.getAbsoluteFile() : null;
+        }
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        String[] extensions = { "", ".exe", ".cmd" };
+        for (String dir : path.split(File.pathSeparator)) {
+            for (String extension : extensions) {
+                File candidate = new File(dir, command + extension);
+                if (candidate.isFile()) {
+                    return candidate.getAbsoluteFile();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String runVersion(String executable) {
+        CommandLine cmdLine = new CommandLine(executable);
+        cmdLine.addArgument("--version");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DefaultExecutor executor = new DefaultExecutor();
+        executor.setStreamHandler(new PumpStreamHandler(out, new ByteArrayOutputStream()));
+        try {
+            if (executor.execute(cmdLine) != 0) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        String version = out.toString().trim();
+        return version.length() > 0 ? version : "unknown";
+    }
+
+    private static NodeJsInstallation readCache(File cacheFile, String key, String command, File executable) {
+        if (cacheFile == null || executable == null || !cacheFile.isFile()) {
+            return null;
+        }
+        Properties cache = new Properties();
+        try {
+            InputStream in = new FileInputStream(cacheFile);
+            try {
+                cache.load(in);
+            } finally {
+                IOUtil.close(in);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        String stamp = executable.getAbsolutePath() + ":" + executable.lastModified();
+        String version = cache.getProperty(key + ".version");
+        if (version == null || !stamp.equals(cache.getProperty(key + ".executable"))) {
+            return null;
+        }
+        return new NodeJsInstallation(command, executable, version);
+    }
+
+    private static void writeCache(File cacheFile, String key, NodeJsInstallation installation) {
+        if (cacheFile == null || installation.executable == null) {
+            return;
+        }
+        try {
+            Properties cache = new Properties();
+            if (cacheFile.isFile()) {
+                InputStream in = new FileInputStream(cacheFile);
+                try {
+                    cache.load(in);
+                } finally {
+                    IOUtil.close(in);
+                }
+            }
+            File executable = installation.executable;
+            cache.setProperty(key + ".executable", executable.getAbsolutePath() + ":" + executable.lastModified());
+            cache.setProperty(key + ".version", installation.version);
+
+            // other builds may write the cache at the same time, the complete
+            // file is moved into place
+            cacheFile.getParentFile().mkdirs();
+            File temp = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                cache.store(out, "requirejs-maven-plugin node detection");
+            } finally {
+                IOUtil.close(out);
+            }
+            if (!temp.renameTo(cacheFile)) {
+                cacheFile.delete();
+                if (!temp.renameTo(cacheFile)) {
+                    temp.delete();
+                }
+            }
+        } catch (IOException e) {
+            // the cache only saves a process start
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runtime options of node processes running the optimizer: heap size, V8
+ * flags and the compile cache, which lets node reuse the compiled code of
+ * r.js (and uglify, which it contains) between runs instead of parsing it
+ * again in every process.
+ */
+public class NodeJsOptions {
+
+    /**
+     * NODE_COMPILE_CACHE exists since node 22.1, older versions ignore it.
+     */
+    private static final int COMPILE_CACHE_MAJOR_VERSION = 22;
+
+    private final List<String> arguments = new ArrayList<String>();
+    private final Map<String, String> environment = new LinkedHashMap<String, String>();
+    private final List<String> skipped = new ArrayList<String>();
+    private File compileCacheDirectory;
+
+    /**
+     * Create options without any flags.
+     */
+    public NodeJsOptions() {
+    }
+
+    /**
+     * Create the options for a node installation.
+     *
+     * @param maxOldSpaceSize heap size in MB, 0 for the node default
+     * @param flags further node/V8 flags, may be null
+     * @param compileCacheDirectory directory for the compile cache, may be null
+     * @param majorVersion major version of node, 0 if unknown
+     */
+    public NodeJsOptions(int maxOldSpaceSize, String[] flags, File compileCacheDirectory, int majorVersion) {
+        if (maxOldSpaceSize > 0) {
+            arguments.add("--max-old-space-size=" + maxOldSpaceSize);
+        }
+        if (flags != null) {
+            for (String flag : flags) {
+                if (flag != null && flag.trim().length() > 0) {
+                    arguments.add(flag.trim());
+                }
+            }
+        }
+        if (compileCacheDirectory != null) {
+            if (majorVersion == 0 || majorVersion >= COMPILE_CACHE_MAJOR_VERSION) {
+                this.compileCacheDirectory = compileCacheDirectory;
+                environment.put("NODE_COMPILE_CACHE", compileCacheDirectory.getAbsolutePath());
+            } else {
+                skipped.add("compile cache (needs node " + COMPILE_CACHE_MAJOR_VERSION + ".1 or later)");
+            }
+        }
+    }
+
+    /**
+     * Create the compile cache directory, before a node process is started.
+     */
+    public void createDirectories() {
+        if (compileCacheDirectory != null) {
+            compileCacheDirectory.mkdirs();
+        }
+    }
+
+    /**
+     * @return the arguments to pass to node before the script
+     */
+    public List<String> getArguments() {
+        return Collections.unmodifiableList(arguments);
+    }
+
+    /**
+     * @return environment variables to set for node, in addition to the inherited ones
+     */
+    public Map<String, String> getEnvironment() {
+        return Collections.unmodifiableMap(environment);
+    }
+
+    /**
+     * @return the options which are not supported by the node version
+     */
+    public List<String> getSkipped() {
+        return Collections.unmodifiableList(skipped);
+    }
+
+    /**
+     * @return whether no option is applied
+     */
+    public boolean isEmpty() {
+        return arguments.isEmpty() && environment.isEmpty();
+    }
+
+    /**
+     * @return the applied options, as they would be written on a command line
+     */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, String> variable : environment.entrySet()) {
+            result.append(result.length() == 0 ? "" : " ").append(variable.getKey()).append('=')
+                    .append(variable.getValue());
+        }
+        for (String argument : arguments) {
+            result.append(result.length() == 0 ? "" : " ").append(argument);
+        }
+        return result.toString();
+    }
+}
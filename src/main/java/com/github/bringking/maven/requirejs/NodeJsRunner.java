@@ -3,37 +3,40 @@ package com.github.bringking.maven.requirejs;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
 import org.apache.commons.exec.ExecuteException;
+import org.apache.commons.exec.PumpStreamHandler;
+import org.apache.commons.exec.environment.EnvironmentUtils;
 import org.mozilla.javascript.ErrorReporter;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 
 public class NodeJsRunner implements Runner {
-    private static final String[] nodeCommands = new String[]{ "node", "nodejs" };
-
     private String nodeJsFile;
 
+    private NodeJsOptions options;
+
     public NodeJsRunner( String nodeJsFile ) {
+        this( nodeJsFile, new NodeJsOptions() );
+    }
+
+    /**
+     * @param nodeJsFile the node executable
+     * @param options heap size, flags and compile cache for node
+     */
+    public NodeJsRunner( String nodeJsFile, NodeJsOptions options ) {
         this.nodeJsFile = nodeJsFile;
+        this.options = options;
     }
 
+    /**
+     * Find node on the PATH.
+     *
+     * @return the command, "node" or "nodejs", or <code>null</code> if node is not installed
+     */
     public static String detectNodeCommand() {
-        for ( String nodeCmd : nodeCommands ) {
-            CommandLine cmdLine = CommandLine.parse( nodeCmd );
-            cmdLine.addArguments( "--version" );
-
-            DefaultExecutor executor = new DefaultExecutor();
-
-            try {
-                if ( executor.execute( cmdLine ) == 0 ) {
-                    return nodeCmd;
-                }
-            } catch ( IOException e ) {
-                //Keep testing.
-            }
-        }
-
-        return null;
+        NodeJsInstallation installation = NodeJsInstallation.detect( null );
+        return installation != null ? installation.getCommand() : null;
     }
 
     @Override
@@ -41,24 +44,44 @@ public class NodeJsRunner implements Runner {
         ExitStatus exitStatus = new ExitStatus();
 
         try {
-            boolean result = executeScript( nodeJsFile, mainScript.getAbsolutePath(), args );
+            boolean result = executeScript( nodeJsFile, mainScript.getAbsolutePath(), args, reporter );
             exitStatus.setExitCode( result ? 0 : 1 );
         } catch ( IOException e ) {
+            reporter.error( "Node.js failed: " + e.getMessage(), mainScript.getPath(), 0, null, 0 );
             exitStatus.setExitCode( 1 );
         }
 
         return exitStatus;
     }
 
-    private boolean executeScript( String nodeJsFile, String scriptName, String[] params ) throws IOException {
+    @SuppressWarnings( { "rawtypes", "unchecked" } )
+    private boolean executeScript( String nodeJsFile, String scriptName, String[] params, ErrorReporter reporter )
+            throws IOException {
         CommandLine cmdLine = new CommandLine(nodeJsFile);
+        for ( String argument : options.getArguments() ) {
+            cmdLine.addArgument( argument, false );
+        }
         cmdLine.addArgument( scriptName, false );
         cmdLine.addArguments( params, false );
         DefaultExecutor executor = new DefaultExecutor();
+        // output is handled on the pump threads line by line, so concurrent
+        // builds neither block on nor interleave within each other's lines
+        OptimizerOutput output = new OptimizerOutput( reporter, params );
+        OptimizerOutput errorOutput = new OptimizerOutput( reporter, params );
+        executor.setStreamHandler( new PumpStreamHandler( output, errorOutput ) );
         try {
-            return executor.execute( cmdLine ) == 0;
+            if ( options.getEnvironment().isEmpty() ) {
+                return executor.execute( cmdLine ) == 0;
+            }
+            Map environment = EnvironmentUtils.getProcEnvironment();
+            environment.putAll( options.getEnvironment() );
+            options.createDirectories();
+            return executor.execute( cmdLine, environment ) == 0;
         } catch ( ExecuteException e ) {
             return e.getExitValue() == 0;
+        } finally {
+            output.close();
+            errorOutput.close();
         }
     }
 }
@@ -1,13 +1,26 @@
 package com.github.bringking.maven.requirejs;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.net.URI;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
@@ -18,6 +31,9 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.shared.filtering.MavenFileFilter;
 import org.apache.maven.shared.filtering.MavenFilteringException;
+import org.apache.maven.shared.filtering.MavenResourcesExecution;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.InterpolationFilterReader;
 import org.mozilla.javascript.ErrorReporter;
 import org.mozilla.javascript.EvaluatorException;
 
@@ -64,13 +80,21 @@ public class OptimizeMojo extends AbstractMojo {
      */
     private File optimizerFile;
 
+    /**
+     * Directory for files shared by all builds, like the optimizer script
+     * bundled with the plugin. Files in it are named by content hash.
+     *
+     * @parameter expression="${requirejs.cacheDirectory}" default-value="${settings.localRepository}/.cache/requirejs-maven-plugin"
+     */
+    private File cacheDirectory;
+
     /**
      * Paths to optimizer json config.
      *
      * @parameter
      * @required
      */
-    private List<File> configFiles;
+    List<File> configFiles;
 
     /**
      * Whether or not the config file should be maven filtered for token
@@ -78,7 +102,14 @@ public class OptimizeMojo extends AbstractMojo {
      *
      * @parameter default-value=false
      */
-    private boolean filterConfig;
+    boolean filterConfig;
+
+    /**
+     * Encoding of the config files, used when they are filtered.
+     *
+     * @parameter expression="${project.build.sourceEncoding}" default-value="UTF-8"
+     */
+    private String encoding = "UTF-8";
 
     /**
      * If the 'deps' parameter in the config file should be generated
@@ -87,14 +118,30 @@ public class OptimizeMojo extends AbstractMojo {
      * @parameter
      * @required
      */
-    private File fillDepsFromFolder;
+    File fillDepsFromFolder;
+
+    /**
+     * Patterns of the files in fillDepsFromFolder which are listed, relative
+     * to that folder. Defaults to all .js files.
+     *
+     * @parameter
+     */
+    private String[] fillDepsIncludes;
+
+    /**
+     * Patterns of the files and folders in fillDepsFromFolder which are not
+     * listed, relative to that folder.
+     *
+     * @parameter
+     */
+    private String[] fillDepsExcludes;
 
     /**
      * Skip optimization when this parameter is true.
      *
      * @parameter expression="${requirejs.optimize.skip}" default-value=false
      */
-    private boolean skip;
+    boolean skip;
 
     /**
      * Defines which javascript engine to use. Possible values: rhino or nodejs.
@@ -110,12 +157,276 @@ public class OptimizeMojo extends AbstractMojo {
      */
     private String nodeExecutable;
 
+    /**
+     * Keep node processes with the optimizer loaded running for the rest of
+     * the build and reuse them for later config files and modules, instead of
+     * starting node for every config file.
+     *
+     * @parameter expression="${requirejs.optimize.nodeDaemon}" default-value=false
+     */
+    boolean nodeDaemon;
+
+    /**
+     * Maximum heap size of node processes in MB, passed as
+     * --max-old-space-size. Defaults to the node default.
+     *
+     * @parameter expression="${requirejs.optimize.nodeMaxOldSpaceSize}"
+     */
+    private int nodeMaxOldSpaceSize;
+
+    /**
+     * Further node and V8 flags for node processes, e.g. --stack-size=4000.
+     *
+     * @parameter
+     */
+    private String[] nodeFlags;
+
+    /**
+     * Directory where node keeps the compiled code of r.js between runs
+     * (NODE_COMPILE_CACHE, node 22.1 and later, older versions run without
+     * it). Defaults to node-compile-cache in the cacheDirectory, shared by
+     * all reactor modules like their node processes.
+     *
+     * @parameter expression="${requirejs.optimize.nodeCompileCache}"
+     */
+    private File nodeCompileCache;
+
     /**
      * Defines the command line parameters to pass to the optimizer
      *
      * @parameter
      */
-    private String[] optimizerParameters;
+    String[] optimizerParameters;
+
+    /**
+     * Skip a build profile when the profile, the optimizer, its parameters,
+     * the runner and all sources of the profile are unchanged since the last
+     * successful build and the build output is still in place.
+     *
+     * @parameter expression="${requirejs.optimize.incremental}" default-value=true
+     */
+    private boolean incremental = true;
+
+    /**
+     * Maximum number of build profiles to optimize concurrently. Defaults to
+     * the number of available processors.
+     *
+     * @parameter expression="${requirejs.optimize.parallelism}"
+     */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Whether to cancel the remaining build profiles after the first failure
+     * when optimizing concurrently.
+     *
+     * @parameter expression="${requirejs.optimize.failFast}" default-value=true
+     */
+    private boolean failFast = true;
+
+    /**
+     * Split the modules of a build profile with a dir setting across up to
+     * this many optimizer runs executing at the same time, each on its own
+     * runner. The output of all runs is merged into the dir of the profile.
+     * Defaults to 1, building all modules of a profile in one run.
+     *
+     * @parameter expression="${requirejs.optimize.moduleShards}" default-value=1
+     */
+    private int moduleShards = 1;
+
+    /**
+     * Reuse the minified content of files which were minified before with the
+     * same optimizer and settings, by any profile or build. The cache lives
+     * in the minified folder of the cacheDirectory.
+     *
+     * @parameter expression="${requirejs.optimize.minifyCache}" default-value=true
+     */
+    private boolean minifyCache = true;
+
+    /**
+     * Maximum size of the minification cache in MB. The least recently used
+     * files are removed after a build when it is exceeded.
+     *
+     * @parameter expression="${requirejs.optimize.minifyCacheSize}" default-value=256
+     */
+    private int minifyCacheSize = 256;
+
+    /**
+     * Rhino optimization level the optimizer script is compiled at, from 0
+     * to 9, or -1 to interpret it.
+     *
+     * @parameter expression="${requirejs.optimize.rhinoOptimizationLevel}" default-value=0
+     */
+    private int rhinoOptimizationLevel;
+
+    /**
+     * Keep the classes Rhino compiles the optimizer script to in the
+     * rhino-classes folder of the cacheDirectory, so later builds load them
+     * instead of compiling the script again.
+     *
+     * @parameter expression="${requirejs.optimize.rhinoClassCache}" default-value=true
+     */
+    private boolean rhinoClassCache = true;
+
+    /**
+     * When running with Rhino, let r.js stat, list, read and write files
+     * through Java file primitives which remember stat results and listings
+     * for a run and share file contents between the runs of a build.
+     *
+     * @parameter expression="${requirejs.optimize.rhinoFileCache}" default-value=true
+     */
+    private boolean rhinoFileCache = true;
+
+    /**
+     * Maximum size of the file contents shared between Rhino runs, in MB.
+     *
+     * @parameter expression="${requirejs.optimize.rhinoFileCacheSize}" default-value=64
+     */
+    private int rhinoFileCacheSize = 64;
+
+    /**
+     * The maximum number of optimizations running at the same time in this
+     * build, over all config files and reactor modules: node processes, or
+     * Rhino and Nashorn contexts. 0 (the default) sizes it by the number of
+     * cores and the memory, physical memory for node and the heap of the JVM
+     * for Rhino and Nashorn. The first module of a build to optimize sets it.
+     *
+     * @parameter expression="${requirejs.optimize.maxConcurrentRunners}" default-value=0
+     */
+    private int maxConcurrentRunners;
+
+    /**
+     * Decide whether a profile building an out file has to be optimized
+     * again from the files its modules depend on, found by parsing the
+     * sources, instead of from every file below its baseUrl. The parsed
+     * dependencies are kept in ${project.build.directory}/requirejs-graph.
+     *
+     * @parameter expression="${requirejs.optimize.moduleGraph}" default-value=true
+     */
+    private boolean moduleGraph = true;
+
+    /**
+     * Copy the appDir of profiles with a dir in the plugin before r.js runs:
+     * link (the default) hard links the files r.js does not rewrite and
+     * copies the others in parallel, copy copies all of them, none leaves
+     * copying to r.js. Files unchanged since the last build are skipped.
+     *
+     * @parameter expression="${requirejs.optimize.appDirStaging}" default-value=link
+     */
+    private String appDirStaging = "link";
+
+    /**
+     * Rename the built layers to names containing a hash of their content,
+     * main.3f2a9c1b0d.js for main.js, so they can be served with a far future
+     * expiry. In a dir build the copy of the mainConfigFile gets paths to the
+     * renamed modules. A JSON manifest maps every module to its file, size and
+     * gzip size: requirejs-manifest.json in the dir, or main.manifest.json
+     * next to the out file main.js.
+     *
+     * @parameter expression="${requirejs.optimize.fingerprint}" default-value=false
+     */
+    private boolean fingerprint;
+
+    /**
+     * Report the size and gzip size of every layer a profile builds, with the
+     * source modules contributing most to it, after the profile is built. The
+     * report is logged as table and written as JSON and table to
+     * ${project.build.directory}/requirejs-size. Also enabled by sizeBudgets
+     * and updateSizeBaseline.
+     *
+     * @parameter expression="${requirejs.optimize.sizeReport}" default-value=false
+     */
+    private boolean sizeReport;
+
+    /**
+     * The number of source modules the size report lists per layer.
+     *
+     * @parameter expression="${requirejs.optimize.sizeReportModules}" default-value=10
+     */
+    private int sizeReportModules = 10;
+
+    /**
+     * Limits on the size, gzip size and growth over the sizeBaseline of
+     * layers, matched by their path relative to the project base directory.
+     *
+     * @parameter
+     */
+    private List<SizeBudget> sizeBudgets;
+
+    /**
+     * Fail the build when a layer exceeds a sizeBudget, instead of logging a
+     * warning.
+     *
+     * @parameter expression="${requirejs.optimize.failOnSizeBudget}" default-value=true
+     */
+    private boolean failOnSizeBudget = true;
+
+    /**
+     * The sizes the maxGrowth of sizeBudgets compares with, as JSON.
+     *
+     * @parameter expression="${requirejs.optimize.sizeBaseline}" default-value="${basedir}/requirejs-size-baseline.json"
+     */
+    private File sizeBaseline;
+
+    /**
+     * Store the sizes of the built layers in the sizeBaseline.
+     *
+     * @parameter expression="${requirejs.optimize.updateSizeBaseline}" default-value=false
+     */
+    private boolean updateSizeBaseline;
+
+    /**
+     * Write a gzip compressed variant next to every JavaScript and CSS
+     * output file (the out file, or the files in dir), for servers which
+     * deliver precompressed assets.
+     *
+     * @parameter expression="${requirejs.optimize.precompress}" default-value=false
+     */
+    private boolean precompress;
+
+    /**
+     * Files smaller than this many bytes are not precompressed.
+     *
+     * @parameter expression="${requirejs.optimize.precompressThreshold}" default-value=1024
+     */
+    private long precompressThreshold = 1024;
+
+    /**
+     * Minify the output with the Closure Compiler in the JVM of the build
+     * instead of in r.js: SIMPLE or WHITESPACE. r.js then runs with optimize
+     * "none" and the JavaScript files of the output are compressed in
+     * parallel, by up to parallelism files at a time. Empty (the default)
+     * leaves minification to r.js.
+     *
+     * @parameter expression="${requirejs.optimize.closureMinification}"
+     */
+    private String closureMinification;
+
+    /**
+     * Extern files for closureMinification.
+     *
+     * @parameter
+     */
+    private File[] closureExterns;
+
+    /**
+     * Record a timeline of the optimization (runner detection, config
+     * filtering, r.js extraction, compilation and execution per profile) in
+     * the Chrome trace event format and log a summary per phase. The file
+     * can be opened in chrome://tracing or https://ui.perfetto.dev.
+     *
+     * @parameter expression="${requirejs.optimize.traceFile}" default-value="${project.build.directory}/requirejs-trace.json"
+     */
+    private File traceFile;
+
+    private NodeJsInstallation selectedNode;
+
+    private String selectedNodeCommand;
+
+    private NodeJsOptions selectedNodeOptions;
+
+    private boolean selectedNashorn;
+
+    private String optimizerKey;
 
     /**
      * Optimize files.
@@ -129,49 +440,788 @@ public class OptimizeMojo extends AbstractMojo {
             return;
         }
 
+        Trace trace = traceFile != null ? new Trace() : null;
+        Trace.attach(trace);
+        try {
+            optimizeAll();
+        } finally {
+            Trace.attach(null);
+            if (trace != null) {
+                writeTrace(trace);
+            }
+            trimMinificationCache();
+        }
+    }
+
+    private void optimizeAll() throws MojoExecutionException {
         Runner runner = getRunner();
+        List<File> buildProfiles = createBuildProfile();
 
+        int workers = Math.min(parallelism, buildProfiles.size());
+        if (workers > 1) {
+            optimizeInParallel(buildProfiles, workers);
+            return;
+        }
+
+        for (File buildProfile : buildProfiles) {
+            try {
+                optimize(buildProfile, runner);
+            } catch (Exception e) {
+                throw toMojoExecutionException(e);
+            }
+        }
+    }
+
+    private void writeTrace(Trace trace) {
+        for (String phase : trace.summarize()) {
+            getLog().info("Time spent in " + phase);
+        }
         try {
-            Optimizer builder = new Optimizer();
-            ErrorReporter reporter = new MojoErrorReporter(getLog(), true);
-
-            List<File> buildProfiles = createBuildProfile();
-            for (File buildProfile : buildProfiles) {
-                if (optimizerFile != null) {
-                    if (this.optimizerParameters != null) {
-                        builder.optimize(buildProfile, optimizerFile, reporter, runner, this.optimizerParameters);
-                    } else
-                        builder.optimize(buildProfile, optimizerFile, reporter, runner);
-
-                } else {
-
-                    if (this.optimizerParameters != null) {
-                        builder.optimize(buildProfile, reporter, runner, this.optimizerParameters);
-                    } else
-                        builder.optimize(buildProfile, reporter, runner);
+            trace.write(traceFile);
+            getLog().debug("Wrote the optimization timeline to " + traceFile);
+        } catch (IOException e) {
+            getLog().warn("Unable to write the optimization timeline to " + traceFile, e);
+        }
+    }
+
+    /**
+     * Optimize a single build profile, unless its manifest shows it is up to
+     * date.
+     *
+     * @param buildProfile the build profile
+     * @param runner the runner to execute the optimizer with
+     * @throws IOException if there is a problem reading/writing optimization files
+     * @throws OptimizationException if the optimizer script returns an error status
+     */
+    void optimize(File buildProfile, Runner runner) throws IOException, OptimizationException {
+        Trace.Span span = Trace.begin("check manifest", buildProfile.getPath());
+        BuildManifest manifest;
+        String staleReason = null;
+        try {
+            manifest = incremental ? createManifest(buildProfile, runner) : null;
+            if (manifest != null) {
+                staleReason = manifest.getStaleReason();
+            }
+        } finally {
+            span.end();
+        }
+        if (manifest != null) {
+            if (staleReason == null) {
+                getLog().info("Skipping " + buildProfile + ": inputs and output unchanged since the last build.");
+                return;
+            }
+            getLog().debug("Optimizing " + buildProfile + ": " + staleReason + ".");
+            manifest.invalidate();
+        }
+
+        ShardedBuild shardedBuild = moduleShards > 1 ? createShardedBuild(buildProfile) : null;
+        if (shardedBuild != null) {
+            optimizeInShards(buildProfile, shardedBuild, runner);
+        } else {
+            String[] parameters = this.optimizerParameters;
+            if (stageAppDir(buildProfile)) {
+                // the dir is up to date, r.js must not delete it
+                parameters = appendParameter(parameters, "keepBuildDir=true");
+            }
+            runOptimizer(buildProfile, runner, parameters);
+        }
+        if (isClosureMinification()) {
+            minifyWithClosure(buildProfile);
+        }
+        if (isSizeReport()) {
+            reportSizes(buildProfile);
+        }
+        List<File> layers = fingerprint ? fingerprint(buildProfile) : null;
+        if (precompress) {
+            precompress(buildProfile, layers);
+        }
+
+        if (manifest != null) {
+            manifest.save();
+        }
+    }
+
+    private void runOptimizer(File buildProfile, Runner runner, String[] parameters) throws IOException,
+            OptimizationException {
+        if (isSizeReport()) {
+            buildProfile = wrapForSizeReport(buildProfile, parameters);
+        }
+        if (minifyCache) {
+            buildProfile = getMinificationCache().wrapProfile(buildProfile,
+                    new File(buildDirectory, "requirejs-minify"), getOptimizerKey());
+        }
+        if (isRhinoFileCache()) {
+            buildProfile = wrapWithFileSystem(buildProfile);
+        }
+        if (isClosureMinification()) {
+            // parameters win over the profile, r.js leaves minification to minifyWithClosure
+            parameters = appendParameter(parameters, "optimize=none");
+        }
+        Optimizer builder = new Optimizer(cacheDirectory);
+        ErrorReporter reporter = new MojoErrorReporter(getLog(), true);
+        if (optimizerFile != null) {
+            if (parameters != null) {
+                builder.optimize(buildProfile, optimizerFile, reporter, runner, parameters);
+            } else
+                builder.optimize(buildProfile, optimizerFile, reporter, runner);
+
+        } else {
+
+            if (parameters != null) {
+                builder.optimize(buildProfile, reporter, runner, parameters);
+            } else
+                builder.optimize(buildProfile, reporter, runner);
+        }
+    }
+
+    private static String[] appendParameter(String[] parameters, String parameter) {
+        List<String> appended = new ArrayList<String>();
+        if (parameters != null) {
+            appended.addAll(Arrays.asList(parameters));
+        }
+        appended.add(parameter);
+        return appended.toArray(new String[appended.size()]);
+    }
+
+    /**
+     * Copy the appDir of a profile to its dir, see {@link AppDirStaging}.
+     *
+     * @param buildProfile the build profile
+     * @return whether the dir was staged, else r.js copies the appDir itself
+     * @throws IOException if a file can not be copied
+     * @throws OptimizationException if appDirStaging is not a valid mode
+     */
+    private boolean stageAppDir(File buildProfile) throws IOException, OptimizationException {
+        if (appDirStaging == null || appDirStaging.trim().length() == 0
+                || "none".equalsIgnoreCase(appDirStaging.trim())) {
+            return false;
+        }
+        AppDirStaging.Mode mode;
+        try {
+            mode = AppDirStaging.Mode.parse(appDirStaging);
+        } catch (IllegalArgumentException e) {
+            throw new OptimizationException(e.getMessage(), e);
+        }
+        BuildProfile profile;
+        try {
+            profile = BuildProfile.read(buildProfile, optimizerParameters);
+        } catch (IOException e) {
+            getLog().debug("Unable to read " + buildProfile + ", r.js copies its appDir.", e);
+            return false;
+        }
+        AppDirStaging staging = new AppDirStaging(profile, mode, parallelism);
+        String reason = staging.getUnstageableReason();
+        if (reason != null) {
+            getLog().debug("r.js copies the appDir of " + buildProfile + ": " + reason + ".");
+            return false;
+        }
+        Trace.Span span = Trace.begin("stage appDir", buildProfile.getPath());
+        try {
+            staging.stage();
+        } finally {
+            span.end();
+        }
+        getLog().info("Staged the appDir of " + buildProfile + ": " + staging.getSummary() + ".");
+        return true;
+    }
+
+    private boolean isRhinoFileCache() {
+        return rhinoFileCache && rhinoFileCacheSize > 0 && selectedNodeCommand == null && !selectedNashorn;
+    }
+
+    /**
+     * Generate a build profile which lets r.js use the file system of the
+     * Rhino runner (see rhinoFileSystem.js).
+     */
+    private File wrapWithFileSystem(File buildProfile) throws IOException {
+        String js = ClasspathResources.read(RhinoFileSystem.CLASSPATH_RHINO_FILE_SYSTEM_JS).replaceAll("(?m)^(?=.)", "    ");
+        String profile = ProfileWrapper.wrap(buildProfile, ProfileWrapper.read(buildProfile), "file system",
+                js.endsWith("\n") ? js : js + "\n");
+        File dir = new File(new File(buildDirectory, "requirejs-files"), Digests.sha1(buildProfile.getAbsolutePath()));
+        dir.mkdirs();
+        File file = new File(dir, buildProfile.getName());
+        FileUtils.fileWrite(file.getAbsolutePath(), "UTF-8", profile);
+        return file;
+    }
+
+    private boolean isSizeReport() {
+        return sizeReport || updateSizeBaseline || (sizeBudgets != null && !sizeBudgets.isEmpty());
+    }
+
+    private File getSizeReportDirectory(File buildProfile) {
+        return new File(new File(buildDirectory, "requirejs-size"), Digests.sha1(buildProfile.getAbsolutePath()));
+    }
+
+    /**
+     * Generate a build profile which writes the modules of its out file for
+     * the size report, see {@link SizeReport#wrapProfile(File, File)}.
+     *
+     * @return the generated profile, or the profile itself if it does not build an out file
+     */
+    private File wrapForSizeReport(File buildProfile, String[] parameters) throws IOException {
+        if (BuildProfile.read(buildProfile, parameters).getOut() == null) {
+            return buildProfile;
+        }
+        File dir = getSizeReportDirectory(buildProfile);
+        File buildText = new File(dir, ShardedBuild.BUILD_TXT);
+        buildText.delete();
+        dir.mkdirs();
+        File file = new File(dir, buildProfile.getName());
+        FileUtils.fileWrite(file.getAbsolutePath(), "UTF-8", SizeReport.wrapProfile(buildProfile, buildText));
+        return file;
+    }
+
+    /**
+     * Report the sizes of the layers of a profile and check them against the
+     * budgets, see {@link SizeReport}.
+     *
+     * @param buildProfile the build profile
+     * @throws IOException if a layer can not be read or the report not written
+     * @throws OptimizationException if a layer exceeds a budget and failOnSizeBudget is set
+     */
+    private void reportSizes(File buildProfile) throws IOException, OptimizationException {
+        Trace.Span span = Trace.begin("size report", buildProfile.getPath());
+        try {
+            File dir = getSizeReportDirectory(buildProfile);
+            SizeReport report = new SizeReport(BuildProfile.read(buildProfile, optimizerParameters),
+                    project.getBasedir(), sizeReportModules);
+            report.measure(new File(dir, ShardedBuild.BUILD_TXT));
+            report.write(new File(dir, "size-report.json"), new File(dir, "size-report.txt"));
+            getLog().info("Sizes of the layers of " + buildProfile + ":\n" + report.toTable());
+
+            if (updateSizeBaseline) {
+                report.updateBaseline(sizeBaseline);
+                getLog().info("Stored " + report.getLayerCount() + " layers in " + sizeBaseline + ".");
+            }
+            if (sizeBudgets != null && !sizeBudgets.isEmpty()) {
+                List<String> exceeded = report.checkBudgets(sizeBudgets, SizeReport.readBaseline(sizeBaseline));
+                if (failOnSizeBudget && !exceeded.isEmpty()) {
+                    StringBuilder message = new StringBuilder("Size budgets exceeded by " + buildProfile + ":");
+                    for (String budget : exceeded) {
+                        message.append("\n  ").append(budget);
+                    }
+                    throw new OptimizationException(message.toString());
+                }
+                for (String budget : exceeded) {
+                    getLog().warn("Size budget exceeded: " + budget + ".");
                 }
             }
+        } finally {
+            span.end();
+        }
+    }
+
+    private boolean isClosureMinification() {
+        return closureMinification != null && closureMinification.trim().length() > 0;
+    }
+
+    /**
+     * Minify the JavaScript output of a profile with the Closure Compiler:
+     * the out file, or the files in dir (only the module layers with
+     * skipDirOptimize).
+     *
+     * @param buildProfile the build profile
+     * @throws IOException if the output can not be read or written
+     * @throws OptimizationException if a file can not be compiled
+     */
+    private void minifyWithClosure(File buildProfile) throws IOException, OptimizationException {
+        ClosureMinifier.Mode mode;
+        try {
+            mode = ClosureMinifier.Mode.parse(closureMinification);
+        } catch (IllegalArgumentException e) {
+            throw new OptimizationException(e.getMessage(), e);
+        }
+        BuildProfile profile = BuildProfile.read(buildProfile, optimizerParameters);
+        List<File> files = new ArrayList<File>();
+        if (profile.getOut() != null) {
+            if (profile.getOut().getName().endsWith(".js")) {
+                files.add(profile.getOut());
+            }
+        } else if (profile.getDir() != null && profile.isEnabled("skipDirOptimize")) {
+            Set<String> layers = new LinkedHashSet<String>();
+            ShardedBuild.readBuildText(new File(profile.getDir(), ShardedBuild.BUILD_TXT), layers,
+                    new HashSet<String>());
+            for (String layer : layers) {
+                File file = new File(profile.getDir(), layer);
+                if (layer.endsWith(".js") && file.isFile()) {
+                    files.add(file);
+                }
+            }
+        } else if (profile.getDir() != null && profile.getDir().isDirectory()) {
+            for (Object file : FileUtils.getFiles(profile.getDir(), "**/*.js", null)) {
+                files.add((File) file);
+            }
+        }
+
+        Trace.Span span = Trace.begin("closure minification", buildProfile.getPath());
+        try {
+            long start = System.currentTimeMillis();
+            new ClosureMinifier(mode, closureExterns != null ? Arrays.asList(closureExterns) : null, parallelism,
+                    minifyCache ? getMinificationCache() : null).minify(files, new MojoErrorReporter(getLog(), true));
+            getLog().info("Minified " + files.size() + " files of " + buildProfile + " with the Closure Compiler ("
+                    + mode + ") in " + (System.currentTimeMillis() - start) + " ms.");
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Rename the layers of a profile to names with a hash of their content,
+     * see {@link Fingerprinter}.
+     *
+     * @param buildProfile the build profile
+     * @return the renamed layers
+     * @throws IOException if a layer can not be renamed or the manifest not written
+     */
+    private List<File> fingerprint(File buildProfile) throws IOException {
+        Trace.Span span = Trace.begin("fingerprint", buildProfile.getPath());
+        try {
+            Fingerprinter fingerprinter = new Fingerprinter(BuildProfile.read(buildProfile, optimizerParameters),
+                    parallelism);
+            fingerprinter.fingerprint();
+            getLog().info("Fingerprinted the output of " + buildProfile + ": " + fingerprinter.getSummary() + ".");
+            return fingerprinter.getLayerFiles();
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Write gzip compressed variants of the JavaScript and CSS output of a
+     * profile, see {@link Precompressor}.
+     *
+     * @param buildProfile the build profile
+     * @param layers the layers renamed by {@link #fingerprint(File)}, or <code>null</code>
+     * @throws IOException if an output file can not be read or its variant written
+     */
+    private void precompress(File buildProfile, List<File> layers) throws IOException {
+        BuildProfile profile = BuildProfile.read(buildProfile, optimizerParameters);
+        List<File> files = new ArrayList<File>();
+        if (profile.getOut() != null) {
+            // a fingerprinted out file has a new name
+            File out = layers != null && !layers.isEmpty() ? layers.get(0) : profile.getOut();
+            if ((out.getName().endsWith(".js") || out.getName().endsWith(".css")) && out.isFile()) {
+                files.add(out);
+            }
+        } else if (profile.getDir() != null && profile.getDir().isDirectory()) {
+            for (Object file : FileUtils.getFiles(profile.getDir(), "**/*.js,**/*.css", null)) {
+                files.add((File) file);
+            }
+        }
+
+        Trace.Span span = Trace.begin("precompress", buildProfile.getPath());
+        try {
+            Precompressor precompressor = new Precompressor(precompressThreshold, parallelism);
+            precompressor.compress(files);
+            getLog().info("Precompressed the output of " + buildProfile + ": " + precompressor.getSummary() + ".");
+        } finally {
+            span.end();
+        }
+    }
+
+    private MinificationCache getMinificationCache() {
+        return new MinificationCache(new File(cacheDirectory != null ? cacheDirectory
+                : ClasspathResources.DEFAULT_DIRECTORY, "minified"), minifyCacheSize * 1024L * 1024L);
+    }
+
+    /**
+     * @return the hash of the optimizer script, part of the key of cached minified files
+     */
+    private synchronized String getOptimizerKey() throws IOException {
+        if (optimizerKey == null) {
+            optimizerKey = optimizerFile != null ? Digests.sha1(optimizerFile)
+                    : ClasspathResources.getHash(Optimizer.CLASSPATH_R_JS);
+        }
+        return optimizerKey;
+    }
+
+    /**
+     * Keep the minification cache below its maximum size.
+     */
+    void trimMinificationCache() {
+        if (minifyCache) {
+            int removed = getMinificationCache().trim();
+            if (removed > 0) {
+                getLog().debug("Removed " + removed + " least recently used files from the minification cache.");
+            }
+        }
+    }
+
+    /**
+     * Split the modules of a build profile into shards.
+     *
+     * @param buildProfile the build profile
+     * @return the sharded build or <code>null</code> if the profile can not be split
+     */
+    private ShardedBuild createShardedBuild(File buildProfile) {
+        BuildProfile profile;
+        try {
+            profile = BuildProfile.read(buildProfile, optimizerParameters);
         } catch (IOException e) {
-            throw new MojoExecutionException("Failed to read r.js", e);
-        } catch (EvaluatorException e) {
-            throw new MojoExecutionException("Failed to execute r.js", e);
-        } catch (OptimizationException e) {
-            throw new MojoExecutionException("r.js exited with an error.", e);
+            getLog().debug("Unable to read " + buildProfile + ", its modules are built in one run.", e);
+            return null;
+        }
+        ShardedBuild shardedBuild = new ShardedBuild(new File(buildDirectory, "requirejs-shards"), profile,
+                moduleShards);
+        String reason = shardedBuild.getUnshardableReason();
+        if (reason != null) {
+            getLog().debug("Building the modules of " + buildProfile + " in one run: " + reason + ".");
+            return null;
+        }
+        return shardedBuild;
+    }
+
+    /**
+     * Optimize the shards of a build profile concurrently and merge their
+     * output. The first shard runs on the calling thread with the given
+     * runner, every other shard on a pooled runner.
+     *
+     * @param buildProfile the build profile
+     * @param shardedBuild the shards of the profile
+     * @param runner the runner for the first shard
+     * @throws IOException if there is a problem reading/writing optimization files
+     * @throws OptimizationException if the optimizer script returns an error status for a shard
+     */
+    private void optimizeInShards(File buildProfile, ShardedBuild shardedBuild, Runner runner) throws IOException,
+            OptimizationException {
+        final List<File> shardProfiles = shardedBuild.writeProfiles();
+        final String[] parameters = shardedBuild.getShardParameters(optimizerParameters);
+        getLog().info("Optimizing the modules of " + buildProfile + " in " + shardProfiles.size() + " shards.");
+        final Trace trace = Trace.current();
+
+        ExecutorService executor = Executors.newFixedThreadPool(shardProfiles.size() - 1);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        try {
+            for (int i = 1; i < shardProfiles.size(); i++) {
+                final File shardProfile = shardProfiles.get(i);
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        Trace.attach(trace);
+                        try {
+                            runOptimizer(shardProfile, newRunner(), parameters);
+                        } finally {
+                            Trace.attach(null);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            runOptimizer(shardProfiles.get(0), runner, parameters);
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new OptimizationException("Shard " + (i + 2) + " of " + buildProfile + " failed.", cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OptimizationException("Interrupted while optimizing " + buildProfile + ".", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Trace.Span span = Trace.begin("merge shards", buildProfile.getPath());
+        try {
+            shardedBuild.merge();
+        } finally {
+            span.end();
         }
     }
 
+    /**
+     * Optimize build profiles concurrently on the pooled runners. A profile
+     * which reads or writes the output of an earlier profile waits for that
+     * profile to finish.
+     *
+     * @param buildProfiles the build profiles
+     * @param workers number of worker threads
+     * @throws MojoExecutionException if one or more profiles failed
+     */
+    private void optimizeInParallel(List<File> buildProfiles, int workers) throws MojoExecutionException {
+        getLog().info("Optimizing " + buildProfiles.size() + " build profiles with " + workers + " workers.");
+
+        final Trace trace = Trace.current();
+        final Runner runner = newRunner();
+        List<BuildProfile> profiles = readBuildProfiles(buildProfiles);
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        CompletionService<Void> completion = new ExecutorCompletionService<Void>(executor);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        Map<Future<Void>, File> profileByFuture = new IdentityHashMap<Future<Void>, File>();
+        Map<File, Throwable> failures = new LinkedHashMap<File, Throwable>();
+
+        try {
+            for (int i = 0; i < buildProfiles.size(); i++) {
+                final File buildProfile = buildProfiles.get(i);
+                final Map<Future<Void>, File> dependencies = new IdentityHashMap<Future<Void>, File>();
+                for (int j = 0; j < i; j++) {
+                    if (dependsOn(profiles.get(i), profiles.get(j))) {
+                        dependencies.put(futures.get(j), buildProfiles.get(j));
+                    }
+                }
+
+                // the executor runs tasks in submission order, so a dependency
+                // is always running or done before a task starts waiting for it
+                Future<Void> future = completion.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (Map.Entry<Future<Void>, File> dependency : dependencies.entrySet()) {
+                            try {
+                                dependency.getKey().get();
+                            } catch (ExecutionException e) {
+                                throw new OptimizationException("Not optimized, " + dependency.getValue() + " failed.");
+                            }
+                        }
+                        Trace.attach(trace);
+                        try {
+                            optimize(buildProfile, runner);
+                        } finally {
+                            Trace.attach(null);
+                        }
+                        return null;
+                    }
+                });
+                futures.add(future);
+                profileByFuture.put(future, buildProfile);
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                Future<Void> done = completion.take();
+                try {
+                    done.get();
+                } catch (CancellationException e) {
+                    // cancelled after an earlier failure
+                } catch (ExecutionException e) {
+                    failures.put(profileByFuture.get(done), e.getCause());
+                    if (failFast) {
+                        for (Future<Void> future : futures) {
+                            future.cancel(true);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while optimizing.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (failures.size() == 1) {
+            throw toMojoExecutionException(failures.values().iterator().next());
+        } else if (!failures.isEmpty()) {
+            StringBuilder message = new StringBuilder();
+            message.append(failures.size()).append(" build profiles failed:");
+            for (Map.Entry<File, Throwable> failure : failures.entrySet()) {
+                message.append("\n  ").append(failure.getKey()).append(": ").append(failure.getValue().getMessage());
+            }
+            throw new MojoExecutionException(message.toString(), failures.values().iterator().next());
+        }
+    }
+
+    List<BuildProfile> readBuildProfiles(List<File> buildProfiles) {
+        List<BuildProfile> profiles = new ArrayList<BuildProfile>();
+        for (File buildProfile : buildProfiles) {
+            try {
+                profiles.add(BuildProfile.read(buildProfile, optimizerParameters));
+            } catch (IOException e) {
+                getLog().debug("Unable to read " + buildProfile + ", it will not run concurrently.", e);
+                profiles.add(null);
+            }
+        }
+        return profiles;
+    }
+
+    /**
+     * Check whether a profile has to wait for an earlier one: one of them
+     * reads the output of the other, or both write to the same place.
+     * Profiles which could not be read always wait.
+     */
+    static boolean dependsOn(BuildProfile profile, BuildProfile earlier) {
+        if (profile == null || earlier == null || profile.getFile().equals(earlier.getFile())) {
+            return true;
+        }
+        return readsOutputOf(profile, earlier) || readsOutputOf(earlier, profile)
+                || overlaps(getOutput(earlier), getOutput(profile));
+    }
+
+    private static boolean readsOutputOf(BuildProfile reader, BuildProfile writer) {
+        File output = getOutput(writer);
+        return overlaps(output, reader.getSourceDir()) || overlaps(output, reader.getMainConfigFile());
+    }
+
+    private static File getOutput(BuildProfile profile) {
+        return profile.getDir() != null ? profile.getDir() : profile.getOut();
+    }
+
+    private static boolean overlaps(File a, File b) {
+        if (a == null || b == null) {
+            return false;
+        }
+        String pathA = a.getAbsolutePath() + File.separator;
+        String pathB = b.getAbsolutePath() + File.separator;
+        return pathA.startsWith(pathB) || pathB.startsWith(pathA);
+    }
+
+    private MojoExecutionException toMojoExecutionException(Throwable e) {
+        if (e instanceof IOException) {
+            return new MojoExecutionException("Failed to read r.js", e);
+        } else if (e instanceof EvaluatorException) {
+            return new MojoExecutionException("Failed to execute r.js", e);
+        } else if (e instanceof OptimizationException) {
+            return new MojoExecutionException("r.js exited with an error.", e);
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        return new MojoExecutionException(e.getMessage(), e);
+    }
+
+    /**
+     * Fingerprint the inputs of a build profile.
+     *
+     * @param buildProfile the build profile
+     * @param runner the runner which will execute the optimizer
+     * @return the manifest or <code>null</code> if the profile can not be fingerprinted
+     * @throws IOException if an input can not be read
+     */
+    private BuildManifest createManifest(File buildProfile, Runner runner) throws IOException {
+        BuildProfile profile;
+        try {
+            profile = BuildProfile.read(buildProfile, optimizerParameters);
+        } catch (IOException e) {
+            getLog().debug("Unable to read " + buildProfile + ", incremental build disabled for it.", e);
+            return null;
+        }
+
+        BuildManifest manifest = new BuildManifest(new File(buildDirectory, "requirejs-manifest"), profile);
+        manifest.addFile("profile", buildProfile);
+        if (optimizerFile != null) {
+            manifest.addFile("optimizer", optimizerFile);
+        } else {
+            manifest.addContent("optimizer", getClass().getResourceAsStream(Optimizer.CLASSPATH_R_JS));
+        }
+        // every runner is pooled, the key of the pool tells the engine and its settings
+        manifest.addSetting("runner", runner instanceof RunnerPool ? ((RunnerPool) runner).getKey() : runner
+                .getClass().getName());
+        if (isSizeReport()) {
+            // a skipped build reports nothing, changed budgets are checked with a new build
+            manifest.addSetting("sizeReport", String.valueOf(sizeReportModules));
+            if (sizeBudgets != null) {
+                for (SizeBudget budget : sizeBudgets) {
+                    manifest.addSetting("sizeBudget", budget.toString());
+                }
+            }
+            manifest.addSetting("failOnSizeBudget", String.valueOf(failOnSizeBudget));
+        }
+        if (fingerprint) {
+            manifest.addSetting("fingerprint", "true");
+            // the out file is renamed, its manifest is written with every build
+            manifest.setOutputFile(Fingerprinter.getManifestFile(profile));
+        }
+        if (optimizerParameters != null) {
+            for (String parameter : optimizerParameters) {
+                manifest.addSetting("parameter", parameter);
+            }
+        }
+        if (isClosureMinification()) {
+            manifest.addSetting("closureMinification", closureMinification.trim());
+            if (closureExterns != null) {
+                for (File extern : closureExterns) {
+                    manifest.addFile("closureExtern", extern);
+                }
+            }
+        }
+        Set<File> moduleSources = getModuleSources(profile);
+        if (moduleSources != null) {
+            manifest.addSources(moduleSources);
+        } else {
+            manifest.addSources();
+        }
+        return manifest;
+    }
+
+    /**
+     * Return the files a profile building an out file reads according to the
+     * module graph of its sources. The graph is updated from the files
+     * changed since the last build.
+     *
+     * @param profile the build profile
+     * @return the module files and plugin resources, or <code>null</code> if the whole source tree has to be checked
+     */
+    Set<File> getModuleSources(BuildProfile profile) {
+        List<String> rootModules = moduleGraph ? ModuleGraph.getRootModules(profile) : null;
+        ModuleGraph graph = rootModules != null ? ModuleGraph.forProfile(profile) : null;
+        if (graph == null) {
+            return null;
+        }
+        Trace.Span span = Trace.begin("module graph", profile.getFile().getPath());
+        try {
+            File graphDir = new File(buildDirectory, "requirejs-graph");
+            String name = Digests.sha1(profile.getFile().getAbsolutePath());
+            File indexFile = new File(graphDir, name + ".properties");
+            graph.load(indexFile);
+            String out = getRelativePath(graph.getBaseUrl(), profile.getOut());
+            int parsed = graph.update(out != null ? new String[] { out } : null, new File(graphDir, name
+                    + "-listing.properties"), parallelism);
+            Set<File> files = graph.getFiles(rootModules);
+            graph.save(indexFile);
+            if (files == null) {
+                getLog().debug("The modules of " + profile.getFile() + " depend on files which can not be resolved,"
+                        + " checking its whole source tree.");
+            } else {
+                getLog().debug("Module graph of " + profile.getFile() + ": " + parsed + " files parsed, "
+                        + files.size() + " files read by the build.");
+            }
+            return files;
+        } catch (IOException e) {
+            getLog().debug("Unable to update the module graph of " + profile.getFile() + ".", e);
+            return null;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * @return the path of a file relative to a directory it is in, with / as separator, or <code>null</code>
+     */
+    private static String getRelativePath(File dir, File file) {
+        String prefix = dir.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        return path.startsWith(prefix) ? path.substring(prefix.length()).replace(File.separatorChar, '/') : null;
+    }
+
     /**
      * Return the runner to execute a script based on the plugin configuration.
      * 
      * @return
      */
-    private Runner getRunner() {
-        Runner runner = null;
-        String nodeCommand = getNodeCommand();
+    Runner getRunner() {
+        selectedNode = getNodeInstallation();
+        selectedNodeCommand = selectedNode != null ? selectedNode.getPath() : null;
+        selectedNashorn = false;
 
-        if (nodeCommand != null) {
-            getLog().info("Running with Node @ " + nodeCommand);
-            runner = new NodeJsRunner(nodeCommand);
+        if (selectedNodeCommand != null) {
+            getLog().info("Running with Node @ " + selectedNode + (nodeDaemon ? " (persistent process)" : ""));
+            File compileCache = nodeCompileCache != null ? nodeCompileCache : new File(cacheDirectory != null
+                    ? cacheDirectory : ClasspathResources.DEFAULT_DIRECTORY, "node-compile-cache");
+            selectedNodeOptions = new NodeJsOptions(nodeMaxOldSpaceSize, nodeFlags, compileCache,
+                    selectedNode.getMajorVersion());
+            if (!selectedNodeOptions.isEmpty()) {
+                getLog().info("Node options: " + selectedNodeOptions);
+            }
+            for (String skipped : selectedNodeOptions.getSkipped()) {
+                getLog().debug("Node option not applied: " + skipped);
+            }
         } else {
             getLog().info("Node not detected. Falling back to Java");
 
@@ -187,7 +1237,7 @@ public class OptimizeMojo extends AbstractMojo {
                         getLog().info("Nashorn engine not detected.");
                     } else {
                         getLog().info("Running with Nashorn.");
-                        runner = new ScriptEngineRunner(scriptEngine);
+                        selectedNashorn = true;
                         useRhino = false;
                     }
                 }
@@ -195,10 +1245,68 @@ public class OptimizeMojo extends AbstractMojo {
 
             if (useRhino) {
                 getLog().info("Running with Rhino.");
-                runner = new RhinoRunner();
             }
         }
-        return runner;
+        return newRunner();
+    }
+
+    /**
+     * Return the runner of the kind selected by {@link #getRunner()}. Runners
+     * are pooled for the whole build, so concurrent optimizations of this and
+     * other reactor modules share warm runners, and all of them together
+     * stay within maxConcurrentRunners.
+     *
+     * @return the shared runner
+     */
+    private Runner newRunner() {
+        final String nodeCommand = selectedNodeCommand;
+        final NodeJsOptions nodeOptions = selectedNodeOptions;
+        if (nodeCommand != null && nodeDaemon) {
+            final File daemonDirectory = cacheDirectory;
+            return RunnerPool.get("node-daemon\n" + nodeCommand + "\n" + nodeOptions + "\n" + daemonDirectory,
+                    RunnerPool.PROCESS, getMaxConcurrentRunners(true), false, new RunnerPool.Factory() {
+                        @Override
+                        public Runner create() {
+                            return new NodeJsDaemonRunner(nodeCommand, daemonDirectory, nodeOptions);
+                        }
+                    });
+        } else if (nodeCommand != null) {
+            return RunnerPool.get("node\n" + nodeCommand + "\n" + nodeOptions, RunnerPool.PROCESS,
+                    getMaxConcurrentRunners(true), false, new RunnerPool.Factory() {
+                        @Override
+                        public Runner create() {
+                            return new NodeJsRunner(nodeCommand, nodeOptions);
+                        }
+                    });
+        } else if (selectedNashorn) {
+            // a script engine is not thread safe, every concurrent run borrows its own
+            return RunnerPool.get("nashorn", RunnerPool.JVM, getMaxConcurrentRunners(false), true,
+                    new RunnerPool.Factory() {
+                        @Override
+                        public Runner create() {
+                            return new ScriptEngineRunner(getNashornScriptEngine());
+                        }
+                    });
+        }
+        final File classCache = rhinoClassCache ? new File(cacheDirectory != null ? cacheDirectory
+                : ClasspathResources.DEFAULT_DIRECTORY, "rhino-classes") : null;
+        final int optimizationLevel = rhinoOptimizationLevel;
+        final long fileCacheSize = rhinoFileCache ? rhinoFileCacheSize * 1024L * 1024L : 0;
+        return RunnerPool.get("rhino\n" + classCache + "\n" + optimizationLevel + "\n" + fileCacheSize,
+                RunnerPool.JVM, getMaxConcurrentRunners(false), false, new RunnerPool.Factory() {
+                    @Override
+                    public Runner create() {
+                        return new RhinoRunner(classCache, optimizationLevel, fileCacheSize);
+                    }
+                });
+    }
+
+    private int getMaxConcurrentRunners(boolean process) {
+        if (maxConcurrentRunners > 0) {
+            return maxConcurrentRunners;
+        }
+        return process ? RunnerPool.getDefaultProcessLimit(nodeMaxOldSpaceSize) : RunnerPool
+                .getDefaultContextLimit();
     }
 
     /**
@@ -230,14 +1338,20 @@ public class OptimizeMojo extends AbstractMojo {
     }
 
     /**
-     * Returns the node command if node is available and it is the runner which
-     * should be used.
+     * Returns the node installation if node is available and it is the runner
+     * which should be used.
      *
-     * @return the command or <code>null</code>
+     * @return the installation or <code>null</code>
      */
-    private String getNodeCommand() {
+    private NodeJsInstallation getNodeInstallation() {
         if ("nodejs".equalsIgnoreCase(runner)) {
-            return getNodeJsPath();
+            File cacheFile = new File(cacheDirectory != null ? cacheDirectory
+                    : ClasspathResources.DEFAULT_DIRECTORY, "node-detection.properties");
+            if (nodeExecutable != null) {
+                return NodeJsInstallation.forCommand(nodeExecutable, cacheFile);
+            } else {
+                return NodeJsInstallation.detect(cacheFile);
+            }
         }
 
         return null;
@@ -248,33 +1362,59 @@ public class OptimizeMojo extends AbstractMojo {
         return super.getPluginContext();
     }
 
-    @SuppressWarnings("rawtypes")
-    private List<File> createBuildProfile() throws MojoExecutionException {
+    List<File> createBuildProfile() throws MojoExecutionException {
         if (filterConfig) {
             String scannedDepList = null;
             if (fillDepsFromFolder != null) {
-                scannedDepList = scanChildren(fillDepsFromFolder.toURI(), fillDepsFromFolder);
+                Trace.Span span = Trace.begin("scan deps", fillDepsFromFolder.getPath());
+                try {
+                    scannedDepList = new DependencyScanner(fillDepsFromFolder, fillDepsIncludes, fillDepsExcludes,
+                            new File(buildDirectory, "requirejs-config/scan-index.properties"), parallelism).scan();
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Error scanning " + fillDepsFromFolder, e);
+                } finally {
+                    span.end();
+                }
             }
+            List<FileUtils.FilterWrapper> filterWrappers = new ArrayList<FileUtils.FilterWrapper>();
+            MavenResourcesExecution request = new MavenResourcesExecution();
+            request.setMavenProject(project);
+            request.setMavenSession(session);
+            request.setFilters(new ArrayList<String>());
+            request.setEscapedBackslashesInFilePath(true);
+            try {
+                for (Object wrapper : mavenFileFilter.getDefaultFilterWrappers(request)) {
+                    filterWrappers.add((FileUtils.FilterWrapper) wrapper);
+                }
+            } catch (MavenFilteringException e) {
+                throw new MojoExecutionException("Error filtering config file.", e);
+            }
+            if (scannedDepList != null) {
+                final Map<String, String> scanFolder = new HashMap<String, String>();
+                scanFolder.put("scanFolder", scannedDepList);
+                filterWrappers.add(new FileUtils.FilterWrapper() {
+                    @Override
+                    public Reader getReader(Reader reader) {
+                        return new InterpolationFilterReader(reader, scanFolder);
+                    }
+                });
+            }
+
+            File profileDir = new File(buildDirectory, "requirejs-config/");
+            profileDir.mkdirs();
             List<File> filteredConfig = new ArrayList<File>();
             for (File configFile : configFiles) {
+                Trace.Span span = Trace.begin("filter config", configFile.getPath());
                 try {
-                    File profileDir = new File(buildDirectory, "requirejs-config/");
-                    profileDir.mkdirs();
-                    File currentFilteredConfig = new File(profileDir, "filtered-build.js");
-                    if (!currentFilteredConfig.exists()) {
-                        currentFilteredConfig.createNewFile();
-                    }
-                    // TODO hardcoded encoding
-                    mavenFileFilter.copyFile(configFile, currentFilteredConfig, true, project, new ArrayList(), true, "UTF8", session);
-
-                    if (scannedDepList != null) {
-                        RandomAccessFile raf = new RandomAccessFile(currentFilteredConfig, "rw");
-                        byte[] buffer = new byte[(int) raf.length()];
-                        raf.readFully(buffer);
-                        buffer = new String(buffer).replace("${scanFolder}", scannedDepList).getBytes();
-                        raf.seek(0);
-                        raf.write(buffer);
-                        raf.close();
+                    File currentFilteredConfig = new File(profileDir, getFilteredConfigName(configFile));
+                    File temporary = new File(profileDir, currentFilteredConfig.getName() + ".tmp");
+                    mavenFileFilter.copyFile(configFile, temporary, true, filterWrappers, encoding);
+
+                    // keep the timestamp of an unchanged profile for the incremental checks
+                    if (currentFilteredConfig.isFile() && FileUtils.contentEquals(temporary, currentFilteredConfig)) {
+                        temporary.delete();
+                    } else {
+                        FileUtils.rename(temporary, currentFilteredConfig);
                     }
 
                     filteredConfig.add(currentFilteredConfig);
@@ -282,6 +1422,8 @@ public class OptimizeMojo extends AbstractMojo {
                     throw new MojoExecutionException("Error creating filtered build file.", e);
                 } catch (MavenFilteringException e) {
                     throw new MojoExecutionException("Error filtering config file.", e);
+                } finally {
+                    span.end();
                 }
             }
             return filteredConfig;
@@ -290,38 +1432,16 @@ public class OptimizeMojo extends AbstractMojo {
         }
     }
 
-    private String scanChildren(URI referenceURI, File currentFolder) {
-        File[] files = currentFolder.listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File file) {
-                return file.getName().endsWith(".js") || file.isDirectory();
-            }
-        });
-
-        StringBuilder ret = new StringBuilder();
-        String separator = "";
-        if (files != null) {
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    ret.append(separator).append(scanChildren(referenceURI, file));
-                } else {
-                    String relativePath = referenceURI.relativize(file.toURI()).getPath();
-                    String relativePathWithoutExtension = relativePath.substring(0, relativePath.lastIndexOf('.'));
-                    ret.append(separator).append("\"").append(relativePathWithoutExtension).append("\"");
-                }
-                separator = ",";
-            }
-        }
-
-        return ret.toString();
-    }
-
-    private String getNodeJsPath() {
-        if (nodeExecutable != null) {
-            return nodeExecutable;
-        } else {
-            return NodeJsRunner.detectNodeCommand();
-        }
+    /**
+     * The filtered copy of a config file is named after the file and a hash
+     * of its path, so configs with the same name do not overwrite each other.
+     */
+    static String getFilteredConfigName(File configFile) {
+        String name = configFile.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : ".js";
+        return base + "-" + Digests.sha1(configFile.getAbsolutePath()).substring(0, 12) + extension;
     }
 
 }
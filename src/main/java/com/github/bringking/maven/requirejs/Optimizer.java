@@ -1,11 +1,8 @@
 package com.github.bringking.maven.requirejs;
 
-import org.codehaus.plexus.util.IOUtil;
 import org.mozilla.javascript.ErrorReporter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -14,7 +11,27 @@ import java.util.List;
  */
 public class Optimizer {
 
-    private static final String CLASSPATH_R_JS = "/r.js";
+    static final String CLASSPATH_R_JS = "/r.js";
+
+    private final File cacheDirectory;
+
+    /**
+     * Create an optimizer which extracts the built-in r.js to the system's
+     * temporary directory.
+     */
+    public Optimizer() {
+        this(ClasspathResources.DEFAULT_DIRECTORY);
+    }
+
+    /**
+     * Create an optimizer.
+     *
+     * @param cacheDirectory directory the built-in r.js is extracted to, it
+     *            is shared by all builds using the same plugin version
+     */
+    public Optimizer(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
 
     /**
      * Optimize using the built-in version of r.js.
@@ -60,7 +77,7 @@ public class Optimizer {
         String[] newParams = new String[args.size()];
         newParams = args.toArray(newParams);
 
-        ExitStatus status = runner.exec(optimizerFile, newParams, reporter);
+        ExitStatus status = exec(buildProfile, optimizerFile, newParams, reporter, runner);
         if (!status.success()) {
         	throw new OptimizationException("Optimizer returned non-zero exit status.");
         }
@@ -72,27 +89,29 @@ public class Optimizer {
         args[1] = buildProfile.getAbsolutePath();
 
 
-        ExitStatus status = runner.exec(optimizerFile, args, reporter);
+        ExitStatus status = exec(buildProfile, optimizerFile, args, reporter, runner);
         if (!status.success()) {
             throw new OptimizationException("Optimizer returned non-zero exit status.");
         }
     }
 
+    private ExitStatus exec(File buildProfile, File optimizerFile, String[] args, ErrorReporter reporter,
+            Runner runner) {
+        Trace.Span span = Trace.begin("run r.js", buildProfile.getPath());
+        try {
+            return runner.exec(optimizerFile, args, reporter);
+        } finally {
+            span.end();
+        }
+    }
+
     private File getClasspathOptimizerFile() throws IOException {
-        File optimizerFile = File.createTempFile("build", "js");
-        optimizerFile.deleteOnExit();
-        FileOutputStream out = null;
-        InputStream in = null;
+        Trace.Span span = Trace.begin("extract r.js", null);
         try {
-            in = getClass().getResourceAsStream(CLASSPATH_R_JS);
-            out = new FileOutputStream(optimizerFile);
-            IOUtil.copy(in, out);
+            return ClasspathResources.extract(CLASSPATH_R_JS, cacheDirectory);
         } finally {
-            IOUtil.close(in);
-            IOUtil.close(out);
+            span.end();
         }
-        
-        return optimizerFile;
     }
 
 }
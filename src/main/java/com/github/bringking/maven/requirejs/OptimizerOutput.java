@@ -0,0 +1,133 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.mozilla.javascript.ErrorReporter;
+
+/**
+ * Receives the console output of an optimizer process line by line. Errors
+ * and warnings printed by r.js are passed to the error reporter with the file
+ * and line they mention, all other lines are logged as info by a
+ * {@link MojoErrorReporter} and dropped by other reporters. Every line is
+ * prefixed with the name of the build profile, so the output of concurrent
+ * builds stays readable.
+ *
+ * A line longer than the buffer is passed on in pieces rather than held in
+ * memory, split between characters.
+ */
+class OptimizerOutput extends OutputStream {
+
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private static final Pattern ERROR = Pattern.compile("^(\\w*Error|ERROR):? .*|.*Cannot uglify2? file: .*");
+
+    private static final Pattern WARNING = Pattern.compile("^(WARN|Warning|WARNING):? .*|.*uglifyjs2 WARN: .*"
+            + "|.*Cannot inline .*|^\\(node:\\d+\\) \\w*Warning: .*");
+
+    private static final Pattern FILE = Pattern
+            .compile("(?:for file|Cannot uglify2? file|in file|Error in): ([^\\s,]+?)[.,]?(?:\\s|$)");
+
+    private static final Pattern LINE = Pattern.compile("(?:Line |line |:)(\\d+)(?::|,|\\)|\\s|$)");
+
+    private final ErrorReporter reporter;
+    private final String prefix;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+    private String lastFile;
+
+    /**
+     * @param reporter receives errors, warnings and, if it is a {@link MojoErrorReporter}, all other lines
+     * @param args the optimizer arguments, the build profile follows "-o"
+     */
+    OptimizerOutput(ErrorReporter reporter, String[] args) {
+        this.reporter = reporter;
+        this.prefix = getPrefix(args);
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        if (b == '\n') {
+            flushLine();
+        } else {
+            // split before a byte starting a character, never inside a UTF-8 sequence
+            if (buffer.size() >= MAX_LINE_LENGTH && (b & 0xC0) != 0x80) {
+                flushLine();
+            }
+            buffer.write(b);
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            write(bytes[i]);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (buffer.size() > 0) {
+            flushLine();
+        }
+    }
+
+    /**
+     * Handle a complete line of output.
+     *
+     * @param line the line without line terminator
+     */
+    void line(String line) {
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+        if (line.trim().length() == 0) {
+            return;
+        }
+
+        String message = prefix + line;
+        Matcher file = FILE.matcher(line);
+        if (file.find()) {
+            lastFile = file.group(1);
+        }
+        synchronized (reporter) {
+            if (ERROR.matcher(line).matches()) {
+                reporter.error(message, lastFile, getLine(line), null, 0);
+            } else if (WARNING.matcher(line).matches()) {
+                reporter.warning(message, lastFile, getLine(line), null, 0);
+            } else {
+                // the next message is about something else
+                lastFile = null;
+                if (reporter instanceof MojoErrorReporter) {
+                    ((MojoErrorReporter) reporter).info(message);
+                }
+            }
+        }
+    }
+
+    private void flushLine() {
+        try {
+            line(buffer.toString("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not available.", e);
+        }
+        buffer.reset();
+    }
+
+    private static int getLine(String line) {
+        Matcher matcher = LINE.matcher(line);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+    }
+
+    private static String getPrefix(String[] args) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if ("-o".equals(args[i])) {
+                return "[" + new File(args[i + 1]).getName() + "] ";
+            }
+        }
+        return "";
+    }
+}
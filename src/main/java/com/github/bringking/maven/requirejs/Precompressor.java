@@ -0,0 +1,156 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Writes gzip compressed variants of output files next to them
+ * (<tt>main.js.gz</tt> for <tt>main.js</tt>), at the best compression level,
+ * for servers which deliver precompressed assets. Files below a minimum size
+ * are left alone, as are files whose variant is not older than the file.
+ * A variant which would not be smaller than its file is not written.
+ */
+public class Precompressor {
+
+    static final String SUFFIX = ".gz";
+
+    private final long threshold;
+    private final int parallelism;
+
+    private final AtomicInteger compressed = new AtomicInteger();
+    private final AtomicInteger upToDate = new AtomicInteger();
+    private final AtomicLong originalBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    /**
+     * @param threshold the minimum size of a file to compress in bytes
+     * @param parallelism the number of files compressed at the same time
+     */
+    public Precompressor(long threshold, int parallelism) {
+        this.threshold = threshold;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Compress files.
+     *
+     * @param files the files
+     * @throws IOException if a file can not be read or its variant written
+     */
+    public void compress(List<File> files) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final File file : files) {
+            if (file.length() < threshold) {
+                continue;
+            }
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    compress(file);
+                    return null;
+                }
+            });
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()));
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing.");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void compress(File file) throws IOException {
+        File variant = new File(file.getPath() + SUFFIX);
+        if (variant.isFile() && variant.lastModified() >= file.lastModified()) {
+            upToDate.incrementAndGet();
+            return;
+        }
+        // concurrent builds never serve a partial variant
+        File temp = File.createTempFile(variant.getName(), ".tmp", file.getParentFile());
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(temp), 64 * 1024) {
+                    {
+                        def.setLevel(Deflater.BEST_COMPRESSION);
+                    }
+                };
+                try {
+                    IOUtil.copy(in, out, 64 * 1024);
+                } finally {
+                    IOUtil.close(out);
+                }
+            } finally {
+                IOUtil.close(in);
+            }
+
+            long length = file.length();
+            if (temp.length() >= length) {
+                variant.delete();
+                return;
+            }
+            if (!temp.renameTo(variant) && !(variant.delete() && temp.renameTo(variant))) {
+                throw new IOException("Unable to write " + variant + ".");
+            }
+            compressed.incrementAndGet();
+            originalBytes.addAndGet(length);
+            compressedBytes.addAndGet(variant.length());
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * @return the number of variants written
+     */
+    public int getCompressed() {
+        return compressed.get();
+    }
+
+    /**
+     * @return a summary of the written variants for the log
+     */
+    public String getSummary() {
+        long original = originalBytes.get();
+        long saved = original - compressedBytes.get();
+        return compressed.get() + " files compressed, saving " + saved + " of " + original + " bytes"
+                + (original > 0 ? " (" + (saved * 100 / original) + "%)" : "") + ", " + upToDate.get()
+                + " up to date";
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Generates build profiles which adjust the settings of an existing profile:
+ * the original source is evaluated as the argument of a function which
+ * changes the config and returns it. A generated profile lives in another
+ * directory, so the paths r.js resolves relative to the original build file
+ * are made absolute first.
+ */
+final class ProfileWrapper {
+
+    private ProfileWrapper() {
+    }
+
+    /**
+     * Read the source of a build profile.
+     *
+     * @param profile the build profile
+     * @return the source without trailing semicolons
+     * @throws IOException if the profile can not be read
+     */
+    static String read(File profile) throws IOException {
+        String source = FileUtils.fileRead(profile, "UTF-8").trim();
+        // r.js is lenient about a trailing semicolon, the wrapper is not
+        while (source.endsWith(";")) {
+            source = source.substring(0, source.length() - 1).trim();
+        }
+        return source;
+    }
+
+    /**
+     * Wrap the source of a build profile.
+     *
+     * @param profile the original build profile
+     * @param source its source, see {@link #read(File)}
+     * @param description what the generated profile is, for a comment
+     * @param body statements changing <code>config</code>, indented by four spaces
+     * @return the generated profile
+     */
+    static String wrap(File profile, String source, String description, String body) {
+        StringBuilder js = new StringBuilder();
+        js.append("(function (config) {\n");
+        js.append("    // generated by the requirejs-maven-plugin, ").append(description).append(" of ")
+                .append(profile.getAbsolutePath()).append('\n');
+        js.append("    var base = ").append(quote(toUrl(profile.getAbsoluteFile().getParentFile()))).append(";\n");
+        js.append("    function abs(path) {\n");
+        js.append("        if (typeof path === 'string') {\n");
+        js.append("            return /^(\\/|\\\\|[a-zA-Z]:)/.test(path) ? path : base + path;\n");
+        js.append("        }\n");
+        js.append("        return path && path.map ? path.map(abs) : path;\n");
+        js.append("    }\n");
+        // resolve what r.js would resolve relative to the original build file
+        js.append("    if (config.appDir) {\n");
+        js.append("        config.appDir = abs(config.appDir);\n");
+        js.append("    } else {\n");
+        // without a baseUrl, r.js loads modules relative to the original build file
+        js.append("        config.baseUrl = config.baseUrl ? abs(config.baseUrl) : base;\n");
+        js.append("    }\n");
+        js.append("    [[config, 'dir'], [config, 'out'], [config, 'mainConfigFile'], [config, 'cssIn'],\n");
+        js.append("            [config.wrap, 'startFile'], [config.wrap, 'endFile']].forEach(function (setting) {\n");
+        js.append("        if (setting[0] && setting[0][setting[1]]) {\n");
+        js.append("            setting[0][setting[1]] = abs(setting[0][setting[1]]);\n");
+        js.append("        }\n");
+        js.append("    });\n");
+        js.append(body);
+        js.append("    return config;\n");
+        js.append("}(\n");
+        js.append(source);
+        js.append("\n))\n");
+        return js.toString();
+    }
+
+    /**
+     * @return the absolute path of a directory with / as separator and a trailing /
+     */
+    static String toUrl(File dir) {
+        String path = dir.getAbsolutePath().replace('\\', '/');
+        return path.endsWith("/") ? path : path + "/";
+    }
+
+    /**
+     * @return the value as JavaScript string literal
+     */
+    static String quote(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+}
@@ -0,0 +1,188 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.DefiningClassLoader;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.optimizer.ClassCompiler;
+
+/**
+ * Compiles scripts to JVM classes ahead of time and keeps the classes in a
+ * directory shared by builds, one jar per script content, Rhino version and
+ * optimization level. A later build defines the classes from the jar instead
+ * of parsing and compiling the script again.
+ *
+ * Scripts for which the compiler can not generate classes, e.g. because a
+ * generated method exceeds the 64K limit of the JVM, are run interpreted. A
+ * marker file remembers that, so later builds do not try again.
+ */
+final class RhinoClassCache {
+
+    private static final String CLASS_PREFIX = "com.github.bringking.maven.requirejs.gen.Script_";
+
+    private static final String INTERPRETED = ".interpreted";
+
+    private final File directory;
+    private final int optimizationLevel;
+
+    /**
+     * @param directory directory holding the jars
+     * @param optimizationLevel Rhino optimization level from 0 to 9
+     */
+    RhinoClassCache(File directory, int optimizationLevel) {
+        this.directory = directory;
+        this.optimizationLevel = optimizationLevel;
+    }
+
+    /**
+     * Return the compiled script, from the cache if possible.
+     *
+     * @param cx the current context
+     * @param source the script
+     * @param path the path of the script, for error messages
+     * @param hash the hash of the script content
+     * @return the script
+     * @throws IOException if the classes can not be read or written
+     */
+    Script getScript(Context cx, String source, String path, String hash) throws IOException {
+        String key = Digests.sha1(hash + "\n" + cx.getImplementationVersion() + "\n" + optimizationLevel);
+        String className = CLASS_PREFIX + key.substring(0, 16);
+        File jar = new File(directory, key + ".jar");
+        File interpretedMarker = new File(directory, key + INTERPRETED);
+
+        if (jar.isFile()) {
+            Trace.Span span = Trace.begin("load r.js classes", path);
+            try {
+                return load(jar, className);
+            } catch (IOException e) {
+                // damaged, compile it again
+                jar.delete();
+            } finally {
+                span.end();
+            }
+        }
+        if (interpretedMarker.isFile()) {
+            return compileInterpreted(cx, source, path);
+        }
+
+        Object[] classes;
+        Trace.Span span = Trace.begin("compile r.js", path);
+        try {
+            CompilerEnvirons environment = new CompilerEnvirons();
+            environment.initFromContext(cx);
+            environment.setOptimizationLevel(optimizationLevel);
+            classes = new ClassCompiler(environment).compileToClassFiles(source, path, 1, className);
+        } catch (EvaluatorException e) {
+            if (!isCodeGenerationError(e)) {
+                throw e;
+            }
+            directory.mkdirs();
+            new FileOutputStream(interpretedMarker).close();
+            return compileInterpreted(cx, source, path);
+        } finally {
+            span.end();
+        }
+        save(jar, classes);
+        return define(classes, className);
+    }
+
+    /**
+     * The compiler reports methods too large for the JVM and similar limits
+     * as code generation errors, the interpreter has no such limits.
+     */
+    static boolean isCodeGenerationError(EvaluatorException e) {
+        return e.details() != null && e.details().indexOf("code generation error") != -1;
+    }
+
+    static Script compileInterpreted(Context cx, String source, String path) {
+        Trace.Span span = Trace.begin("compile r.js", path + " (interpreted)");
+        int level = cx.getOptimizationLevel();
+        try {
+            cx.setOptimizationLevel(-1);
+            return cx.compileString(source, path, 1, null);
+        } finally {
+            cx.setOptimizationLevel(level);
+            span.end();
+        }
+    }
+
+    /**
+     * Write the classes to a temporary file first, concurrent builds never
+     * read a partial jar.
+     */
+    private void save(File jar, Object[] classes) throws IOException {
+        directory.mkdirs();
+        File temp = File.createTempFile(jar.getName(), ".tmp", directory);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(temp));
+        try {
+            for (int i = 0; i < classes.length; i += 2) {
+                out.putNextEntry(new JarEntry(((String) classes[i]).replace('.', '/') + ".class"));
+                out.write((byte[]) classes[i + 1]);
+                out.closeEntry();
+            }
+        } finally {
+            IOUtil.close(out);
+        }
+        if (!temp.renameTo(jar)) {
+            temp.delete();
+        }
+    }
+
+    private static Script load(File jar, String className) throws IOException {
+        JarInputStream in = new JarInputStream(new FileInputStream(jar));
+        try {
+            List<Object> classes = new ArrayList<Object>();
+            for (JarEntry entry = in.getNextJarEntry(); entry != null; entry = in.getNextJarEntry()) {
+                String name = entry.getName();
+                if (name.endsWith(".class")) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    IOUtil.copy(in, bytes);
+                    classes.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                    classes.add(bytes.toByteArray());
+                }
+            }
+            return define(classes.toArray(), className);
+        } catch (RuntimeException e) {
+            IOException ioe = new IOException("Unable to load " + jar + ": " + e);
+            ioe.initCause(e);
+            throw ioe;
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    private static Script define(Object[] classes, String className) throws IOException {
+        DefiningClassLoader loader = new DefiningClassLoader(RhinoClassCache.class.getClassLoader());
+        Class<?> main = null;
+        for (int i = 0; i < classes.length; i += 2) {
+            Class<?> type = loader.defineClass((String) classes[i], (byte[]) classes[i + 1]);
+            loader.linkClass(type);
+            if (className.equals(classes[i])) {
+                main = type;
+            }
+        }
+        if (main == null) {
+            throw new IOException("The compiled classes do not contain " + className + ".");
+        }
+        try {
+            return (Script) main.newInstance();
+        } catch (InstantiationException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * File primitives for r.js running in Rhino, replacing the ones of its file
+ * module which go through <tt>java.io</tt> one small call at a time (see
+ * rhinoFileSystem.js). Every run gets its own instance, which remembers the
+ * stat results and directory listings it has seen until the run writes to
+ * the paths involved.
+ *
+ * File contents are kept in a {@link Cache} shared by all runs of a runner,
+ * so profiles of one build which share an appDir read each library once.
+ * An entry is only used while the length and modification time of the file
+ * are unchanged. Files modified less than {@link #RACY_INTERVAL} before
+ * they are read are not cached, another change within the resolution of the
+ * file system's timestamps would go unnoticed.
+ *
+ * The methods are called from JavaScript, so the class and its methods are
+ * public.
+ */
+public final class RhinoFileSystem {
+
+    static final String CLASSPATH_RHINO_FILE_SYSTEM_JS = "/rhinoFileSystem.js";
+
+    /**
+     * Files of at least this size are mapped into memory rather than copied
+     * into a buffer.
+     */
+    static final long MAPPED_SIZE = 256 * 1024;
+
+    /**
+     * Files modified less than this many milliseconds ago are not cached.
+     */
+    static final long RACY_INTERVAL = 2000;
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    /**
+     * A mapped file can not be deleted or replaced on Windows until the
+     * mapping is garbage collected, and r.js rewrites files it has read.
+     */
+    private static final boolean MAP_FILES = File.separatorChar == '/';
+
+    private final Cache cache;
+    private final Map<String, Stat> stats = new HashMap<String, Stat>();
+    private final Map<String, String[]> listings = new HashMap<String, String[]>();
+
+    /**
+     * @param cache the contents shared with other runs
+     */
+    public RhinoFileSystem(Cache cache) {
+        this.cache = cache;
+    }
+
+    public boolean exists(String path) {
+        return stat(path).exists;
+    }
+
+    public boolean isFile(String path) {
+        return stat(path).file;
+    }
+
+    public boolean isDirectory(String path) {
+        return stat(path).directory;
+    }
+
+    /**
+     * List a directory.
+     *
+     * @param path the directory
+     * @return the paths of its children as {@link File#listFiles()} returns them, empty if it is not a directory
+     */
+    public String[] list(String path) {
+        String key = getKey(path);
+        String[] children = listings.get(key);
+        if (children == null) {
+            File[] files = new File(path).listFiles();
+            children = new String[files != null ? files.length : 0];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = files[i].getPath();
+            }
+            listings.put(key, children);
+        }
+        return children;
+    }
+
+    /**
+     * Read a text file like the file module of r.js does: a byte order mark
+     * is dropped and every line ends with the line separator of the system.
+     *
+     * @param path the file
+     * @param encoding its charset
+     * @return the content
+     * @throws IOException if the file can not be read
+     */
+    public String read(String path, String encoding) throws IOException {
+        String key = getKey(path);
+        Stat stat = stat(path);
+        if (!stat.file) {
+            throw new IOException("Unable to read " + path + ", it is not a file.");
+        }
+        String content = cache.get(key, encoding, stat);
+        if (content == null) {
+            content = normalizeLines(decode(new File(path), encoding));
+            if (stat.lastModified < System.currentTimeMillis() - RACY_INTERVAL) {
+                cache.put(key, encoding, stat, content);
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Write a text file, creating its directory if needed.
+     *
+     * @param path the file
+     * @param content the content
+     * @param encoding its charset, empty for the default charset
+     * @throws IOException if the file can not be written
+     */
+    public void write(String path, String content, String encoding) throws IOException {
+        File file = new File(path).getAbsoluteFile();
+        makeParentDirectories(file);
+        invalidate(path, false);
+        Writer out = new BufferedWriter(encoding.length() > 0 ? new OutputStreamWriter(new FileOutputStream(file),
+                encoding) : new OutputStreamWriter(new FileOutputStream(file)));
+        try {
+            out.write(content);
+        } finally {
+            IOUtil.close(out);
+        }
+    }
+
+    /**
+     * Copy a file, creating the directory of the destination if needed.
+     *
+     * @param from the file to copy
+     * @param to the destination
+     * @param onlyCopyNew copy only if the destination is missing or older
+     * @return whether the file was copied
+     * @throws IOException if the file can not be copied
+     */
+    public boolean copy(String from, String to, boolean onlyCopyNew) throws IOException {
+        if (onlyCopyNew && exists(to) && stat(to).lastModified >= stat(from).lastModified) {
+            return false;
+        }
+        File destination = new File(to);
+        makeParentDirectories(destination);
+        invalidate(to, false);
+        FileInputStream in = new FileInputStream(from);
+        try {
+            FileOutputStream out = new FileOutputStream(destination);
+            try {
+                FileChannel channel = in.getChannel();
+                long size = channel.size();
+                for (long position = 0; position < size;) {
+                    position += channel.transferTo(position, size - position, out.getChannel());
+                }
+            } finally {
+                IOUtil.close(out);
+            }
+        } finally {
+            IOUtil.close(in);
+        }
+        return true;
+    }
+
+    public boolean rename(String from, String to) {
+        invalidate(from, true);
+        invalidate(to, true);
+        return new File(from).renameTo(new File(to));
+    }
+
+    /**
+     * Delete a file, or a directory with all its content.
+     *
+     * @param path the file or directory
+     */
+    public void delete(String path) {
+        if (isDirectory(path)) {
+            for (String child : list(path)) {
+                delete(child);
+            }
+        }
+        if (exists(path)) {
+            invalidate(path, false);
+            new File(path).delete();
+        }
+    }
+
+    /**
+     * Delete all empty directories in a directory, and the directory itself
+     * if it is empty then.
+     *
+     * @param path the directory
+     */
+    public void deleteEmptyDirectories(String path) {
+        if (!exists(path)) {
+            return;
+        }
+        for (String child : list(path)) {
+            if (isDirectory(child)) {
+                deleteEmptyDirectories(child);
+            }
+        }
+        if (list(path).length == 0) {
+            delete(path);
+        }
+    }
+
+    private Stat stat(String path) {
+        String key = getKey(path);
+        Stat stat = stats.get(key);
+        if (stat == null) {
+            stat = new Stat(new File(path));
+            stats.put(key, stat);
+        }
+        return stat;
+    }
+
+    /**
+     * Forget what is known about a file which is about to change, and about
+     * the listings and stat results of its directories, which it may be
+     * added to.
+     *
+     * @param path the file
+     * @param tree whether it may be a directory with content, which a rename takes along
+     */
+    private void invalidate(String path, boolean tree) {
+        String key = getKey(path);
+        cache.remove(key);
+        stats.remove(key);
+        listings.remove(key);
+        if (tree) {
+            String prefix = key + File.separator;
+            for (Iterator<String> keys = stats.keySet().iterator(); keys.hasNext();) {
+                if (keys.next().startsWith(prefix)) {
+                    keys.remove();
+                }
+            }
+            for (Iterator<String> keys = listings.keySet().iterator(); keys.hasNext();) {
+                if (keys.next().startsWith(prefix)) {
+                    keys.remove();
+                }
+            }
+        }
+        for (File dir = new File(key).getParentFile(); dir != null; dir = dir.getParentFile()) {
+            stats.remove(dir.getPath());
+            listings.remove(dir.getPath());
+        }
+    }
+
+    private static void makeParentDirectories(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory: " + parent.getAbsolutePath());
+        }
+    }
+
+    private static String getKey(String path) {
+        return new File(path).getAbsolutePath();
+    }
+
+    /**
+     * Decode a file with the replacement character for malformed input, as
+     * an InputStreamReader does.
+     */
+    static CharBuffer decode(File file, String encoding) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            ByteBuffer bytes;
+            if (MAP_FILES && size >= MAPPED_SIZE) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) != -1) {
+                    // read fully
+                }
+                bytes.flip();
+            }
+            return Charset.forName(encoding).newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE).decode(bytes);
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * The result of reading a file line by line with a BufferedReader and
+     * appending the line separator to every line, without the byte order
+     * mark.
+     */
+    static String normalizeLines(CharSequence text) {
+        int length = text.length();
+        StringBuilder lines = new StringBuilder(length + length / 32);
+        int start = length > 0 && text.charAt(0) == '\uFEFF' ? 1 : 0;
+        for (int i = start; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\r') {
+                lines.append(LINE_SEPARATOR);
+                if (i + 1 < length && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+            } else if (c == '\n') {
+                lines.append(LINE_SEPARATOR);
+            } else {
+                lines.append(c);
+            }
+        }
+        if (length > 0 && text.charAt(length - 1) != '\n' && text.charAt(length - 1) != '\r') {
+            lines.append(LINE_SEPARATOR);
+        }
+        return lines.toString();
+    }
+
+    private static final class Stat {
+        private final boolean exists;
+        private final boolean file;
+        private final boolean directory;
+        private final long length;
+        private final long lastModified;
+
+        Stat(File file) {
+            this.file = file.isFile();
+            this.directory = !this.file && file.isDirectory();
+            this.exists = this.file || this.directory || file.exists();
+            this.length = this.file ? file.length() : 0;
+            this.lastModified = this.exists ? file.lastModified() : 0;
+        }
+    }
+
+    /**
+     * File contents shared by the runs of a runner, the least recently used
+     * ones are dropped beyond a maximum size.
+     */
+    public static final class Cache {
+
+        private final long maxSize;
+        private long size;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+
+        /**
+         * @param maxSize maximum size of all contents in bytes
+         */
+        public Cache(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        synchronized String get(String path, String encoding, Stat stat) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.length == stat.length && entry.lastModified == stat.lastModified
+                    && entry.encoding.equalsIgnoreCase(encoding)) {
+                return entry.content;
+            }
+            return null;
+        }
+
+        synchronized void put(String path, String encoding, Stat stat, String content) {
+            long entrySize = 2L * content.length();
+            if (entrySize > maxSize) {
+                return;
+            }
+            Entry previous = entries.put(path, new Entry(encoding, stat.length, stat.lastModified, content));
+            if (previous != null) {
+                size -= 2L * previous.content.length();
+            }
+            size += entrySize;
+            for (Iterator<Entry> eldest = entries.values().iterator(); size > maxSize && eldest.hasNext();) {
+                size -= 2L * eldest.next().content.length();
+                eldest.remove();
+            }
+        }
+
+        synchronized void remove(String path) {
+            Entry entry = entries.remove(path);
+            if (entry != null) {
+                size -= 2L * entry.content.length();
+            }
+        }
+
+        synchronized long getSize() {
+            return size;
+        }
+    }
+
+    private static final class Entry {
+        private final String encoding;
+        private final long length;
+        private final long lastModified;
+        private final String content;
+
+        Entry(String encoding, long length, long lastModified, String content) {
+            this.encoding = encoding;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.content = content;
+        }
+    }
+}
@@ -37,30 +37,94 @@ package com.github.bringking.maven.requirejs;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import org.mozilla.javascript.BaseFunction;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextAction;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.ErrorReporter;
+import org.mozilla.javascript.EvaluatorException;
 import org.mozilla.javascript.Script;
+import org.mozilla.javascript.ScriptRuntime;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.tools.SourceReader;
 import org.mozilla.javascript.tools.shell.Global;
-import org.mozilla.javascript.tools.shell.QuitAction;
 
 /**
  * Class for running a single js file. This is just a stripped down
  * version of org.mozilla.javascript.tools.shell.Main
  *
+ * Compiled scripts are cached per JVM by content hash and optimization
+ * level, and with a class cache directory also on disk as JVM classes
+ * shared by builds (see {@link RhinoClassCache}). All runs share one sealed
+ * top level scope with the standard objects and shell functions.
+ * Every run gets its own child scope holding its <tt>arguments</tt>, its
+ * <tt>quit</tt> function and all globals the script defines, so runs do not
+ * see each other's state and can execute on several threads at once. With a
+ * file cache, a run also gets a {@link RhinoFileSystem} as
+ * <tt>requirejsFileSystem</tt>, sharing file contents with the other runs.
+ *
  * @author Norris Boyd
  * @author Matthew Cheely
  */
 public class RhinoRunner implements Runner {
 
-    private ContextFactory contextFactory = new ContextFactory();
-    private Global global = new Global();
-    private File file;
+    private static final int MAX_CACHED_SCRIPTS = 4;
+
+    private static final ContextFactory contextFactory = new ContextFactory();
+
+    private static final Map<String, Script> scripts = new LinkedHashMap<String, Script>( 16, 0.75f, true ) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Script> eldest ) {
+            return size() > MAX_CACHED_SCRIPTS;
+        }
+    };
+
+    private static Global sharedScope;
+
+    private static int compiledScripts;
+
+    private final int optimizationLevel;
+
+    private final RhinoClassCache classCache;
+
+    private final RhinoFileSystem.Cache fileCache;
+
+    /**
+     * Create a runner compiling scripts in memory at optimization level 0.
+     */
+    public RhinoRunner() {
+        this( null, 0 );
+    }
+
+    /**
+     * @param classCacheDirectory directory for the classes compiled from scripts, <code>null</code> to compile
+     *                            in memory for every JVM
+     * @param optimizationLevel   Rhino optimization level, -1 to interpret, 0 to 9 to compile to classes
+     */
+    public RhinoRunner( File classCacheDirectory, int optimizationLevel ) {
+        this( classCacheDirectory, optimizationLevel, 0 );
+    }
+
+    /**
+     * @param classCacheDirectory directory for the classes compiled from scripts, <code>null</code> to compile
+     *                            in memory for every JVM
+     * @param optimizationLevel   Rhino optimization level, -1 to interpret, 0 to 9 to compile to classes
+     * @param fileCacheSize       maximum size of the file contents shared by runs in bytes, 0 to not provide
+     *                            <tt>requirejsFileSystem</tt>
+     */
+    public RhinoRunner( File classCacheDirectory, int optimizationLevel, long fileCacheSize ) {
+        Context.checkOptimizationLevel( optimizationLevel );
+        this.optimizationLevel = optimizationLevel;
+        this.classCache = classCacheDirectory != null && optimizationLevel >= 0
+                ? new RhinoClassCache( classCacheDirectory, optimizationLevel ) : null;
+        this.fileCache = fileCacheSize > 0 ? new RhinoFileSystem.Cache( fileCacheSize ) : null;
+    }
 
     /**
      * Execute a js file.
@@ -69,24 +133,15 @@ public class RhinoRunner implements Runner {
      * @param args       arguments that will be visible to the script.
      * @param reporter   error reporter.
      */
-    public ExitStatus exec( File mainScript, final String[] args, final ErrorReporter reporter ) {
+    public ExitStatus exec( final File mainScript, final String[] args, final ErrorReporter reporter ) {
         final ExitStatus status = new ExitStatus();
-        if ( !global.isInitialized() ) {
-            global.init( contextFactory );
-            global.initQuitAction( new QuitAction() {
-                @Override
-                public void quit( Context context, int exitCode ) {
-                    status.setExitCode( exitCode );
-                }
-            } );
-        }
 
-        file = mainScript;
         contextFactory.call( new ContextAction() {
             @Override
             public Object run( Context cx ) {
                 cx.setErrorReporter( reporter );
-                processFile( cx, args );
+                Script script = getScript( cx, mainScript );
+                script.exec( cx, createRunScope( cx, args, status ) );
                 return null;
             }
         } );
@@ -94,24 +149,108 @@ public class RhinoRunner implements Runner {
         return status;
     }
 
-    private void processFile( Context cx, String[] args ) {
-        // define "arguments" array in the top-level object:
+    /**
+     * Create the scope for a single run: a child of the shared scope with its
+     * own "arguments" array, "quit" function and file system.
+     */
+    private Scriptable createRunScope( Context cx, String[] args, ExitStatus status ) {
+        Global shared = getSharedScope();
+        ScriptableObject scope = (ScriptableObject) cx.newObject( shared );
+        scope.setPrototype( shared );
+        scope.setParentScope( null );
+
         // need to allocate new array since newArray requires instances
         // of exactly Object[], not ObjectSubclass[]
         Object[] array = new Object[args.length];
         System.arraycopy( args, 0, array, 0, args.length );
-        Scriptable argsObj = cx.newArray( global, array );
-        if ( !global.has( "arguments", global ) ) {
-            global.defineProperty( "arguments", argsObj, ScriptableObject.DONTENUM );
-        } else {
-            global.put( "arguments", global, argsObj );
+        scope.defineProperty( "arguments", cx.newArray( scope, array ), ScriptableObject.DONTENUM );
+
+        Quit quit = new Quit( status );
+        ScriptRuntime.setFunctionProtoAndParent( quit, scope );
+        scope.defineProperty( "quit", quit, ScriptableObject.DONTENUM );
+
+        if ( fileCache != null ) {
+            scope.defineProperty( "requirejsFileSystem",
+                    Context.javaToJS( new RhinoFileSystem( fileCache ), scope ), ScriptableObject.DONTENUM );
         }
 
+        return scope;
+    }
+
+    private static synchronized Global getSharedScope() {
+        if ( sharedScope == null ) {
+            Global global = new Global();
+            global.setSealedStdLib( true );
+            global.init( contextFactory );
+            // resolve lazily initialized standard objects now, the scope is
+            // read-only from here on
+            for ( Object id : global.getAllIds() ) {
+                if ( id instanceof String ) {
+                    ScriptableObject.getProperty( global, (String) id );
+                }
+            }
+            global.sealObject();
+            sharedScope = global;
+        }
+        return sharedScope;
+    }
+
+    /**
+     * Return the compiled script for a file, compiling it only if no script
+     * with the same content was compiled before.
+     */
+    private Script getScript( Context cx, File file ) {
         String path = file.getAbsolutePath();
-        Object source = readFileOrUrl( path, true );
-        Script script;
+        byte[] content = (byte[]) readFileOrUrl( path, false );
+        String hash = Digests.toHex( Digests.newDigest().digest( content ) );
+        String key = hash + ":" + optimizationLevel + ( classCache != null ? ":aot" : "" );
 
-        String strSrc = (String) source;
+        // compiling r.js takes seconds, let concurrent runs wait for the
+        // first compile rather than compiling it several times
+        synchronized ( scripts ) {
+            Script script = scripts.get( key );
+            if ( script == null ) {
+                if ( classCache != null ) {
+                    try {
+                        script = classCache.getScript( cx, getSource( path ), path, hash );
+                    } catch ( IOException e ) {
+                        throw new RhinoRunnerException( "Unable to cache the compiled script.", e );
+                    }
+                } else {
+                    String source = getSource( path );
+                    Trace.Span span = Trace.begin( "compile r.js", path );
+                    int level = cx.getOptimizationLevel();
+                    try {
+                        cx.setOptimizationLevel( optimizationLevel );
+                        script = cx.compileString( source, path, 1, null );
+                    } catch ( EvaluatorException e ) {
+                        if ( !RhinoClassCache.isCodeGenerationError( e ) ) {
+                            throw e;
+                        }
+                        script = RhinoClassCache.compileInterpreted( cx, source, path );
+                    } finally {
+                        cx.setOptimizationLevel( level );
+                        span.end();
+                    }
+                }
+                scripts.put( key, script );
+                compiledScripts++;
+            }
+            return script;
+        }
+    }
+
+    /**
+     * @return the number of scripts compiled or loaded from the class cache by all runners
+     */
+    static int getCompiledScripts() {
+        synchronized ( scripts ) {
+            return compiledScripts;
+        }
+    }
+
+    private static String getSource( String path ) {
+        String strSrc = (String) readFileOrUrl( path, true );
         // Support the executable script #! syntax: If
         // the first line begins with a '#', treat the whole
         // line as a comment.
@@ -124,12 +263,7 @@ public class RhinoRunner implements Runner {
                 }
             }
         }
-
-        script = cx.compileString( strSrc, path, 1, null );
-
-        if ( script != null ) {
-            script.exec( cx, global );
-        }
+        return strSrc;
     }
 
     /**
@@ -146,4 +280,25 @@ public class RhinoRunner implements Runner {
         }
     }
 
+    /**
+     * The shell's quit function reports to a quit action registered on the
+     * shared scope, this one records the exit code of a single run.
+     */
+    private static class Quit extends BaseFunction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ExitStatus status;
+
+        Quit( ExitStatus status ) {
+            this.status = status;
+        }
+
+        @Override
+        public Object call( Context cx, Scriptable scope, Scriptable thisObj, Object[] args ) {
+            status.setExitCode( args.length != 0 ? ScriptRuntime.toInt32( args[0] ) : 0 );
+            return Context.getUndefinedValue();
+        }
+    }
+
 }
@@ -0,0 +1,204 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.mozilla.javascript.ErrorReporter;
+
+/**
+ * Runners shared by all executions of the plugin in a JVM, so the modules of
+ * a parallel reactor build (mvn -T) reuse warm runners instead of creating
+ * their own. The plugin classes are loaded once per build, which makes the
+ * pools reactor wide.
+ *
+ * All pools of a kind share a governor limiting how many optimizations run
+ * at the same time: node processes by the number of cores and the physical
+ * memory, Rhino and Nashorn contexts by the number of cores and the heap of
+ * the JVM. Optimizations beyond the limit wait for a running one to finish.
+ */
+final class RunnerPool implements Runner {
+
+    /**
+     * Creates the runners of a pool.
+     */
+    interface Factory {
+        Runner create();
+    }
+
+    /**
+     * Governor for runners executing in node processes.
+     */
+    static final String PROCESS = "process";
+
+    /**
+     * Governor for runners executing in this JVM.
+     */
+    static final String JVM = "jvm";
+
+    private static final long MB = 1024 * 1024;
+
+    /**
+     * Memory assumed for a node process running r.js, when no heap size is
+     * configured.
+     */
+    private static final long PROCESS_MEMORY = 512 * MB;
+
+    /**
+     * Heap assumed for a Rhino or Nashorn optimization.
+     */
+    private static final long CONTEXT_MEMORY = 256 * MB;
+
+    private static final Map<String, RunnerPool> pools = new HashMap<String, RunnerPool>();
+
+    private static final Map<String, Semaphore> governors = new HashMap<String, Semaphore>();
+
+    private static final Map<String, Integer> governorSizes = new HashMap<String, Integer>();
+
+    private final String key;
+    private final Factory factory;
+    private final boolean exclusive;
+    private final Semaphore governor;
+    private final LinkedList<Runner> idle = new LinkedList<Runner>();
+    private Runner shared;
+
+    private RunnerPool(String key, Factory factory, boolean exclusive, Semaphore governor) {
+        this.key = key;
+        this.factory = factory;
+        this.exclusive = exclusive;
+        this.governor = governor;
+    }
+
+    /**
+     * Return the pool for a kind of runner, creating it on first use.
+     *
+     * @param key identifies the runner kind and its settings
+     * @param governorName {@link #PROCESS} or {@link #JVM}
+     * @param maxConcurrent the limit of the governor, used when the governor is created
+     * @param exclusive whether a runner executes one script at a time, else one runner is used by all threads
+     * @param factory creates the runners
+     * @return the pool
+     */
+    static synchronized RunnerPool get(String key, String governorName, int maxConcurrent, boolean exclusive,
+            Factory factory) {
+        RunnerPool pool = pools.get(key);
+        if (pool == null) {
+            Semaphore governor = governors.get(governorName);
+            if (governor == null) {
+                governor = new Semaphore(Math.max(1, maxConcurrent), true);
+                governors.put(governorName, governor);
+                governorSizes.put(governorName, Math.max(1, maxConcurrent));
+            }
+            pool = new RunnerPool(key, factory, exclusive, governor);
+            pools.put(key, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * @return the runner kind and its settings, as passed to {@link #get(String, String, int, boolean, Factory)}
+     */
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * @param governorName {@link #PROCESS} or {@link #JVM}
+     * @return the limit of a governor, or 0 if it was not created yet
+     */
+    static synchronized int getMaxConcurrent(String governorName) {
+        Integer size = governorSizes.get(governorName);
+        return size != null ? size : 0;
+    }
+
+    /**
+     * The default limit of node processes running at the same time: one per
+     * core, as far as the physical memory holds them.
+     *
+     * @param heapMb the heap size node is started with in MB, 0 for the default
+     * @return the limit
+     */
+    static int getDefaultProcessLimit(int heapMb) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        long memory = getPhysicalMemory();
+        if (memory <= 0) {
+            return cores;
+        }
+        long perProcess = heapMb > 0 ? heapMb * MB + 64 * MB : PROCESS_MEMORY;
+        return (int) Math.max(1, Math.min(cores, memory / perProcess));
+    }
+
+    /**
+     * The default limit of Rhino or Nashorn optimizations running at the
+     * same time: one per core, as far as the heap of the JVM holds them.
+     *
+     * @return the limit
+     */
+    static int getDefaultContextLimit() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return (int) Math.max(1, Math.min(cores, Runtime.getRuntime().maxMemory() / CONTEXT_MEMORY));
+    }
+
+    /**
+     * @return the physical memory of the machine in bytes, or -1 if the JVM does not tell
+     */
+    private static long getPhysicalMemory() {
+        try {
+            Class<?> type = Class.forName("com.sun.management.OperatingSystemMXBean");
+            Object bean = ManagementFactory.getOperatingSystemMXBean();
+            if (type.isInstance(bean)) {
+                return ((Number) type.getMethod("getTotalPhysicalMemorySize").invoke(bean)).longValue();
+            }
+        } catch (Exception e) {
+            // not a HotSpot based JVM
+        }
+        return -1;
+    }
+
+    @Override
+    public ExitStatus exec(File mainScript, String[] args, ErrorReporter reporter) {
+        acquire(mainScript);
+        try {
+            Runner runner = borrow();
+            try {
+                return runner.exec(mainScript, args, reporter);
+            } finally {
+                release(runner);
+            }
+        } finally {
+            governor.release();
+        }
+    }
+
+    private void acquire(File mainScript) {
+        if (governor.tryAcquire()) {
+            return;
+        }
+        Trace.Span span = Trace.begin("wait for runner", mainScript.getPath());
+        try {
+            governor.acquireUninterruptibly();
+        } finally {
+            span.end();
+        }
+    }
+
+    private synchronized Runner borrow() {
+        if (!exclusive) {
+            if (shared == null) {
+                shared = factory.create();
+            }
+            return shared;
+        }
+        return idle.isEmpty() ? factory.create() : idle.removeFirst();
+    }
+
+    private synchronized void release(Runner runner) {
+        if (exclusive) {
+            // the most recently used runner has the warmest caches
+            idle.addFirst(runner);
+        }
+    }
+}
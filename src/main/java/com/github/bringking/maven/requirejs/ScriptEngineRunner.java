@@ -35,15 +35,22 @@
 package com.github.bringking.maven.requirejs;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
 
+import javax.script.Bindings;
 import javax.script.Compilable;
 import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
 
 import org.codehaus.plexus.util.IOUtil;
 import org.mozilla.javascript.ErrorReporter;
@@ -52,13 +59,28 @@ import org.mozilla.javascript.ErrorReporter;
  * Class for running a single js file. This runner uses a provided ScriptEngine
  * to execute the script.
  *
+ * Scripts are compiled once per engine (the main script keyed by its content
+ * hash) and every run evaluates them in a new script context with its own
+ * bindings, so runs do not share globals.
+ *
  * @author Stratehm
  */
 public class ScriptEngineRunner implements Runner {
 
     private static final String CLASSPATH_READFULLY_NASHORN_JS = "/readFullyNashorn.js";
 
-    private ScriptEngine scriptEngine;
+    private static final String EXIT_STATUS = "__requirejsExitStatus";
+
+    /**
+     * The engine's own quit function exits the JVM, r.js must only report
+     * its exit code.
+     */
+    private static final String QUIT_FUNCTION = "function quit(code) { " + EXIT_STATUS
+            + ".setExitCode(code === undefined ? 0 : code); }";
+
+    private final ScriptEngine scriptEngine;
+
+    private final Map<String, CompiledScript> compiledScripts = new HashMap<String, CompiledScript>();
 
     public ScriptEngineRunner(ScriptEngine scriptEngine) {
         this.scriptEngine = scriptEngine;
@@ -69,16 +91,19 @@ public class ScriptEngineRunner implements Runner {
         final ExitStatus status = new ExitStatus();
 
         try {
-            scriptEngine.getContext().getBindings(ScriptContext.ENGINE_SCOPE).put("arguments", args);
-            Compilable compilable = (Compilable) scriptEngine;
+            CompiledScript compileQuit = getQuitScript();
+            CompiledScript compileReadFully = getReadFullyScript();
+            CompiledScript compileMainScript = getMainScript(mainScript);
 
-            CompiledScript compileReadFully = compilable.compile(new FileReader(getClasspathReadFullyFile()));
-            CompiledScript compileMainScript = compilable.compile(new FileReader(mainScript));
+            ScriptContext context = new SimpleScriptContext();
+            Bindings bindings = scriptEngine.createBindings();
+            bindings.put("arguments", args);
+            bindings.put(EXIT_STATUS, status);
+            context.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
 
-            compileReadFully.eval();
-            compileMainScript.eval();
-
-            status.setExitCode(0);
+            compileQuit.eval(context);
+            compileReadFully.eval(context);
+            compileMainScript.eval(context);
 
         } catch (Exception e) {
             throw new ScriptEngineRunnerException(e.getMessage(), e);
@@ -87,21 +112,52 @@ public class ScriptEngineRunner implements Runner {
         return status;
     }
 
-    private File getClasspathReadFullyFile() throws IOException {
-        File readFullyFile = File.createTempFile("readFullyNashorn", "js");
-        readFullyFile.deleteOnExit();
-        FileOutputStream out = null;
-        InputStream in = null;
+    private CompiledScript getQuitScript() throws ScriptException {
+        synchronized (compiledScripts) {
+            CompiledScript script = compiledScripts.get(QUIT_FUNCTION);
+            if (script == null) {
+                script = ((Compilable) scriptEngine).compile(QUIT_FUNCTION);
+                compiledScripts.put(QUIT_FUNCTION, script);
+            }
+            return script;
+        }
+    }
+
+    private CompiledScript getReadFullyScript() throws IOException, ScriptException {
+        synchronized (compiledScripts) {
+            CompiledScript script = compiledScripts.get(CLASSPATH_READFULLY_NASHORN_JS);
+            if (script == null) {
+                script = compile(getClass().getResourceAsStream(CLASSPATH_READFULLY_NASHORN_JS));
+                compiledScripts.put(CLASSPATH_READFULLY_NASHORN_JS, script);
+            }
+            return script;
+        }
+    }
+
+    private CompiledScript getMainScript(File mainScript) throws IOException, ScriptException {
+        String key = Digests.sha1(mainScript);
+        synchronized (compiledScripts) {
+            CompiledScript script = compiledScripts.get(key);
+            if (script == null) {
+                Trace.Span span = Trace.begin("compile r.js", mainScript.getPath());
+                try {
+                    script = compile(new FileInputStream(mainScript));
+                } finally {
+                    span.end();
+                }
+                compiledScripts.put(key, script);
+            }
+            return script;
+        }
+    }
+
+    private CompiledScript compile(InputStream in) throws ScriptException {
+        Reader reader = new InputStreamReader(in, Charset.forName("UTF-8"));
         try {
-            in = getClass().getResourceAsStream(CLASSPATH_READFULLY_NASHORN_JS);
-            out = new FileOutputStream(readFullyFile);
-            IOUtil.copy(in, out);
+            return ((Compilable) scriptEngine).compile(reader);
         } finally {
-            IOUtil.close(in);
-            IOUtil.close(out);
+            IOUtil.close(reader);
         }
-
-        return readFullyFile;
     }
 
 }
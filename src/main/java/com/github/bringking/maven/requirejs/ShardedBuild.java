@@ -0,0 +1,383 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Splits the modules of a build profile with a dir setting into shards which
+ * r.js can build at the same time. Every shard gets a generated profile with
+ * a subset of the modules and its own staging directory, because r.js clears
+ * and rewrites the whole dir of a build. When all shards are done, their
+ * output is merged into the dir of the original profile.
+ *
+ * The first shard builds the complete directory: it copies the appDir,
+ * optimizes the files which are not build layers and its CSS. The other
+ * shards only contribute their build layers. Modules which exclude one
+ * another stay in the same shard, r.js resolves such exclusions from the
+ * layers built in the same run.
+ */
+public class ShardedBuild {
+
+    static final String BUILD_TXT = "build.txt";
+
+    static final String SEPARATOR = "----------------";
+
+    /**
+     * Settings every shard profile sets itself, command line parameters must
+     * not override them.
+     */
+    private static final String[] SHARD_SETTINGS = { "dir", "keepBuildDir", "removeCombined", "skipDirOptimize",
+            "optimizeCss" };
+
+    private final BuildProfile profile;
+    private final File stagingDir;
+    private final List<List<Integer>> shards;
+
+    /**
+     * Create the shards of a build profile.
+     *
+     * @param stagingRoot directory holding the shard profiles and output of all profiles
+     * @param profile the build profile
+     * @param maxShards maximum number of shards
+     */
+    public ShardedBuild(File stagingRoot, BuildProfile profile, int maxShards) {
+        this.profile = profile;
+        this.stagingDir = new File(stagingRoot, Digests.sha1(profile.getFile().getAbsolutePath()));
+        this.shards = partition(profile.getModules(), maxShards);
+    }
+
+    /**
+     * Check whether the profile can be built in shards.
+     *
+     * @return <code>null</code> if it can, else the reason why it can not
+     */
+    public String getUnshardableReason() {
+        if (profile.getDir() == null || profile.getOut() != null) {
+            return "the profile has no dir setting";
+        }
+        if (profile.getAppDir() == null && profile.getString("baseUrl") == null) {
+            return "the profile has neither an appDir nor a baseUrl setting";
+        }
+        if (profile.getModules().contains(null)) {
+            return "the modules setting contains entries which are not objects";
+        }
+        if (shards.size() < 2) {
+            return "its modules can not be split";
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * @param shard the shard index
+     * @return the indexes of the modules built by a shard, in profile order
+     */
+    public List<Integer> getModuleIndexes(int shard) {
+        return shards.get(shard);
+    }
+
+    /**
+     * Write the profiles of all shards.
+     *
+     * @return the shard profiles
+     * @throws IOException if the profile can not be read or a shard profile not written
+     */
+    public List<File> writeProfiles() throws IOException {
+        String source = ProfileWrapper.read(profile.getFile());
+
+        FileUtils.deleteDirectory(stagingDir);
+        stagingDir.mkdirs();
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < shards.size(); i++) {
+            File file = new File(stagingDir, "shard-" + i + ".build.js");
+            FileUtils.fileWrite(file.getAbsolutePath(), "UTF-8", createProfile(i, source));
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Remove the settings a shard profile sets itself from the optimizer
+     * parameters.
+     *
+     * @param params optimizer command line parameters, may be null
+     * @return the parameters for the shards, null if params is null
+     */
+    public String[] getShardParameters(String[] params) {
+        if (params == null) {
+            return null;
+        }
+        List<String> result = new ArrayList<String>();
+        for (String param : params) {
+            if (!isShardSetting(param)) {
+                result.add(param);
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * Move the output of all shards to the dir of the profile: the complete
+     * output of the first shard, the build layers of the others. The
+     * build.txt files are combined and, if the profile asks for it, the files
+     * combined into any layer are removed.
+     *
+     * @throws IOException if the output can not be moved
+     */
+    public void merge() throws IOException {
+        File dir = profile.getDir();
+        if (!profile.isEnabled("keepBuildDir")) {
+            FileUtils.deleteDirectory(dir);
+        }
+        File first = getShardDir(0);
+        dir.getParentFile().mkdirs();
+        if (dir.exists() || !first.renameTo(dir)) {
+            FileUtils.copyDirectoryStructure(first, dir);
+        }
+
+        Set<String> layers = new LinkedHashSet<String>();
+        Set<String> combined = new LinkedHashSet<String>();
+        StringBuilder buildText = new StringBuilder(readBuildText(new File(dir, BUILD_TXT), layers, combined));
+        for (int i = 1; i < shards.size(); i++) {
+            File shardDir = getShardDir(i);
+            Set<String> shardLayers = new LinkedHashSet<String>();
+            buildText.append(readBuildText(new File(shardDir, BUILD_TXT), shardLayers, combined));
+            for (String layer : shardLayers) {
+                copyOutput(shardDir, dir, layer);
+                copyOutput(shardDir, dir, layer + ".map");
+            }
+            layers.addAll(shardLayers);
+        }
+        FileUtils.fileWrite(new File(dir, BUILD_TXT).getAbsolutePath(), "UTF-8", buildText.toString());
+
+        if (profile.isEnabled("removeCombined")) {
+            combined.removeAll(layers);
+            for (String path : combined) {
+                if (isInside(path)) {
+                    new File(dir, path).delete();
+                }
+            }
+            deleteEmptyDirs(dir);
+        }
+        FileUtils.deleteDirectory(stagingDir);
+    }
+
+    private String createProfile(int shard, String source) {
+        StringBuilder modules = new StringBuilder();
+        for (Integer index : shards.get(shard)) {
+            modules.append(modules.length() == 0 ? "" : ", ").append("modules[").append(index).append(']');
+        }
+
+        StringBuilder js = new StringBuilder();
+        js.append("    var modules = config.modules;\n");
+        js.append("    config.modules = [").append(modules).append("];\n");
+        js.append("    config.dir = ").append(ProfileWrapper.quote(ProfileWrapper.toUrl(getShardDir(shard))))
+                .append(";\n");
+        js.append("    config.keepBuildDir = false;\n");
+        js.append("    config.removeCombined = false;\n");
+        if (shard > 0) {
+            js.append("    config.skipDirOptimize = true;\n");
+            js.append("    config.optimizeCss = 'none';\n");
+        }
+        return ProfileWrapper.wrap(profile.getFile(), source, "shard " + (shard + 1) + " of " + shards.size(),
+                js.toString());
+    }
+
+    /**
+     * Distribute the modules across at most maxShards shards. Modules linked
+     * by exclude or excludeShallow form one group, groups are assigned to
+     * the shard with the fewest modules, largest group first.
+     */
+    private static List<List<Integer>> partition(List<Scriptable> modules, int maxShards) {
+        int[] group = new int[modules.size()];
+        for (int i = 0; i < group.length; i++) {
+            group[i] = i;
+        }
+        Map<String, Integer> indexByName = new HashMap<String, Integer>();
+        for (int i = 0; i < modules.size(); i++) {
+            String name = getString(modules.get(i), "name");
+            if (name != null) {
+                indexByName.put(name, i);
+            }
+        }
+        for (int i = 0; i < modules.size(); i++) {
+            List<String> excluded = getStrings(modules.get(i), "exclude");
+            excluded.addAll(getStrings(modules.get(i), "excludeShallow"));
+            for (String name : excluded) {
+                Integer other = indexByName.get(name);
+                if (other != null) {
+                    group[find(group, i)] = find(group, other);
+                }
+            }
+        }
+
+        Map<Integer, List<Integer>> groups = new HashMap<Integer, List<Integer>>();
+        List<List<Integer>> ordered = new ArrayList<List<Integer>>();
+        for (int i = 0; i < modules.size(); i++) {
+            int root = find(group, i);
+            List<Integer> members = groups.get(root);
+            if (members == null) {
+                members = new ArrayList<Integer>();
+                groups.put(root, members);
+                ordered.add(members);
+            }
+            members.add(i);
+        }
+
+        int shardCount = Math.max(1, Math.min(maxShards, ordered.size()));
+        List<List<Integer>> shards = new ArrayList<List<Integer>>();
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new ArrayList<Integer>());
+        }
+        while (!ordered.isEmpty()) {
+            List<Integer> largest = ordered.get(0);
+            for (List<Integer> members : ordered) {
+                if (members.size() > largest.size()) {
+                    largest = members;
+                }
+            }
+            ordered.remove(largest);
+            List<Integer> smallest = shards.get(0);
+            for (List<Integer> shard : shards) {
+                if (shard.size() < smallest.size()) {
+                    smallest = shard;
+                }
+            }
+            smallest.addAll(largest);
+        }
+        for (List<Integer> shard : shards) {
+            Collections.sort(shard);
+        }
+        return shards;
+    }
+
+    private static int find(int[] group, int i) {
+        while (group[i] != i) {
+            group[i] = group[group[i]];
+            i = group[i];
+        }
+        return i;
+    }
+
+    private static String getString(Scriptable module, String name) {
+        Object value = ScriptableObject.getProperty(module, name);
+        return value instanceof CharSequence ? value.toString() : null;
+    }
+
+    private static List<String> getStrings(Scriptable module, String name) {
+        List<String> result = new ArrayList<String>();
+        Object value = ScriptableObject.getProperty(module, name);
+        if (value instanceof NativeArray) {
+            NativeArray array = (NativeArray) value;
+            for (int i = 0; i < array.getLength(); i++) {
+                Object item = array.get(i, array);
+                if (item instanceof CharSequence) {
+                    result.add(item.toString());
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean isShardSetting(String param) {
+        for (String setting : SHARD_SETTINGS) {
+            if (param.startsWith(setting + "=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read a build.txt written by r.js: for every layer its path, a separator
+     * line and the paths of the files combined into it, all relative to dir.
+     *
+     * @return the content of the file, empty if it does not exist
+     */
+    static String readBuildText(File file, Set<String> layers, Set<String> combined) throws IOException {
+        if (!file.isFile()) {
+            return "";
+        }
+        String text = FileUtils.fileRead(file, "UTF-8");
+        for (Map.Entry<String, List<String>> layer : parseBuildText(text).entrySet()) {
+            layers.add(layer.getKey());
+            combined.addAll(layer.getValue());
+        }
+        return text;
+    }
+
+    /**
+     * @return the paths of the files combined into every layer of a build.txt, by the path of the layer
+     */
+    static Map<String, List<String>> parseBuildText(String text) {
+        Map<String, List<String>> layers = new LinkedHashMap<String, List<String>>();
+        String[] lines = text.split("\r?\n");
+        List<String> combined = null;
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.length() == 0) {
+                combined = null;
+            } else if (i + 1 < lines.length && SEPARATOR.equals(lines[i + 1].trim())) {
+                combined = new ArrayList<String>();
+                layers.put(line, combined);
+                i++;
+            } else if (combined != null) {
+                combined.add(line);
+            }
+        }
+        return layers;
+    }
+
+    private static void copyOutput(File fromDir, File toDir, String path) throws IOException {
+        File from = new File(fromDir, path);
+        if (isInside(path) && from.isFile()) {
+            FileUtils.copyFile(from, new File(toDir, path));
+        }
+    }
+
+    /**
+     * @return whether a path from build.txt lies inside the output directory
+     */
+    private static boolean isInside(String path) {
+        return !path.startsWith("..") && !path.startsWith("/") && !path.startsWith("\\") && path.indexOf(':') == -1;
+    }
+
+    private static void deleteEmptyDirs(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                deleteEmptyDirs(file);
+                String[] remaining = file.list();
+                if (remaining != null && remaining.length == 0) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private File getShardDir(int shard) {
+        return new File(stagingDir, "shard-" + shard);
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Limits on the size of build layers, configured as a
+ * <code>&lt;sizeBudget&gt;</code> of the plugin. Limits which are 0 are not
+ * checked.
+ */
+public class SizeBudget {
+
+    /**
+     * Pattern of the layers the budget applies to, relative to the project
+     * base directory, e.g. <tt>target/dir/js/main.js</tt> or <tt>**&#47;main.js</tt>.
+     */
+    private String layer = "**";
+
+    /**
+     * Maximum size in bytes.
+     */
+    private long maxSize;
+
+    /**
+     * Maximum gzip size in bytes.
+     */
+    private long maxGzipSize;
+
+    /**
+     * Maximum growth of the gzip size over the baseline in percent.
+     */
+    private double maxGrowth;
+
+    public SizeBudget() {
+    }
+
+    SizeBudget(String layer, long maxSize, long maxGzipSize, double maxGrowth) {
+        this.layer = layer;
+        this.maxSize = maxSize;
+        this.maxGzipSize = maxGzipSize;
+        this.maxGrowth = maxGrowth;
+    }
+
+    /**
+     * @param path the path of a layer relative to the project base directory, with / as separator
+     * @return whether the budget applies to the layer
+     */
+    boolean matches(String path) {
+        return SelectorUtils.matchPath(layer.replace('/', File.separatorChar).replace('\\', File.separatorChar),
+                path.replace('/', File.separatorChar), true);
+    }
+
+    /**
+     * Check a layer against the budget.
+     *
+     * @param path the path of the layer
+     * @param size the size of the layer
+     * @param gzipSize the gzip size of the layer
+     * @param baselineGzipSize the gzip size in the baseline, or -1 if the layer has none
+     * @return what is exceeded or <code>null</code> if the layer is within the budget
+     */
+    String check(String path, long size, long gzipSize, long baselineGzipSize) {
+        if (maxSize > 0 && size > maxSize) {
+            return path + " is " + size + " bytes, over the budget of " + maxSize;
+        }
+        if (maxGzipSize > 0 && gzipSize > maxGzipSize) {
+            return path + " is " + gzipSize + " bytes gzipped, over the budget of " + maxGzipSize;
+        }
+        if (maxGrowth > 0 && baselineGzipSize > 0
+                && (gzipSize - baselineGzipSize) * 100.0 / baselineGzipSize > maxGrowth) {
+            return path + " grew from " + baselineGzipSize + " to " + gzipSize + " bytes gzipped, more than "
+                    + maxGrowth + "% over the baseline";
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return layer + ":" + maxSize + ":" + maxGzipSize + ":" + maxGrowth;
+    }
+}
@@ -0,0 +1,308 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.json.JsonParser;
+
+/**
+ * Reports the size and gzip size of the layers a profile builds, with the
+ * source modules contributing most to every layer, and checks them against
+ * {@link SizeBudget}s. The modules of a layer come from the build.txt of a
+ * dir build. r.js writes none for an out file, so a profile building one is
+ * run with an onModuleBundleComplete hook writing it, see
+ * {@link #wrapProfile(File, File)}.
+ *
+ * Layers are named by their path relative to the project base directory.
+ * The sizes of a build can be stored as baseline, to limit the growth of
+ * later builds.
+ */
+public class SizeReport {
+
+    private final BuildProfile profile;
+    private final File baseDir;
+    private final int topModules;
+    private final List<Layer> layers = new ArrayList<Layer>();
+
+    /**
+     * @param profile the build profile
+     * @param baseDir the project base directory
+     * @param topModules the number of source modules listed per layer
+     */
+    public SizeReport(BuildProfile profile, File baseDir, int topModules) {
+        this.profile = profile;
+        this.baseDir = baseDir;
+        this.topModules = topModules;
+    }
+
+    /**
+     * Generate a build profile which lets r.js write the modules of its out
+     * file in the format of build.txt.
+     *
+     * @param buildProfile the build profile
+     * @param buildText the file to write
+     * @return the source of the generated profile
+     * @throws IOException if the profile can not be read
+     */
+    public static String wrapProfile(File buildProfile, File buildText) throws IOException {
+        String body = "    var onModuleBundleComplete = config.onModuleBundleComplete;\n"
+                + "    config.onModuleBundleComplete = function (data) {\n"
+                + "        file.saveUtf8File(" + ProfileWrapper.quote(buildText.getAbsolutePath())
+                + ", '\\n' + data.path + '\\n" + ShardedBuild.SEPARATOR + "\\n' + data.included.join('\\n') + '\\n');\n"
+                + "        if (onModuleBundleComplete) {\n"
+                + "            onModuleBundleComplete(data);\n"
+                + "        }\n"
+                + "    };\n";
+        return ProfileWrapper.wrap(buildProfile, ProfileWrapper.read(buildProfile), "size report", body);
+    }
+
+    /**
+     * Measure the layers of the profile.
+     *
+     * @param buildText the build.txt written for an out file, see {@link #wrapProfile(File, File)}
+     * @throws IOException if a layer can not be read
+     */
+    public void measure(File buildText) throws IOException {
+        layers.clear();
+        File out = profile.getOut();
+        File dir = profile.getDir();
+        File sourceDir = profile.getSourceDir();
+        if (out != null) {
+            if (!out.isFile()) {
+                return;
+            }
+            List<String> modules = new ArrayList<String>();
+            if (buildText.isFile()) {
+                for (List<String> combined : ShardedBuild.parseBuildText(FileUtils.fileRead(buildText, "UTF-8"))
+                        .values()) {
+                    modules.addAll(combined);
+                }
+            }
+            Layer layer = new Layer(out);
+            for (String module : modules) {
+                File file = new File(module);
+                file = file.isAbsolute() ? file : new File(sourceDir, module);
+                if (file.isFile()) {
+                    layer.addModule(Fingerprinter.relativize(sourceDir, file), file.length());
+                }
+            }
+            layers.add(layer);
+        } else if (dir != null) {
+            File file = new File(dir, ShardedBuild.BUILD_TXT);
+            if (!file.isFile()) {
+                return;
+            }
+            for (Map.Entry<String, List<String>> entry : ShardedBuild.parseBuildText(FileUtils.fileRead(file, "UTF-8"))
+                    .entrySet()) {
+                File layerFile = new File(dir, entry.getKey());
+                if (!layerFile.isFile()) {
+                    continue;
+                }
+                Layer layer = new Layer(layerFile);
+                for (String module : entry.getValue()) {
+                    // the copy in dir is already optimized or removed
+                    File source = new File(sourceDir, module);
+                    if (source.isFile()) {
+                        layer.addModule(module, source.length());
+                    }
+                }
+                layers.add(layer);
+            }
+        }
+    }
+
+    /**
+     * Check the layers against budgets.
+     *
+     * @param budgets the budgets
+     * @param baseline the sizes of the baseline by layer, see {@link #readBaseline(File)}
+     * @return the exceeded budgets
+     */
+    public List<String> checkBudgets(List<SizeBudget> budgets, Map<String, long[]> baseline) {
+        List<String> exceeded = new ArrayList<String>();
+        for (Layer layer : layers) {
+            long[] baselineSizes = baseline.get(layer.path);
+            for (SizeBudget budget : budgets) {
+                String message = budget.matches(layer.path) ? budget.check(layer.path, layer.size, layer.gzipSize,
+                        baselineSizes != null ? baselineSizes[1] : -1) : null;
+                if (message != null) {
+                    exceeded.add(message);
+                }
+            }
+        }
+        return exceeded;
+    }
+
+    /**
+     * @return the report as table
+     */
+    public String toTable() {
+        StringBuilder table = new StringBuilder(String.format("%-60s %10s %10s%n", "layer / module", "size",
+                "gzip"));
+        for (Layer layer : layers) {
+            table.append(String.format("%-60s %10d %10d%n", layer.path, layer.size, layer.gzipSize));
+            for (Module module : layer.getTopModules()) {
+                table.append(String.format("    %-56s %10d%n", module.name, module.size));
+            }
+        }
+        return table.toString();
+    }
+
+    /**
+     * Write the report as JSON and as table.
+     *
+     * @param jsonFile the JSON file
+     * @param tableFile the table file
+     * @throws IOException if a file can not be written
+     */
+    public void write(File jsonFile, File tableFile) throws IOException {
+        StringBuilder json = new StringBuilder("{\n  \"profile\": ").append(Trace.quote(profile.getFile().getPath()))
+                .append(",\n  \"layers\": [");
+        String separator = "\n";
+        for (Layer layer : layers) {
+            json.append(separator).append("    {\"layer\": ").append(Trace.quote(layer.path)).append(", \"size\": ")
+                    .append(layer.size).append(", \"gzipSize\": ").append(layer.gzipSize).append(", \"modules\": [");
+            String moduleSeparator = "\n";
+            for (Module module : layer.getTopModules()) {
+                json.append(moduleSeparator).append("      {\"module\": ").append(Trace.quote(module.name))
+                        .append(", \"size\": ").append(module.size).append('}');
+                moduleSeparator = ",\n";
+            }
+            json.append(layer.getTopModules().isEmpty() ? "]}" : "\n    ]}");
+            separator = ",\n";
+        }
+        json.append("\n  ]\n}\n");
+        jsonFile.getParentFile().mkdirs();
+        FileUtils.fileWrite(jsonFile.getPath(), "UTF-8", json.toString());
+        FileUtils.fileWrite(tableFile.getPath(), "UTF-8", toTable());
+    }
+
+    /**
+     * Read a baseline.
+     *
+     * @param file the baseline
+     * @return the size and gzip size by layer, empty if the file does not exist
+     * @throws IOException if the file can not be read or parsed
+     */
+    public static Map<String, long[]> readBaseline(File file) throws IOException {
+        Map<String, long[]> sizes = new TreeMap<String, long[]>();
+        if (!file.isFile()) {
+            return sizes;
+        }
+        Context cx = Context.enter();
+        try {
+            Object parsed = new JsonParser(cx, cx.initStandardObjects()).parseValue(FileUtils.fileRead(file,
+                    "UTF-8"));
+            if (!(parsed instanceof Scriptable)) {
+                throw new IOException(file + " is not a JSON object.");
+            }
+            Scriptable layers = (Scriptable) parsed;
+            for (Object layer : layers.getIds()) {
+                Object entry = ScriptableObject.getProperty(layers, layer.toString());
+                if (entry instanceof Scriptable) {
+                    sizes.put(layer.toString(), new long[] {
+                            toLong(ScriptableObject.getProperty((Scriptable) entry, "size")),
+                            toLong(ScriptableObject.getProperty((Scriptable) entry, "gzipSize")) });
+                }
+            }
+            return sizes;
+        } catch (JsonParser.ParseException e) {
+            throw new IOException("Unable to parse " + file + ": " + e.getMessage());
+        } finally {
+            Context.exit();
+        }
+    }
+
+    /**
+     * Store the sizes of the layers in a baseline, keeping the other layers
+     * in it. Profiles built concurrently update it one at a time.
+     *
+     * @param file the baseline
+     * @throws IOException if the file can not be read or written
+     */
+    public void updateBaseline(File file) throws IOException {
+        synchronized (SizeReport.class) {
+            Map<String, long[]> sizes = readBaseline(file);
+            for (Layer layer : layers) {
+                sizes.put(layer.path, new long[] { layer.size, layer.gzipSize });
+            }
+
+            StringBuilder json = new StringBuilder("{");
+            String separator = "\n";
+            for (Map.Entry<String, long[]> entry : sizes.entrySet()) {
+                json.append(separator).append("  ").append(Trace.quote(entry.getKey())).append(": {\"size\": ")
+                        .append(entry.getValue()[0]).append(", \"gzipSize\": ").append(entry.getValue()[1])
+                        .append('}');
+                separator = ",\n";
+            }
+            json.append("\n}\n");
+            if (file.getParentFile() != null) {
+                file.getParentFile().mkdirs();
+            }
+            FileUtils.fileWrite(file.getPath(), "UTF-8", json.toString());
+        }
+    }
+
+    /**
+     * @return the number of measured layers
+     */
+    public int getLayerCount() {
+        return layers.size();
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    /**
+     * A layer with its sizes and the sizes of its source modules.
+     */
+    private final class Layer {
+        private final String path;
+        private final long size;
+        private final long gzipSize;
+        private final List<Module> modules = new ArrayList<Module>();
+
+        Layer(File file) throws IOException {
+            this.path = Fingerprinter.relativize(baseDir, file);
+            long[] sizes = Fingerprinter.measure(file, null);
+            this.size = sizes[0];
+            this.gzipSize = sizes[1];
+        }
+
+        void addModule(String name, long size) {
+            modules.add(new Module(name, size));
+        }
+
+        List<Module> getTopModules() {
+            List<Module> sorted = new ArrayList<Module>(modules);
+            Collections.sort(sorted, new Comparator<Module>() {
+                @Override
+                public int compare(Module a, Module b) {
+                    return a.size != b.size ? (a.size > b.size ? -1 : 1) : a.name.compareTo(b.name);
+                }
+            });
+            return sorted.subList(0, Math.min(topModules, sorted.size()));
+        }
+    }
+
+    private static final class Module {
+        private final String name;
+        private final long size;
+
+        Module(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Timeline of an optimize run, written in the Chrome trace event format so it
+ * can be opened in chrome://tracing or https://ui.perfetto.dev.
+ *
+ * The trace of the running mojo is attached to the threads working for it,
+ * so the optimizer and the runners record spans without being handed the
+ * trace. Without an attached trace, spans are not recorded.
+ */
+final class Trace {
+
+    private static final ThreadLocal<Trace> current = new ThreadLocal<Trace>();
+
+    private final long startNanos = System.nanoTime();
+    private final List<Event> events = new ArrayList<Event>();
+    private final Map<Long, String> threadNames = new LinkedHashMap<Long, String>();
+
+    /**
+     * @return the trace attached to the current thread or <code>null</code>
+     */
+    static Trace current() {
+        return current.get();
+    }
+
+    /**
+     * Attach a trace to the current thread.
+     *
+     * @param trace the trace, <code>null</code> to detach
+     */
+    static void attach(Trace trace) {
+        if (trace == null) {
+            current.remove();
+        } else {
+            current.set(trace);
+        }
+    }
+
+    /**
+     * Start a span in the trace of the current thread.
+     *
+     * @param name the phase, e.g. "compile r.js"
+     * @param detail what the phase works on, e.g. the build profile, may be null
+     * @return the span, to be ended when the phase is done
+     */
+    static Span begin(String name, String detail) {
+        return new Span(current.get(), name, detail);
+    }
+
+    /**
+     * Write the trace as a JSON object with a traceEvents array.
+     *
+     * @param file the trace file
+     * @throws IOException if the file can not be written
+     */
+    void write(File file) throws IOException {
+        StringBuilder json = new StringBuilder("{\"traceEvents\":[\n");
+        synchronized (this) {
+            String separator = "";
+            for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+                json.append(separator).append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":")
+                        .append(thread.getKey()).append(",\"args\":{\"name\":").append(quote(thread.getValue()))
+                        .append("}}");
+                separator = ",\n";
+            }
+            for (Event event : events) {
+                json.append(separator).append("{\"name\":").append(quote(event.name))
+                        .append(",\"cat\":\"requirejs\",\"ph\":\"X\",\"pid\":1,\"tid\":").append(event.thread)
+                        .append(",\"ts\":").append(event.start).append(",\"dur\":").append(event.duration);
+                if (event.detail != null) {
+                    json.append(",\"args\":{\"detail\":").append(quote(event.detail)).append('}');
+                }
+                json.append('}');
+                separator = ",\n";
+            }
+        }
+        json.append("\n],\"displayTimeUnit\":\"ms\"}\n");
+
+        file.getParentFile().mkdirs();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(json.toString());
+        } finally {
+            IOUtil.close(out);
+        }
+    }
+
+    /**
+     * Summarize the spans by phase, in the order the phases first started.
+     *
+     * @return one line per phase: count, total and longest duration
+     */
+    synchronized List<String> summarize() {
+        Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+        for (Event event : events) {
+            long[] phase = phases.get(event.name);
+            if (phase == null) {
+                phase = new long[3];
+                phases.put(event.name, phase);
+            }
+            phase[0]++;
+            phase[1] += event.duration;
+            phase[2] = Math.max(phase[2], event.duration);
+        }
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+            long[] values = phase.getValue();
+            lines.add(phase.getKey() + ": " + values[0] + "x, " + millis(values[1]) + " total, " + millis(values[2])
+                    + " longest");
+        }
+        return lines;
+    }
+
+    private synchronized void add(Event event) {
+        events.add(event);
+        if (!threadNames.containsKey(event.thread)) {
+            threadNames.put(event.thread, Thread.currentThread().getName());
+        }
+    }
+
+    private static String millis(long micros) {
+        return (micros / 1000) + " ms";
+    }
+
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static final class Event {
+        final String name;
+        final String detail;
+        final long thread;
+        final long start;
+        final long duration;
+
+        Event(String name, String detail, long thread, long start, long duration) {
+            this.name = name;
+            this.detail = detail;
+            this.thread = thread;
+            this.start = start;
+            this.duration = duration;
+        }
+    }
+
+    /**
+     * A running phase, recorded in the trace when it ends.
+     */
+    static final class Span {
+
+        private final Trace trace;
+        private final String name;
+        private final String detail;
+        private final long startNanos = System.nanoTime();
+
+        private Span(Trace trace, String name, String detail) {
+            this.trace = trace;
+            this.name = name;
+            this.detail = detail;
+        }
+
+        /**
+         * End the span, it is recorded on the thread which ends it.
+         */
+        void end() {
+            if (trace != null) {
+                long start = (startNanos - trace.startNanos) / 1000;
+                long duration = (System.nanoTime() - startNanos) / 1000;
+                trace.add(new Event(name, detail, Thread.currentThread().getId(), start, duration));
+            }
+        }
+    }
+}
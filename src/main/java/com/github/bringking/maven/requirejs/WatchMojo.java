@@ -0,0 +1,254 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Mojo which optimizes like the optimize goal and then keeps watching the
+ * config files and the sources of every build profile, re-optimizing the
+ * profiles whose inputs changed. The runner stays warm between runs: Rhino
+ * and Nashorn keep the compiled optimizer, node runs as a persistent process.
+ * Stop it with Ctrl-C.
+ *
+ * @goal watch
+ * @requiresProject true
+ */
+public class WatchMojo extends OptimizeMojo {
+
+    /**
+     * Milliseconds between two checks for changed files.
+     *
+     * @parameter expression="${requirejs.watch.interval}" default-value=500
+     */
+    private long watchInterval = 500;
+
+    /**
+     * Milliseconds without further changes to wait for before optimizing, so
+     * a save touching several files triggers a single run.
+     *
+     * @parameter expression="${requirejs.watch.debounce}" default-value=300
+     */
+    private long watchDebounce = 300;
+
+    /**
+     * Optimize files and keep optimizing them when they change.
+     *
+     * @throws MojoExecutionException
+     *             if there is a problem setting up the optimizer.
+     */
+    @Override
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("Optimization is skipped.");
+            return;
+        }
+
+        // node is only warm as a persistent process
+        nodeDaemon = true;
+        Runner runner = getRunner();
+        List<File> buildProfiles = createBuildProfile();
+        // snapshot before optimizing, so files saved during a run trigger the next one
+        List<List<File>> sources = getSources(buildProfiles);
+        FileWatcher watcher = new FileWatcher(getWatchedFiles(sources), getOutputs(buildProfiles));
+        optimize(buildProfiles, buildProfiles, runner);
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                getLog().info("Watching for changes, press Ctrl-C to stop.");
+
+                Set<File> changed = waitForChanges(watcher);
+                long start = System.currentTimeMillis();
+                getLog().info("Changed: " + describe(changed));
+
+                List<File> changedProfiles = new ArrayList<File>();
+                if (hasConfigChange(changed)) {
+                    buildProfiles = createBuildProfile();
+                    changedProfiles.addAll(buildProfiles);
+                } else {
+                    for (int i = 0; i < buildProfiles.size(); i++) {
+                        for (File file : changed) {
+                            if (FileWatcher.isBelow(file, sources.get(i))) {
+                                changedProfiles.add(buildProfiles.get(i));
+                                break;
+                            }
+                        }
+                    }
+                }
+
+                optimize(buildProfiles, changedProfiles, runner);
+                trimMinificationCache();
+                getLog().info("Optimized " + changedProfiles.size() + " of " + buildProfiles.size()
+                        + " build profiles in " + (System.currentTimeMillis() - start) + " ms.");
+
+                // the sources may have changed with the run, e.g. a module added a dependency
+                sources = getSources(buildProfiles);
+                watcher.setRoots(getWatchedFiles(sources), getOutputs(buildProfiles));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Optimize some build profiles, logging failures instead of ending the
+     * watch.
+     */
+    private void optimize(List<File> buildProfiles, List<File> changedProfiles, Runner runner) {
+        for (File buildProfile : buildProfiles) {
+            if (!changedProfiles.contains(buildProfile)) {
+                continue;
+            }
+            try {
+                optimize(buildProfile, runner);
+            } catch (Exception e) {
+                getLog().error("Optimizing " + buildProfile + " failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Wait for a change and then until no more changes are seen for the
+     * debounce time.
+     */
+    private Set<File> waitForChanges(FileWatcher watcher) throws InterruptedException {
+        Set<File> changed = new HashSet<File>();
+        while (changed.isEmpty()) {
+            Thread.sleep(watchInterval);
+            changed.addAll(watcher.poll());
+        }
+        while (true) {
+            Thread.sleep(Math.max(watchDebounce, 1));
+            Set<File> more = watcher.poll();
+            if (more.isEmpty()) {
+                return changed;
+            }
+            changed.addAll(more);
+        }
+    }
+
+    /**
+     * @return the inputs of all build profiles: the config files and the folder of ${scanFolder}
+     */
+    private List<File> getConfigInputs() {
+        List<File> inputs = new ArrayList<File>(configFiles);
+        if (filterConfig && fillDepsFromFolder != null) {
+            inputs.add(fillDepsFromFolder);
+        }
+        return inputs;
+    }
+
+    private boolean hasConfigChange(Set<File> changed) {
+        List<File> inputs = getConfigInputs();
+        for (File file : changed) {
+            if (FileWatcher.isBelow(file, inputs)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return per build profile, the files and directories it reads
+     */
+    private List<List<File>> getSources(List<File> buildProfiles) {
+        List<BuildProfile> profiles = readBuildProfiles(buildProfiles);
+        List<List<File>> sources = new ArrayList<List<File>>();
+        for (int i = 0; i < buildProfiles.size(); i++) {
+            List<File> files = new ArrayList<File>();
+            BuildProfile profile = profiles.get(i);
+            Set<File> moduleSources = profile != null ? getModuleSources(profile) : null;
+            if (moduleSources != null) {
+                // an edit adding a dependency changes a watched module, the next graph includes it
+                files.addAll(moduleSources);
+                if (profile.getMainConfigFile() != null) {
+                    files.add(profile.getMainConfigFile());
+                }
+            } else if (profile != null) {
+                files.add(profile.getSourceDir());
+                if (profile.getMainConfigFile() != null) {
+                    files.add(profile.getMainConfigFile());
+                }
+            } else {
+                files.add(buildProfiles.get(i).getAbsoluteFile().getParentFile());
+            }
+            sources.add(files);
+        }
+        return sources;
+    }
+
+    private List<File> getWatchedFiles(List<List<File>> sources) {
+        List<File> watched = new ArrayList<File>(getConfigInputs());
+        for (List<File> files : sources) {
+            watched.addAll(files);
+        }
+        return watched;
+    }
+
+    private FileFilter getOutputs(List<File> buildProfiles) {
+        return getOutputFilter(readBuildProfiles(buildProfiles));
+    }
+
+    /**
+     * The output of the build profiles is not watched, it changes with every
+     * run. That is the dir, or the out file with the files the plugin writes
+     * next to it: its precompressed variant, its renamed copies and their
+     * manifest.
+     *
+     * @param profiles the build profiles, <code>null</code> for those which can not be read
+     * @return accepts the output files and directories
+     */
+    static FileFilter getOutputFilter(List<BuildProfile> profiles) {
+        final Set<File> dirs = new HashSet<File>();
+        final Map<File, List<Pattern>> outs = new HashMap<File, List<Pattern>>();
+        for (BuildProfile profile : profiles) {
+            if (profile != null && profile.getDir() != null) {
+                dirs.add(profile.getDir().getAbsoluteFile());
+            } else if (profile != null && profile.getOut() != null) {
+                File outDir = profile.getOut().getAbsoluteFile().getParentFile();
+                if (!outs.containsKey(outDir)) {
+                    outs.put(outDir, new ArrayList<Pattern>());
+                }
+                outs.get(outDir).add(BuildManifest.getOutputPattern(profile.getOut().getName()));
+            }
+        }
+        return new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                if (dirs.contains(file)) {
+                    return true;
+                }
+                List<Pattern> patterns = outs.get(file.getParentFile());
+                if (patterns != null) {
+                    for (Pattern pattern : patterns) {
+                        if (pattern.matcher(file.getName()).matches()) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    private static String describe(Set<File> changed) {
+        StringBuilder description = new StringBuilder();
+        int shown = 0;
+        for (File file : changed) {
+            if (shown++ == 3) {
+                description.append(" and ").append(changed.size() - 3).append(" more");
+                break;
+            }
+            description.append(shown == 1 ? "" : ", ").append(file.getName());
+        }
+        return description.toString();
+    }
+}
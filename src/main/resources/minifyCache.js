@@ -0,0 +1,108 @@
+/*
+ * Per-file minification cache for the requirejs-maven-plugin.
+ *
+ * Generated build profiles evaluate this function inside the build module of
+ * r.js, where optimize is in scope. It replaces optimize.js, which applies
+ * the save pragmas to the content of one file and minifies it, with a version
+ * which first looks for the result in a cache directory. Entries are keyed by
+ * the SHA-1 of the content, the optimizer script and every setting which
+ * changes the result, so they can be shared by all profiles, builds and
+ * branches. A hit updates the modification time of the entry, the plugin
+ * evicts the least recently used entries.
+ *
+ * The replacement is installed once per r.js instance and only caches for
+ * configs with a _minifyCache setting { dir: ..., optimizer: ... }. Source
+ * maps and plugin resource collection bypass the cache.
+ */
+(function () {
+    'use strict';
+
+    if (typeof optimize === 'undefined' || !optimize.js || optimize.js.minifyCache) {
+        return;
+    }
+
+    var minify = optimize.js,
+        isNode = typeof process !== 'undefined' && process.versions && !!process.versions.node,
+        fs = isNode ? requirejs.nodeRequire('fs') : null,
+        crypto = isNode ? requirejs.nodeRequire('crypto') : null,
+        tempId = 0;
+
+    function sha1(text) {
+        var bytes, hex, i;
+        if (isNode) {
+            return crypto.createHash('sha1').update(text, 'utf8').digest('hex');
+        }
+        bytes = java.security.MessageDigest.getInstance('SHA-1')
+            .digest(new java.lang.String(text).getBytes('UTF-8'));
+        hex = '';
+        for (i = 0; i < bytes.length; i += 1) {
+            hex += ((bytes[i] & 0xff) + 0x100).toString(16).substring(1);
+        }
+        return hex;
+    }
+
+    function stringify(value) {
+        return JSON.stringify(value, function (key, item) {
+            return typeof item === 'function' || item instanceof RegExp ? String(item) : item;
+        });
+    }
+
+    function read(path) {
+        try {
+            if (file.exists(path)) {
+                if (isNode) {
+                    fs.utimesSync(path, new Date(), new Date());
+                } else {
+                    new java.io.File(path).setLastModified(new Date().getTime());
+                }
+                return String(file.readFile(path));
+            }
+        } catch (e) {
+            // evicted meanwhile
+        }
+        return null;
+    }
+
+    function write(path, contents) {
+        // written under a temporary name, concurrent builds never read a partial entry
+        var temp = path + '.' + new Date().getTime() + '-' + (tempId += 1) + '.tmp';
+        try {
+            file.saveUtf8File(temp, contents);
+            if (isNode) {
+                fs.renameSync(temp, path);
+            } else if (!new java.io.File(temp).renameTo(new java.io.File(path))) {
+                new java.io.File(temp)['delete']();
+            }
+        } catch (e) {
+            // the cache only saves time, the build goes on without it
+        }
+    }
+
+    optimize.js = function (fileName, fileContents, outFileName, config, pluginCollector) {
+        var settings = config && config._minifyCache,
+            optimizerName = String(config && config.optimize).split('.')[0],
+            key, path, result;
+
+        if (!settings || !optimizerName || optimizerName === 'none' || config.generateSourceMaps ||
+                config.optimizeAllPluginResources) {
+            return minify.apply(this, arguments);
+        }
+
+        fileContents = String(fileContents);
+        key = sha1(stringify([settings.optimizer, config.optimize, config[optimizerName] || null,
+                !!config.preserveLicenseComments, config.pragmasOnSave || null, config.hasOnSave || null,
+                config.namespace || null]) + '\n' + fileContents);
+        path = settings.dir + '/' + key.substring(0, 2) + '/' + key + '.js';
+
+        result = read(path);
+        if (result === null) {
+            result = minify.call(this, fileName, fileContents, outFileName, config, pluginCollector);
+            // a file which failed to minify is logged by r.js and kept as it is, do not cache that
+            if (String(result).length < fileContents.length) {
+                write(path, String(result));
+            }
+        }
+        return result;
+    };
+    optimize.js.minifyCache = true;
+}());
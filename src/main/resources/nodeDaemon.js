@@ -0,0 +1,127 @@
+/*
+ * Long running optimizer process for the requirejs-maven-plugin.
+ *
+ * Usage: node nodeDaemon.js path/to/r.js idleTimeoutMillis
+ *
+ * r.js is loaded once, then optimize jobs are read from stdin, one per line:
+ *
+ *   OPTIMIZE <id> <arg> <arg> ...    run r.js with the given command line
+ *   EXIT                             stop the process
+ *
+ * Every message written to stdout is one line:
+ *
+ *   READY                            r.js is loaded, jobs are accepted
+ *   LOG <id> <line>                  a line of output of the running job
+ *   DONE <id> <exitCode>             the job finished
+ *
+ * All fields are URI encoded, so they never contain spaces or line breaks.
+ * Jobs are run one at a time.
+ */
+var requirejs = require(process.argv[2]),
+    idleTimeout = parseInt(process.argv[3], 10) || 0,
+    write = process.stdout.write.bind(process.stdout),
+    currentJob = null,
+    pending = '',
+    idleTimer = null;
+
+function send(fields) {
+    write(fields.map(function (field) {
+        return encodeURIComponent(String(field));
+    }).join(' ') + '\n');
+}
+
+function decode(field) {
+    return decodeURIComponent(field.replace(/\+/g, ' '));
+}
+
+function log() {
+    var text = Array.prototype.slice.call(arguments).map(String).join(' ');
+    text.split(/\r?\n/).forEach(function (line) {
+        send(['LOG', currentJob, line]);
+    });
+}
+
+function resetIdleTimer() {
+    if (idleTimer) {
+        clearTimeout(idleTimer);
+    }
+    if (idleTimeout > 0) {
+        idleTimer = setTimeout(function () {
+            process.exit(0);
+        }, idleTimeout);
+    }
+}
+
+function finish(exitCode) {
+    var id = currentJob;
+    // The build logger is shared by all jobs, do not let the log level of
+    // one build profile leak into the next one.
+    requirejs({ context: 'build' }, ['logger'], function (logger) {
+        logger.logLevel(logger.TRACE);
+        currentJob = null;
+        send(['DONE', id, exitCode]);
+        resetIdleTimer();
+    });
+}
+
+function optimize(id, args) {
+    currentJob = id;
+    if (idleTimer) {
+        clearTimeout(idleTimer);
+    }
+    // drop the -o command option, the remaining arguments are the same as on the command line
+    if (args[0] === '-o') {
+        args = args.slice(1);
+    }
+    try {
+        requirejs.optimize(args, function () {
+            finish(0);
+        }, function (err) {
+            log(err);
+            finish(1);
+        });
+    } catch (e) {
+        log(e);
+        finish(1);
+    }
+}
+
+function handle(line) {
+    var fields = line.split(' ').filter(function (field) {
+        return field.length > 0;
+    }).map(decode);
+
+    if (fields[0] === 'OPTIMIZE') {
+        optimize(fields[1], fields.slice(2));
+    } else if (fields[0] === 'EXIT') {
+        process.exit(0);
+    }
+}
+
+console.log = console.info = console.warn = console.error = log;
+
+process.on('uncaughtException', function (e) {
+    if (currentJob !== null) {
+        log(e && e.stack ? e.stack : e);
+        finish(1);
+    } else {
+        process.stderr.write(String(e && e.stack ? e.stack : e) + '\n');
+        process.exit(1);
+    }
+});
+
+process.stdin.setEncoding('utf8');
+process.stdin.on('data', function (chunk) {
+    var index;
+    pending += chunk;
+    while ((index = pending.indexOf('\n')) !== -1) {
+        handle(pending.substring(0, index));
+        pending = pending.substring(index + 1);
+    }
+});
+process.stdin.on('end', function () {
+    process.exit(0);
+});
+
+send(['READY']);
+resetIdleTimer();
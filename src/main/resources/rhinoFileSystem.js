@@ -0,0 +1,101 @@
+/*
+ * File primitives for r.js running in Rhino, for the requirejs-maven-plugin.
+ *
+ * Generated build profiles evaluate this function inside the build module of
+ * r.js, where file is in scope. When the runner provides the Java file system
+ * of the plugin as requirejsFileSystem, the functions of the file module which
+ * stat, list, read, write, copy and delete files are replaced with ones
+ * calling it, so stat results and directory listings are remembered for the
+ * run and file contents are shared by all runs of the JVM (see
+ * RhinoFileSystem.java). The replacement is installed once per r.js instance
+ * and keeps the semantics of the original functions, including the line
+ * separator normalization of readFile.
+ */
+(function () {
+    'use strict';
+
+    if (typeof requirejsFileSystem === 'undefined' || typeof file === 'undefined' || file.requirejsFileSystem) {
+        return;
+    }
+
+    var files = requirejsFileSystem;
+
+    function name(path) {
+        return path.replace(/^.*[\\\/]/, '');
+    }
+
+    file.exists = function (fileName) {
+        return files.exists(String(fileName));
+    };
+
+    file.isFile = function (path) {
+        return files.isFile(String(path));
+    };
+
+    file.isDirectory = function (path) {
+        return files.isDirectory(String(path));
+    };
+
+    file.getFilteredFileList = function (startDir, regExpFilters, makeUnixPaths) {
+        var result = [],
+            regExpInclude = regExpFilters.include || regExpFilters,
+            regExpExclude = regExpFilters.exclude || null,
+            children, i, filePath, ok;
+
+        startDir = String(startDir);
+        if (!files.exists(startDir)) {
+            return result;
+        }
+        children = files.list(startDir);
+        for (i = 0; i < children.length; i += 1) {
+            filePath = String(children[i]);
+            if (files.isFile(filePath)) {
+                if (makeUnixPaths && filePath.indexOf('/') === -1) {
+                    filePath = filePath.replace(/\\/g, '/');
+                }
+
+                ok = true;
+                if (regExpInclude) {
+                    ok = filePath.match(regExpInclude);
+                }
+                if (ok && regExpExclude) {
+                    ok = !filePath.match(regExpExclude);
+                }
+
+                if (ok && (!file.exclusionRegExp || !file.exclusionRegExp.test(name(String(children[i]))))) {
+                    result.push(filePath);
+                }
+            } else if (files.isDirectory(filePath) &&
+                    (!file.exclusionRegExp || !file.exclusionRegExp.test(name(filePath)))) {
+                result.push.apply(result, file.getFilteredFileList(filePath, regExpFilters, makeUnixPaths));
+            }
+        }
+        return result;
+    };
+
+    file.copyFile = function (srcFileName, destFileName, onlyCopyNew) {
+        return files.copy(String(srcFileName), String(destFileName), !!onlyCopyNew);
+    };
+
+    file.renameFile = function (from, to) {
+        return files.rename(String(from), String(to));
+    };
+
+    file.readFile = function (path, encoding) {
+        return String(files.read(String(path), String(encoding || 'utf-8')));
+    };
+
+    file.saveFile = function (fileName, fileContents, encoding) {
+        files.write(String(fileName), String(fileContents), encoding ? String(encoding) : '');
+    };
+
+    file.deleteFile = function (fileName) {
+        files['delete'](String(fileName));
+    };
+
+    file.deleteEmptyDirs = function (startDir) {
+        files.deleteEmptyDirectories(String(startDir));
+    };
+
+    file.requirejsFileSystem = true;
+}());
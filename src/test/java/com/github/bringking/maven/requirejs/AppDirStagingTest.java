@@ -0,0 +1,109 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static com.github.bringking.maven.requirejs.TestFiles.write;
+import static com.github.bringking.maven.requirejs.TestFiles.writeProfile;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AppDirStagingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+
+    @Before
+    public void createAppDir() throws IOException {
+        root = folder.getRoot();
+        write(root, "app/index.html", "<html></html>");
+        write(root, "app/js/main.js", "require(['lib'], function () {});");
+        write(root, "app/js/lib.js", "define({});");
+        write(root, "app/css/main.css", "body {}");
+        write(root, "app/img/logo.png", "png");
+        write(root, "app/.git/config", "git");
+        write(root, "app/js/docs/readme.txt", "docs");
+    }
+
+    @Test
+    public void testStagesAndSkipsUnchangedFiles() throws Exception {
+        File profile = writeProfile(root, "({ appDir: 'app', dir: 'out', modules: [{ name: 'js/main' }] })");
+        AppDirStaging staging = new AppDirStaging(BuildProfile.read(profile, null), AppDirStaging.Mode.COPY, 2);
+        assertNull(staging.getUnstageableReason());
+        staging.stage();
+        assertEquals("0 linked, 6 copied, 0 unchanged, 0 removed", staging.getSummary());
+        assertEquals("define({});", FileUtils.fileRead(new File(root, "out/js/lib.js")));
+        assertEquals(new File(root, "app/js/lib.js").lastModified(), new File(root, "out/js/lib.js").lastModified());
+        assertFalse("excluded by default", new File(root, "out/.git").exists());
+
+        // as r.js leaves the dir: an optimized file and build.txt, and precompressed variants
+        write(root, "out/js/lib.js", "define({})");
+        write(root, "out/build.txt", "js/main.js");
+        write(root, "out/js/lib.js.gz", "gz");
+        write(root, "out/js/main.js.gz", "gz");
+        new File(root, "app/js/docs/readme.txt").delete();
+
+        staging = new AppDirStaging(BuildProfile.read(profile, null), AppDirStaging.Mode.COPY, 2);
+        staging.stage();
+        assertEquals("0 linked, 1 copied, 4 unchanged, 2 removed", staging.getSummary());
+        assertEquals("define({});", FileUtils.fileRead(new File(root, "out/js/lib.js")));
+        assertFalse(new File(root, "out/build.txt").exists());
+        assertFalse("restaged", new File(root, "out/js/lib.js.gz").exists());
+        assertTrue("unchanged", new File(root, "out/js/main.js.gz").exists());
+        assertFalse(new File(root, "out/js/docs").exists());
+    }
+
+    @Test
+    public void testLinksFilesNotRewrittenByRjs() throws Exception {
+        File profile = writeProfile(root, "({ appDir: 'app', dir: 'out', fileExclusionRegExp: /^(\\.|docs$)/i })");
+        AppDirStaging staging = new AppDirStaging(BuildProfile.read(profile, null), AppDirStaging.Mode.LINK, 1);
+        staging.stage();
+        assertEquals("2 linked, 3 copied, 0 unchanged, 0 removed", staging.getSummary());
+        assertFalse(new File(root, "out/js/docs").exists());
+
+        // a linked file shares the content of the source
+        FileUtils.fileWrite(new File(root, "app/img/logo.png").getPath(), "UTF-8", "gif");
+        assertEquals("gif", FileUtils.fileRead(new File(root, "out/img/logo.png")));
+
+        // JavaScript and CSS are copies, r.js rewrites them in the dir
+        write(root, "out/js/lib.js", "define()");
+        write(root, "out/css/main.css", "body{}");
+        assertEquals("define({});", FileUtils.fileRead(new File(root, "app/js/lib.js")));
+        assertEquals("body {}", FileUtils.fileRead(new File(root, "app/css/main.css")));
+    }
+
+    @Test
+    public void testKeepBuildDirKeepsOtherFiles() throws Exception {
+        write(root, "out/extra.txt", "extra");
+        File profile = writeProfile(root, "({ appDir: 'app', dir: 'out', keepBuildDir: true })");
+        new AppDirStaging(BuildProfile.read(profile, new String[] { "fileExclusionRegExp=^(\\.|img$)" }),
+                AppDirStaging.Mode.COPY, 2).stage();
+        assertTrue(new File(root, "out/extra.txt").exists());
+        assertFalse(new File(root, "out/img").exists());
+    }
+
+    @Test
+    public void testUnstageableProfiles() throws Exception {
+        assertNotNull(reason("({ baseUrl: 'app', dir: 'out' })"));
+        assertNotNull(reason("({ appDir: 'app', baseUrl: 'js', name: 'main', out: 'main.js' })"));
+        assertNotNull(reason("({ appDir: 'app', dir: 'app/out' })"));
+        assertNotNull(reason("({ appDir: 'missing', dir: 'out' })"));
+        assertNotNull(reason("({ appDir: 'app', dir: 'out', fileExclusionRegExp: '(?<!a)b' + '(' })"));
+    }
+
+    private String reason(String source) throws IOException {
+        return new AppDirStaging(BuildProfile.read(writeProfile(root, source), null), AppDirStaging.Mode.LINK, 1)
+                .getUnstageableReason();
+    }
+}
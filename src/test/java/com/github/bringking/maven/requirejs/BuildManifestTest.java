@@ -0,0 +1,113 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BuildManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File profileFile;
+    private File manifestDir;
+    private File source;
+    private File output;
+
+    @Before
+    public void setUp() throws Exception {
+        File appDir = folder.newFolder("app");
+        source = new File(appDir, "js/main.js");
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite(source.getAbsolutePath(), "define({});");
+
+        profileFile = new File(appDir, "build.js");
+        FileUtils.fileWrite(profileFile.getAbsolutePath(),
+                "({ appDir: './', baseUrl: 'js', dir: '../out', modules: [{ name: 'main' }] })");
+
+        output = new File(folder.getRoot(), "out/js/main.js");
+        manifestDir = new File(folder.getRoot(), "manifest");
+    }
+
+    @Test
+    public void testProfilePaths() throws Exception {
+        BuildProfile profile = BuildProfile.read(profileFile, new String[] { "optimize=none" });
+        assertEquals(profileFile.getParentFile().getCanonicalFile(), profile.getAppDir());
+        assertEquals(source.getParentFile().getCanonicalFile(), profile.getBaseUrl());
+        assertEquals(new File(folder.getRoot(), "out").getCanonicalFile(), profile.getDir());
+        assertEquals(profile.getAppDir(), profile.getSourceDir());
+    }
+
+    @Test
+    public void testUpToDate() throws Exception {
+        assertNotNull(newManifest("a").getStaleReason());
+
+        buildOutput();
+        newManifest("a").save();
+        assertNull(newManifest("a").getStaleReason());
+    }
+
+    @Test
+    public void testSettingChanged() throws Exception {
+        buildOutput();
+        newManifest("a").save();
+        assertNotNull(newManifest("b").getStaleReason());
+    }
+
+    @Test
+    public void testSourceChanged() throws Exception {
+        buildOutput();
+        newManifest("a").save();
+        FileUtils.fileWrite(source.getAbsolutePath(), "define({ changed: true });");
+        assertNotNull(newManifest("a").getStaleReason());
+    }
+
+    @Test
+    public void testOutputRemoved() throws Exception {
+        buildOutput();
+        newManifest("a").save();
+        output.delete();
+        assertNotNull(newManifest("a").getStaleReason());
+    }
+
+    @Test
+    public void testOutFileInSourceTreeIsNotAnInput() throws Exception {
+        File appDir = new File(folder.getRoot(), "app");
+        profileFile = new File(appDir, "build-out.js");
+        FileUtils.fileWrite(profileFile.getAbsolutePath(), "({ baseUrl: 'js', name: 'main', out: 'js/main-built.js' })");
+        output = new File(appDir, "js/main-built.js");
+        buildOutput();
+        newManifest("a").save();
+
+        // what precompress and fingerprint write next to the out file
+        FileUtils.fileWrite(new File(appDir, "js/main-built.js.gz").getAbsolutePath(), "gz");
+        FileUtils.fileWrite(new File(appDir, "js/main-built.0123456789.js").getAbsolutePath(), "define({});");
+        FileUtils.fileWrite(new File(appDir, "js/main-built.manifest.json").getAbsolutePath(), "{}");
+        assertNull(newManifest("a").getStaleReason());
+
+        FileUtils.fileWrite(new File(appDir, "js/main-built-extra.js").getAbsolutePath(), "define({});");
+        assertNotNull(newManifest("a").getStaleReason());
+    }
+
+    private BuildManifest newManifest(String setting) throws IOException {
+        BuildManifest manifest = new BuildManifest(manifestDir, BuildProfile.read(profileFile, null));
+        manifest.addFile("profile", profileFile);
+        manifest.addSetting("setting", setting);
+        manifest.addSources();
+        return manifest;
+    }
+
+    private void buildOutput() throws IOException {
+        output.getParentFile().mkdirs();
+        FileUtils.fileWrite(output.getAbsolutePath(), "define({});");
+    }
+}
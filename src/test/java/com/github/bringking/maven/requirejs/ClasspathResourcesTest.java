@@ -0,0 +1,40 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClasspathResourcesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testExtractOnce() throws Exception {
+        File first = ClasspathResources.extract(Optimizer.CLASSPATH_R_JS, folder.getRoot());
+        long modified = first.lastModified();
+        File second = ClasspathResources.extract(Optimizer.CLASSPATH_R_JS, folder.getRoot());
+
+        assertEquals(first, second);
+        assertEquals(modified, second.lastModified());
+        assertTrue(first.getName().matches("r-[0-9a-f]{40}\\.js"));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testExtractReplacesDamagedFile() throws Exception {
+        File file = ClasspathResources.extract(Optimizer.CLASSPATH_R_JS, folder.getRoot());
+        long length = file.length();
+        FileUtils.fileWrite(file.getAbsolutePath(), "truncated");
+
+        File extracted = ClasspathResources.extract(Optimizer.CLASSPATH_R_JS, folder.getRoot());
+        assertEquals(file, extracted);
+        assertEquals(length, extracted.length());
+    }
+}
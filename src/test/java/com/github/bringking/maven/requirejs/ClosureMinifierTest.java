@@ -0,0 +1,103 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static com.github.bringking.maven.requirejs.TestFiles.write;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClosureMinifierTest {
+
+    private static final String SOURCE = "define(function () {\n    // greeting\n    var message = 'hello';\n"
+            + "    return { message: message };\n});\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMinifiesFilesInParallel() throws Exception {
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < 8; i++) {
+            files.add(write(folder.getRoot(), "module" + i + ".js", SOURCE));
+        }
+
+        new ClosureMinifier(ClosureMinifier.Mode.SIMPLE, null, 4, null).minify(files, reporter());
+
+        for (File file : files) {
+            String minified = FileUtils.fileRead(file, "UTF-8");
+            assertTrue(minified, minified.length() < SOURCE.length());
+            assertTrue(minified, minified.contains("define(function(){return{message:\"hello\"}})"));
+        }
+    }
+
+    @Test
+    public void testWhitespaceKeepsNames() throws Exception {
+        File file = write(folder.getRoot(), "module.js", SOURCE);
+
+        new ClosureMinifier(ClosureMinifier.Mode.parse("whitespace_only"), null, 1, null).minify(
+                Arrays.asList(file), reporter());
+
+        String minified = FileUtils.fileRead(file, "UTF-8");
+        assertTrue(minified, minified.contains("var message=\"hello\""));
+        assertTrue(minified, !minified.contains("greeting"));
+    }
+
+    @Test
+    public void testErrorsFailAndKeepFile() throws Exception {
+        File good = write(folder.getRoot(), "good.js", SOURCE);
+        File bad = write(folder.getRoot(), "bad.js", "var a = ;");
+
+        try {
+            new ClosureMinifier(ClosureMinifier.Mode.SIMPLE, null, 2, null).minify(Arrays.asList(good, bad),
+                    reporter());
+            fail();
+        } catch (OptimizationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("1 of 2"));
+        }
+        assertEquals("var a = ;", FileUtils.fileRead(bad, "UTF-8"));
+        assertTrue(FileUtils.fileRead(good, "UTF-8").length() < SOURCE.length());
+    }
+
+    @Test
+    public void testReusesCachedResult() throws Exception {
+        MinificationCache cache = new MinificationCache(folder.newFolder("cache"), 1024 * 1024);
+        File file = write(folder.getRoot(), "module.js", SOURCE);
+        new ClosureMinifier(ClosureMinifier.Mode.SIMPLE, null, 1, cache).minify(Arrays.asList(file), reporter());
+        String minified = FileUtils.fileRead(file, "UTF-8");
+
+        // the same content with the same settings is taken from the cache
+        for (File dir : cache.getDirectory().listFiles()) {
+            for (File entry : dir.listFiles()) {
+                FileUtils.fileWrite(entry.getAbsolutePath(), "UTF-8", minified + "/*cached*/");
+            }
+        }
+        write(folder.getRoot(), "module.js", SOURCE);
+        new ClosureMinifier(ClosureMinifier.Mode.SIMPLE, null, 1, cache).minify(Arrays.asList(file), reporter());
+        assertTrue(FileUtils.fileRead(file, "UTF-8").endsWith("/*cached*/"));
+
+        // another mode is a different entry
+        write(folder.getRoot(), "module.js", SOURCE);
+        new ClosureMinifier(ClosureMinifier.Mode.WHITESPACE, null, 1, cache).minify(Arrays.asList(file),
+                reporter());
+        assertTrue(!FileUtils.fileRead(file, "UTF-8").contains("/*cached*/"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownMode() {
+        ClosureMinifier.Mode.parse("ADVANCED");
+    }
+
+    private MojoErrorReporter reporter() {
+        return new MojoErrorReporter(new SystemStreamLog(), true);
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Properties;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DependencyScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws Exception {
+        root = folder.newFolder("js");
+        indexFile = new File(folder.getRoot(), "index/scan-index.properties");
+        touch("main.js");
+        touch("app/view.js");
+        touch("app/model.js");
+        touch("app/view.spec.js");
+        touch("app/styles.css");
+        touch("vendor/jquery.js");
+        new File(root, "empty").mkdirs();
+    }
+
+    @Test
+    public void testSortedDefaultIncludes() throws Exception {
+        assertEquals("\"app/model\",\"app/view\",\"app/view.spec\",\"main\",\"vendor/jquery\"",
+                new DependencyScanner(root, null, null, indexFile, 4).scan());
+    }
+
+    @Test
+    public void testIncludesAndExcludes() throws Exception {
+        DependencyScanner scanner = new DependencyScanner(root, new String[] { "app/**/*.js", "main.js" },
+                new String[] { "**/*.spec.js", "vendor/" }, null, 2);
+        assertEquals("\"app/model\",\"app/view\",\"main\"", scanner.scan());
+    }
+
+    @Test
+    public void testIndexReusedForUnchangedDirectories() throws Exception {
+        new DependencyScanner(root, null, null, indexFile, 4).scan();
+        assertTrue(indexFile.isFile());
+
+        // pretend the last scan was long after the directories were modified
+        Properties index = new Properties();
+        index.load(new FileInputStream(indexFile));
+        index.setProperty("scanTime", String.valueOf(System.currentTimeMillis() + 60000));
+        // an unchanged directory is not listed again, so a stale entry shows up
+        String app = index.getProperty("dir:app/");
+        index.setProperty("dir:app/", app.replace("model.js", "cached.js"));
+        FileOutputStream out = new FileOutputStream(indexFile);
+        index.store(out, null);
+        out.close();
+
+        assertEquals("\"app/cached\",\"app/view\",\"app/view.spec\",\"main\",\"vendor/jquery\"",
+                new DependencyScanner(root, null, null, indexFile, 4).scan());
+
+        // a modified directory is listed again
+        touch("app/added.js");
+        new File(root, "app").setLastModified(Long.parseLong(app.substring(0, app.indexOf('|'))) + 1000);
+        assertEquals("\"app/added\",\"app/model\",\"app/view\",\"app/view.spec\",\"main\",\"vendor/jquery\"",
+                new DependencyScanner(root, null, null, indexFile, 4).scan());
+    }
+
+    private void touch(String path) throws Exception {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file.getAbsolutePath(), "define({});");
+    }
+}
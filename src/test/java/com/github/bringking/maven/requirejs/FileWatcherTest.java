@@ -0,0 +1,113 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static com.github.bringking.maven.requirejs.TestFiles.write;
+import static com.github.bringking.maven.requirejs.TestFiles.writeProfile;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileWatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File app;
+    private File main;
+    private File out;
+
+    @Before
+    public void setUp() throws Exception {
+        app = folder.newFolder("app");
+        main = write(folder.getRoot(), "app/js/main.js", "define({});");
+        out = new File(app, "out");
+        write(folder.getRoot(), "app/out/main.js", "define({});");
+    }
+
+    @Test
+    public void testDetectsChanges() throws Exception {
+        FileWatcher watcher = new FileWatcher(Collections.singletonList(app), excluding(out));
+        assertTrue(watcher.poll().isEmpty());
+
+        write(folder.getRoot(), "app/js/main.js", "define({ changed: true });");
+        File added = write(folder.getRoot(), "app/js/added.js", "define({});");
+        assertEquals(new TreeSet<File>(Arrays.asList(added.getAbsoluteFile(), main.getAbsoluteFile())),
+                watcher.poll());
+
+        assertTrue(added.delete());
+        Set<File> changed = watcher.poll();
+        assertEquals(Collections.singleton(added.getAbsoluteFile()), changed);
+    }
+
+    @Test
+    public void testIgnoresExcluded() throws Exception {
+        FileWatcher watcher = new FileWatcher(Collections.singletonList(app), excluding(out));
+        write(folder.getRoot(), "app/out/main.js", "define({ optimized: true });");
+        write(folder.getRoot(), "app/out/other.js", "define({});");
+        assertTrue(watcher.poll().isEmpty());
+    }
+
+    @Test
+    public void testKeepsSnapshotWhenRootsChange() throws Exception {
+        File js = new File(app, "js");
+        File lib = write(folder.getRoot(), "lib/lib.js", "define({});");
+        FileWatcher watcher = new FileWatcher(Arrays.asList(js, folder.getRoot()), excluding(out));
+
+        // saved while optimizing, before the roots are updated
+        write(folder.getRoot(), "app/js/main.js", "define({ changed: true });");
+        File added = write(folder.getRoot(), "app/js/added.js", "define({});");
+        watcher.setRoots(Arrays.asList(js, lib.getParentFile()), excluding(out));
+        assertEquals(new TreeSet<File>(Arrays.asList(added.getAbsoluteFile(), main.getAbsoluteFile())),
+                watcher.poll());
+
+        File other = write(folder.getRoot(), "other/other.js", "define({});");
+        watcher.setRoots(Arrays.asList(js, other.getParentFile()), excluding(out));
+        assertTrue(watcher.poll().isEmpty());
+    }
+
+    @Test
+    public void testIgnoresFilesWrittenNextToOutFile() throws Exception {
+        File profile = writeProfile(folder.getRoot(),
+                "({ baseUrl: 'app/js', name: 'main', out: 'app/js/main-built.js' })");
+        FileWatcher watcher = new FileWatcher(Collections.singletonList(app), WatchMojo.getOutputFilter(Arrays
+                .asList(BuildProfile.read(profile, null), null)));
+
+        write(folder.getRoot(), "app/js/main-built.js", "define({});");
+        write(folder.getRoot(), "app/js/main-built.js.gz", "compressed");
+        write(folder.getRoot(), "app/js/main-built.0123456789.js", "define({});");
+        write(folder.getRoot(), "app/js/main-built.0123456789.js.gz", "compressed");
+        write(folder.getRoot(), "app/js/main-built.manifest.json", "{}");
+        assertTrue(watcher.poll().isEmpty());
+
+        File other = write(folder.getRoot(), "app/js/main-built-other.js", "define({});");
+        assertEquals(Collections.singleton(other.getAbsoluteFile()), watcher.poll());
+    }
+
+    @Test
+    public void testIsBelow() {
+        assertTrue(FileWatcher.isBelow(main, Collections.singletonList(app)));
+        assertTrue(FileWatcher.isBelow(app, Collections.singletonList(app)));
+        assertFalse(FileWatcher.isBelow(new File(folder.getRoot(), "application/x.js"),
+                Collections.singletonList(app)));
+    }
+
+    private static FileFilter excluding(final File excluded) {
+        return new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.equals(excluded.getAbsoluteFile());
+            }
+        };
+    }
+}
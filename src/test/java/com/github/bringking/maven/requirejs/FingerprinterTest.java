@@ -0,0 +1,113 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static com.github.bringking.maven.requirejs.TestFiles.write;
+import static com.github.bringking.maven.requirejs.TestFiles.writeProfile;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FingerprinterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+
+    @Before
+    public void setUp() {
+        root = folder.getRoot();
+    }
+
+    @Test
+    public void testRenamesLayersOfDirBuild() throws Exception {
+        write(root, "app/js/main.js", "require.config({ paths: { lib: 'vendor/lib' } });");
+        write(root, "out/js/main.js", "require.config({ paths: { lib: 'vendor/lib' } });\nrequire(['app/page']);");
+        write(root, "out/js/app/page.js", "define('app/page', [], {});");
+        write(root, "out/js/vendor/lib.js", "define('lib', [], {});");
+        write(root, "out/js/app/page.0123456789.js", "an earlier build");
+        write(root, "out/build.txt", "\njs/main.js\n----------------\njs/main.js\n\njs/vendor/lib.js\n"
+                + "----------------\njs/vendor/lib.js\n\njs/app/page.js\n----------------\njs/app/page.js\n");
+        File profile = writeProfile(root, "({ appDir: 'app', baseUrl: 'js', dir: 'out',"
+                + " mainConfigFile: 'app/js/main.js',"
+                + " modules: [{ name: 'main' }, { name: 'lib' }, { name: 'app/page' }] })");
+
+        Fingerprinter fingerprinter = new Fingerprinter(BuildProfile.read(profile, null), 2);
+        fingerprinter.fingerprint();
+        assertEquals("3 layers renamed, 2 paths set in main.js", fingerprinter.getSummary());
+
+        File main = null;
+        for (File file : new File(root, "out/js").listFiles()) {
+            if (file.getName().matches("main\\.[0-9a-f]{10}\\.js")) {
+                main = file;
+            }
+        }
+        String config = FileUtils.fileRead(main);
+        String lib = pathOf(config, "lib");
+        String page = pathOf(config, "app/page");
+        assertTrue(lib, lib.matches("vendor/lib\\.[0-9a-f]{10}"));
+        assertTrue(page, page.matches("app/page\\.[0-9a-f]{10}"));
+        assertTrue(new File(root, "out/js/" + page + ".js").isFile());
+        assertFalse(new File(root, "out/js/main.js").exists());
+        assertFalse("earlier build", new File(root, "out/js/app/page.0123456789.js").exists());
+
+        String manifest = FileUtils.fileRead(new File(root, "out/" + Fingerprinter.DIR_MANIFEST));
+        assertTrue(manifest, manifest.contains("\"app/page\": {\"file\": \"js/" + page + ".js\", \"size\": 27, "
+                + "\"gzipSize\": "));
+        assertTrue(manifest, manifest.contains("\"main\": {\"file\": \"js/" + main.getName() + "\""));
+    }
+
+    @Test
+    public void testRenamesOutFile() throws Exception {
+        write(root, "www/main.js", "define('main', [], {});");
+        File profile = writeProfile(root, "({ baseUrl: 'js', name: 'main', out: 'www/main.js' })");
+        BuildProfile buildProfile = BuildProfile.read(profile, null);
+        Fingerprinter fingerprinter = new Fingerprinter(buildProfile, 1);
+        fingerprinter.fingerprint();
+        assertEquals("1 layers renamed", fingerprinter.getSummary());
+        assertFalse(new File(root, "www/main.js").exists());
+
+        File manifest = Fingerprinter.getManifestFile(buildProfile);
+        assertEquals("main.manifest.json", manifest.getName());
+        assertTrue(FileUtils.fileRead(manifest).matches(
+                "(?s)\\{\n  \"main\": \\{\"file\": \"main\\.[0-9a-f]{10}\\.js\", \"size\": 23, \"gzipSize\": \\d+\\}\n\\}\n"));
+    }
+
+    @Test
+    public void testSetPaths() {
+        Map<String, String> paths = new TreeMap<String, String>();
+        paths.put("a", "a.1");
+        paths.put("b", "b.2");
+        assertEquals("require.config({ paths: { 'a': 'a.1', \"b\": 'b.2' } });", ModuleGraph.setPaths(
+                "require.config({ paths: { 'a': 'a', \"b\": ['b', 'c'] } });", "main.js", paths));
+        assertEquals("var require = {baseUrl: 'js', paths: {'a': 'a.1', 'b': 'b.2'}};", ModuleGraph.setPaths(
+                "var require = {baseUrl: 'js'};", "main.js", paths));
+        assertEquals("requirejs({paths: {'a': 'a.1', 'b': 'b.2'}});", ModuleGraph.setPaths(
+                "requirejs({paths: {}});", "main.js", paths));
+        assertEquals("require({paths: {a: 'a.1'}, shim: {}});", ModuleGraph.setPaths(
+                "require({paths: {a: 'x'}, shim: {}});", "main.js", Collections.singletonMap("a", "a.1")));
+        assertEquals(null, ModuleGraph.setPaths("define({});", "main.js", paths));
+    }
+
+    private static String pathOf(String config, String id) {
+        Map<String, String> found = new LinkedHashMap<String, String>();
+        Matcher matcher = Pattern.compile("'?([\\w/]+)'?: '([^']+)'").matcher(config);
+        while (matcher.find()) {
+            found.put(matcher.group(1), matcher.group(2));
+        }
+        return String.valueOf(found.get(id));
+    }
+}
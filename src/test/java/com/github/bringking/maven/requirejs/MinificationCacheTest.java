@@ -0,0 +1,98 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static com.github.bringking.maven.requirejs.TestFiles.write;
+import static com.github.bringking.maven.requirejs.TestFiles.writeProfile;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MinificationCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File appDir;
+    private File profileFile;
+    private MinificationCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        appDir = folder.newFolder("app");
+        write(appDir, "js/lib.js",
+                "define(function () {\n    var message = 'hello';\n    return { message: message };\n});");
+        write(appDir, "js/main.js", "require(['lib'], function (lib) {\n    console.log(lib.message);\n});");
+
+        profileFile = writeProfile(appDir,
+                "({ appDir: './', baseUrl: 'js', dir: '../out', optimize: 'uglify', modules: [{ name: 'main' }] });");
+        cache = new MinificationCache(new File(folder.getRoot(), "cache"), 1024 * 1024);
+    }
+
+    @Test
+    public void testMinifiedFilesAreReused() throws Exception {
+        optimize();
+        List<File> entries = getEntries();
+        assertEquals("main, lib and the profile minified", 3, entries.size());
+
+        // a hit takes the cached content instead of minifying again
+        for (File entry : entries) {
+            FileUtils.fileWrite(entry.getAbsolutePath(), FileUtils.fileRead(entry) + "/*cached*/");
+        }
+        optimize();
+        assertTrue(FileUtils.fileRead(new File(folder.getRoot(), "out/js/lib.js")).contains("/*cached*/"));
+        assertEquals(3, getEntries().size());
+
+        // changed content is minified and cached again, for lib and the main layer including it
+        write(appDir, "js/lib.js", "define({ message: 'changed' });");
+        optimize();
+        assertFalse(FileUtils.fileRead(new File(folder.getRoot(), "out/js/lib.js")).contains("/*cached*/"));
+        assertEquals(5, getEntries().size());
+    }
+
+    @Test
+    public void testTrimRemovesLeastRecentlyUsed() throws Exception {
+        cache = new MinificationCache(new File(folder.getRoot(), "cache"), 10);
+        File old = new File(cache.getDirectory(), "aa/aa.js");
+        File recent = new File(cache.getDirectory(), "bb/bb.js");
+        old.getParentFile().mkdirs();
+        recent.getParentFile().mkdirs();
+        FileUtils.fileWrite(old.getAbsolutePath(), "var a=1;");
+        FileUtils.fileWrite(recent.getAbsolutePath(), "var b=1;");
+        old.setLastModified(System.currentTimeMillis() - 60000);
+
+        assertEquals(1, cache.trim());
+        assertFalse(old.exists());
+        assertTrue(recent.exists());
+        assertEquals(0, cache.trim());
+    }
+
+    private void optimize() throws Exception {
+        File profile = cache.wrapProfile(profileFile, new File(folder.getRoot(), "staging"), "test");
+        assertEquals(profileFile.getName(), profile.getName());
+        new Optimizer().optimize(profile, new MojoErrorReporter(new SystemStreamLog(), true), new RhinoRunner());
+        assertTrue(new File(folder.getRoot(), "out/js/main.js").isFile());
+    }
+
+    private List<File> getEntries() {
+        List<File> entries = new ArrayList<File>();
+        File[] dirs = cache.getDirectory().listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                for (File file : dir.listFiles()) {
+                    entries.add(file);
+                }
+            }
+        }
+        return entries;
+    }
+}
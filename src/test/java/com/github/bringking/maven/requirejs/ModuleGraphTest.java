@@ -0,0 +1,138 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static com.github.bringking.maven.requirejs.TestFiles.write;
+import static com.github.bringking.maven.requirejs.TestFiles.writeProfile;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ModuleGraphTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File baseUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        baseUrl = folder.newFolder("js");
+        write(baseUrl, "main.js", "require(['app/view', 'text!tpl/page.html'], function (view) { view(); });");
+        write(baseUrl, "app/view.js", "define(function (require) {\n    var model = require('./model');\n"
+                + "    return function () { return model; };\n});");
+        write(baseUrl, "app/model.js", "define('app/model', ['jquery', 'cdn'], function ($) { return {}; });");
+        write(baseUrl, "vendor/jquery-1.9.js", "define([], function () { return {}; });");
+        write(baseUrl, "text.js", "define({ load: function () {} });");
+        write(baseUrl, "tpl/page.html", "<p>page</p>");
+        write(baseUrl, "unused.js", "define(['missing'], {});");
+    }
+
+    @Test
+    public void testFindDependencies() {
+        assertEquals(Arrays.asList("a", "b", "c", "d"), ModuleGraph.findDependencies(
+                "define('x', ['b', 'a'], function (require) { var c = require('c'), e = require(name); });\n"
+                        + "require({ baseUrl: 'js' }, ['d']);", "x.js"));
+        assertEquals(Collections.emptyList(), ModuleGraph.findDependencies("var a = 1;", "plain.js"));
+        assertNull(ModuleGraph.findDependencies("define([, function () {", "broken.js"));
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("app/model", ModuleGraph.normalize("./model", "app/view"));
+        assertEquals("lib/a", ModuleGraph.normalize("../lib/a", "app/view"));
+        assertEquals("text!app/page.html", ModuleGraph.normalize("text!./page.html", "app/view"));
+        assertEquals("jquery", ModuleGraph.normalize("jquery", "app/view"));
+    }
+
+    @Test
+    public void testFilesOfModules() throws Exception {
+        ModuleGraph graph = newGraph();
+        graph.update(null, null, 4);
+
+        assertEquals(files("main.js", "app/view.js", "app/model.js", "vendor/jquery-1.9.js", "text.js",
+                "tpl/page.html"), graph.getFiles(Arrays.asList("main")));
+        assertNull("missing is not a file", graph.getFiles(Arrays.asList("unused")));
+    }
+
+    @Test
+    public void testUpdatesIncrementally() throws Exception {
+        File index = new File(folder.getRoot(), "graph.properties");
+        ModuleGraph graph = newGraph();
+        assertEquals(6, graph.update(null, null, 2));
+        graph.save(index);
+
+        graph = newGraph();
+        graph.load(index);
+        assertEquals(0, graph.update(null, null, 2));
+
+        File model = write(baseUrl, "app/model.js", "define(['./helper'], {});");
+        model.setLastModified(model.lastModified() + 2000);
+        write(baseUrl, "app/helper.js", "define({});");
+        assertEquals(2, graph.update(null, null, 2));
+        assertEquals(Arrays.asList("./helper"), graph.getDependencies(model));
+        assertEquals(files("main.js", "app/view.js", "app/model.js", "app/helper.js", "text.js", "tpl/page.html"),
+                graph.getFiles(Arrays.asList("main")));
+    }
+
+    @Test
+    public void testProfileWithMainConfigFile() throws Exception {
+        write(baseUrl, "config.js", "require.config({ paths: { jquery: 'vendor/jquery-1.9', cdn: 'empty:' },"
+                + " deps: ['app/model'] });");
+        File profileFile = writeProfile(folder.getRoot(), "({ baseUrl: 'js', mainConfigFile: 'js/config.js',"
+                + " name: 'main', exclude: ['text'], out: 'main-built.js' })");
+        BuildProfile profile = BuildProfile.read(profileFile, null);
+
+        assertEquals(Arrays.asList("main", "text", "app/model"), ModuleGraph.getRootModules(profile));
+        ModuleGraph graph = ModuleGraph.forProfile(profile);
+        assertEquals(files("main.js", "app/view.js", "app/model.js", "vendor/jquery-1.9.js", "text.js",
+                "tpl/page.html"), graph.getFiles(ModuleGraph.getRootModules(profile)));
+    }
+
+    @Test
+    public void testShimDepsAreDependencies() throws Exception {
+        File profileFile = new File(getClass().getClassLoader().getResource("testcase2/buildconfigWithMainConfig2.js")
+                .toURI());
+        ModuleGraph graph = ModuleGraph.forProfile(BuildProfile.read(profileFile, null));
+
+        // bootstrap is no AMD module, it gets jquery only through its shim
+        File lib = new File(graph.getBaseUrl(), "lib");
+        assertEquals(new TreeSet<File>(Arrays.asList(new File(lib, "bootstrap.js"), new File(lib,
+                "jquery-1.7.2.js"))), graph.getFiles(Arrays.asList("bootstrap")));
+    }
+
+    @Test
+    public void testUnsupportedProfiles() throws Exception {
+        File profileFile = writeProfile(folder.getRoot(), "({ baseUrl: 'js', dir: 'out', modules: [{ name: 'main' }],"
+                + " packages: ['pkg'] })");
+        BuildProfile profile = BuildProfile.read(profileFile, null);
+
+        assertNull(ModuleGraph.getRootModules(profile));
+        assertNull(ModuleGraph.forProfile(profile));
+    }
+
+    private ModuleGraph newGraph() {
+        Map<String, String> paths = new HashMap<String, String>();
+        paths.put("jquery", "vendor/jquery-1.9");
+        paths.put("cdn", "empty:");
+        return new ModuleGraph(baseUrl, paths);
+    }
+
+    private Set<File> files(String... paths) {
+        Set<File> files = new TreeSet<File>();
+        for (String path : paths) {
+            files.add(new File(baseUrl, path).getAbsoluteFile());
+        }
+        return files;
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.mozilla.javascript.ErrorReporter;
+
+public class NodeJsDaemonRunnerTest {
+
+    @Test
+    public void testReportsWhyTheDaemonFailed() throws Exception {
+        File mainScript = new File(getClass().getResource("/testcase1/buildconfig1.js").toURI());
+        ErrorReporter reporter = mock(ErrorReporter.class);
+
+        ExitStatus exitStatus = new NodeJsDaemonRunner("missing-node-command").exec(mainScript, new String[0],
+                reporter);
+        assertEquals(1, exitStatus.getExitCode());
+        verify(reporter).error(contains("Node.js daemon failed: "), eq(mainScript.getPath()), anyInt(),
+                anyString(), anyInt());
+    }
+}
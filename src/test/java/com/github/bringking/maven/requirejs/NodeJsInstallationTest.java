@@ -0,0 +1,47 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NodeJsInstallationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConfiguredExecutable() throws Exception {
+        assumeTrue(File.separatorChar == '/');
+        File node = new File(folder.getRoot(), "node");
+        FileUtils.fileWrite(node.getAbsolutePath(), "#!/usr/bin/env sh\necho v12.3.4\n");
+        assumeTrue(node.setExecutable(true));
+        File cacheFile = new File(folder.getRoot(), "cache/node-detection.properties");
+
+        NodeJsInstallation installation = NodeJsInstallation.forCommand(node.getAbsolutePath(), cacheFile);
+        assertEquals(node.getAbsolutePath(), installation.getPath());
+        assertEquals("v12.3.4", installation.getVersion());
+        assertEquals(12, installation.getMajorVersion());
+        assertTrue(FileUtils.fileRead(cacheFile).contains("v12.3.4"));
+
+        // detected once per JVM
+        assertSame(installation, NodeJsInstallation.forCommand(node.getAbsolutePath(), cacheFile));
+    }
+
+    @Test
+    public void testMissingExecutable() throws Exception {
+        String missing = new File(folder.getRoot(), "missing-node").getAbsolutePath();
+        NodeJsInstallation installation = NodeJsInstallation.forCommand(missing, null);
+        assertEquals(missing, installation.getPath());
+        assertNull(installation.getVersion());
+        assertEquals(0, installation.getMajorVersion());
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NodeJsOptionsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFlags() {
+        NodeJsOptions options = new NodeJsOptions(4096, new String[] { " --stack-size=4000 ", "" }, null, 20);
+        assertEquals(Arrays.asList("--max-old-space-size=4096", "--stack-size=4000"), options.getArguments());
+        assertTrue(options.getEnvironment().isEmpty());
+        assertEquals("--max-old-space-size=4096 --stack-size=4000", options.toString());
+    }
+
+    @Test
+    public void testCompileCache() {
+        File cache = new File(folder.getRoot(), "node-compile-cache");
+        NodeJsOptions options = new NodeJsOptions(0, null, cache, 22);
+        assertEquals(cache.getAbsolutePath(), options.getEnvironment().get("NODE_COMPILE_CACHE"));
+        assertFalse("created when node is started", cache.exists());
+        options.createDirectories();
+        assertTrue(cache.isDirectory());
+    }
+
+    @Test
+    public void testCompileCacheNeedsNode22() {
+        NodeJsOptions options = new NodeJsOptions(0, null, new File(folder.getRoot(), "cache"), 20);
+        assertTrue(options.isEmpty());
+        assertEquals(1, options.getSkipped().size());
+    }
+}
@@ -11,7 +11,12 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assume.assumeTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 public class NodeJsRunnerTest {
 
@@ -66,6 +71,8 @@ public class NodeJsRunnerTest {
         runner = new NodeJsRunner(fakeNode + "_x");
         ExitStatus exitStatus = runner.exec(mainScript, args, errorReporter);
         assertEquals(1, exitStatus.getExitCode());
+        verify(errorReporter).error(contains("Node.js failed: "), eq(mainScript.getPath()), anyInt(),
+                anyString(), anyInt());
     }
 
     @Test
@@ -0,0 +1,189 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static com.github.bringking.maven.requirejs.TestFiles.write;
+import static com.github.bringking.maven.requirejs.TestFiles.writeProfile;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.filtering.DefaultMavenFileFilter;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mozilla.javascript.ErrorReporter;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+public class OptimizeMojoTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFilteredConfigNames() {
+        String first = OptimizeMojo.getFilteredConfigName(new File("/project/a/build.js"));
+        String second = OptimizeMojo.getFilteredConfigName(new File("/project/b/build.js"));
+
+        assertTrue(first, first.matches("build-[0-9a-f]{12}\\.js"));
+        assertFalse(first.equals(second));
+        assertEquals(first, OptimizeMojo.getFilteredConfigName(new File("/project/a/build.js")));
+    }
+
+    @Test
+    public void testProfilesDependOnEachOtherBothWays() throws Exception {
+        BuildProfile app = profile("app.js", "({ appDir: 'app', dir: 'www' })");
+        BuildProfile intoApp = profile("lib.js", "({ baseUrl: 'lib', name: 'lib', out: 'app/lib.js' })");
+        BuildProfile other = profile("other.js", "({ baseUrl: 'other', name: 'other', out: 'other.min.js' })");
+
+        // the later profile writes into the sources of the earlier one
+        assertTrue(OptimizeMojo.dependsOn(intoApp, app));
+        assertTrue(OptimizeMojo.dependsOn(app, intoApp));
+        assertFalse(OptimizeMojo.dependsOn(other, app));
+        assertFalse(OptimizeMojo.dependsOn(app, other));
+    }
+
+    private BuildProfile profile(String name, String source) throws IOException {
+        return BuildProfile.read(write(folder.getRoot(), name, source), null);
+    }
+
+    @Test
+    public void testFilteredConfigStreamsScannedDeps() throws Exception {
+        File deps = folder.newFolder("deps");
+        write(deps, "a.js", "define({});");
+        write(deps, "b.js", "define({});");
+        File config = writeProfile(folder.getRoot(), "({ deps: [${scanFolder}], out: '${unknown.expression}' })");
+
+        OptimizeMojo mojo = newFilteringMojo(config, deps);
+        File filtered = mojo.createBuildProfile().get(0);
+        assertEquals("({ deps: [\"a\",\"b\"], out: '${unknown.expression}' })", FileUtils.fileRead(filtered,
+                "UTF-8"));
+
+        // an unchanged config keeps its file, and with it the timestamp the incremental checks use
+        filtered.setLastModified(filtered.lastModified() - 60000);
+        long lastModified = filtered.lastModified();
+        assertEquals(filtered, mojo.createBuildProfile().get(0));
+        assertEquals(lastModified, filtered.lastModified());
+
+        write(deps, "c.js", "define({});");
+        mojo.createBuildProfile();
+        assertTrue(FileUtils.fileRead(filtered, "UTF-8").contains("\"c\""));
+        assertFalse(lastModified == filtered.lastModified());
+    }
+
+    @Test
+    public void testPrecompressesFingerprintedOutFile() throws Exception {
+        File root = folder.getRoot();
+        File profile = writeProfile(root, "({ baseUrl: 'js', name: 'main', out: 'www/main.js', optimize: 'none' })");
+        OptimizeMojo mojo = new OptimizeMojo();
+        set(mojo, "buildDirectory", new File(root, "target"));
+        set(mojo, "cacheDirectory", new File(root, "cache"));
+        set(mojo, "incremental", false);
+        set(mojo, "minifyCache", false);
+        set(mojo, "rhinoFileCache", false);
+        set(mojo, "parallelism", 1);
+        set(mojo, "fingerprint", true);
+        set(mojo, "precompress", true);
+        set(mojo, "precompressThreshold", 0L);
+
+        File www = new File(root, "www");
+        for (String value : new String[] { "first", "second" }) {
+            write(root, "js/main.js", "define('main', [], function () { return ['" + value + "', '" + value
+                    + "', '" + value + "', '" + value + "', '" + value + "']; });");
+            mojo.optimize(profile, new RhinoRunner());
+
+            String[] layers = www.list(new PatternFilenameFilter("main\\.[0-9a-f]{10}\\.js"));
+            String[] compressed = www.list(new PatternFilenameFilter("main.*\\.gz"));
+            assertEquals(1, layers.length);
+            // the variant of the renamed layer, the one of the earlier build is removed with it
+            assertEquals(Collections.singletonList(layers[0] + Precompressor.SUFFIX), Arrays.asList(compressed));
+            assertFalse(new File(www, "main.js").exists());
+        }
+    }
+
+    @Test
+    public void testOtherRunnerMakesBuildStale() throws Exception {
+        File root = folder.getRoot();
+        File profile = writeProfile(root, "({ baseUrl: 'js', name: 'main', out: 'www/main.js', optimize: 'none' })");
+        write(root, "js/main.js", "define('main', [], {});");
+        OptimizeMojo mojo = new OptimizeMojo();
+        set(mojo, "buildDirectory", new File(root, "target"));
+        set(mojo, "cacheDirectory", new File(root, "cache"));
+        set(mojo, "minifyCache", false);
+        set(mojo, "rhinoFileCache", false);
+        set(mojo, "parallelism", 1);
+
+        final AtomicInteger runs = new AtomicInteger();
+        RunnerPool.Factory factory = new RunnerPool.Factory() {
+            @Override
+            public Runner create() {
+                final Runner rhino = new RhinoRunner();
+                return new Runner() {
+                    @Override
+                    public ExitStatus exec(File mainScript, String[] args, ErrorReporter reporter) {
+                        runs.incrementAndGet();
+                        return rhino.exec(mainScript, args, reporter);
+                    }
+                };
+            }
+        };
+        Runner first = RunnerPool.get("test-stale\nrhino\n0", "test-stale", 1, false, factory);
+        Runner second = RunnerPool.get("test-stale\nrhino\n9", "test-stale", 1, false, factory);
+        mojo.optimize(profile, first);
+        mojo.optimize(profile, first);
+        assertEquals("an up to date build is skipped", 1, runs.get());
+        mojo.optimize(profile, second);
+        assertEquals(2, runs.get());
+    }
+
+    private OptimizeMojo newFilteringMojo(File config, File deps) throws Exception {
+        DefaultMavenFileFilter fileFilter = new DefaultMavenFileFilter();
+        fileFilter.enableLogging(new ConsoleLogger(Logger.LEVEL_WARN, "filter"));
+        set(fileFilter, "buildContext", new DefaultBuildContext());
+        OptimizeMojo mojo = new OptimizeMojo();
+        set(mojo, "mavenFileFilter", fileFilter);
+        set(mojo, "project", new MavenProject());
+        set(mojo, "buildDirectory", new File(folder.getRoot(), "target"));
+        mojo.configFiles = Collections.singletonList(config);
+        mojo.filterConfig = true;
+        mojo.fillDepsFromFolder = deps;
+        return mojo;
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                // declared by a superclass
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
+    private static final class PatternFilenameFilter implements FilenameFilter {
+        private final String pattern;
+
+        PatternFilenameFilter(String pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public boolean accept(File dir, String name) {
+            return name.matches(pattern);
+        }
+    }
+}
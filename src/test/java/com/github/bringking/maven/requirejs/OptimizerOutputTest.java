@@ -0,0 +1,91 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.apache.maven.plugin.logging.Log;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class OptimizerOutputTest {
+
+    private static final String[] ARGS = { "-o", "/project/build.js" };
+
+    private Log log;
+    private MojoErrorReporter reporter;
+    private OptimizerOutput output;
+
+    @Before
+    public void setUp() {
+        log = mock(Log.class);
+        reporter = new MojoErrorReporter(log, true);
+        output = new OptimizerOutput(reporter, ARGS);
+    }
+
+    @Test
+    public void testPrefixedInfo() throws Exception {
+        output.write("Tracing dependencies for: main\n\nUglifying file: /out/main.js\r\n".getBytes("UTF-8"));
+        verify(log).info("[build.js] Tracing dependencies for: main");
+        verify(log).info("[build.js] Uglifying file: /out/main.js");
+        assertEquals(0, reporter.getErrorCnt());
+    }
+
+    @Test
+    public void testParseError() throws Exception {
+        output.write(("Error: Parse error using esprima for file: /app/js/main.js\n"
+                + "Error: Line 3: Unexpected token }\n" + "In module tree:\n").getBytes("UTF-8"));
+        verify(log).error("/app/js/main.js:line 0:column 0:[build.js] Error: Parse error using esprima for file: "
+                + "/app/js/main.js");
+        verify(log).error("/app/js/main.js:line 3:column 0:[build.js] Error: Line 3: Unexpected token }");
+        verify(log).info("[build.js] In module tree:");
+        assertEquals(2, reporter.getErrorCnt());
+    }
+
+    @Test
+    public void testWarning() throws Exception {
+        output.write("uglifyjs2 WARN: Dropping unused variable x [main.js:10,4]\n".getBytes("UTF-8"));
+        verify(log, times(1)).warn(anyString());
+        assertEquals(1, reporter.getWarningCnt());
+    }
+
+    @Test
+    public void testUnterminatedLineOnClose() throws Exception {
+        output.write("done".getBytes("UTF-8"));
+        verify(log, never()).info(anyString());
+        output.close();
+        verify(log).info(eq("[build.js] done"));
+    }
+
+    @Test
+    public void testLongLineIsSplit() throws Exception {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            line.append('x');
+        }
+        output.write(line.append('\n').toString().getBytes("UTF-8"));
+        verify(log, times(2)).info(anyString());
+        assertEquals(0, reporter.getErrorCnt());
+    }
+
+    @Test
+    public void testLongLineIsSplitBetweenCharacters() throws Exception {
+        StringBuilder line = new StringBuilder("x");
+        for (int i = 0; i < 5000; i++) {
+            line.append('\u00e9');
+        }
+        output.write(line.append('\n').toString().getBytes("UTF-8"));
+        ArgumentCaptor<CharSequence> pieces = ArgumentCaptor.forClass(CharSequence.class);
+        verify(log, times(2)).info(pieces.capture());
+        String joined = "";
+        for (CharSequence piece : pieces.getAllValues()) {
+            joined += piece.toString().substring("[build.js] ".length());
+        }
+        assertEquals(line.substring(0, line.length() - 1), joined);
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.bringking.maven.requirejs;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
 
@@ -12,9 +13,12 @@ import javax.script.ScriptEngineManager;
 
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mozilla.javascript.ErrorReporter;
 
 /**
@@ -24,6 +28,9 @@ import org.mozilla.javascript.ErrorReporter;
  */
 public class OptimizerTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private Log log = new SystemStreamLog();
 
     private Optimizer optimizer = null;
@@ -53,6 +60,37 @@ public class OptimizerTest {
         log.debug("total time ::" + (end - start) + "msec");
     }
 
+    @Test
+    public void testRhinoRunnersShareCompiledScript() throws Exception {
+        String[] args = { "optimize=none" };
+        optimizer.optimize(loadProfile("testcase3/buildconfig3.js"), reporter, new RhinoRunner(), args);
+        int compiled = RhinoRunner.getCompiledScripts();
+        optimizer.optimize(loadProfile("testcase3/buildconfig3.js"), reporter, new RhinoRunner(), args);
+        assertEquals("the second runner reuses the compiled r.js", compiled, RhinoRunner.getCompiledScripts());
+
+        // globals of a run, declared or not, stay in its own scope
+        File script = folder.newFile("globals.js");
+        FileUtils.fileWrite(script.getPath(), "UTF-8", "if (typeof declared != 'undefined'"
+                + " || typeof assigned != 'undefined') { quit(2); }\nvar declared = true;\nassigned = true;\n");
+        assertEquals(0, new RhinoRunner().exec(script, new String[0], reporter).getExitCode());
+        assertEquals(0, new RhinoRunner().exec(script, new String[0], reporter).getExitCode());
+    }
+
+    @Test
+    public void testWrappedProfileWithoutBaseUrl() throws Exception {
+        File profile = loadProfile("testcase4/buildconfig4.js");
+        File dir = new File(profile.getParentFile().getParentFile(), "output/4/wrapped");
+        dir.mkdirs();
+        File wrapped = new File(dir, profile.getName());
+        FileUtils.fileWrite(wrapped.getPath(), "UTF-8", ProfileWrapper.wrap(profile, ProfileWrapper.read(profile),
+                "test", ""));
+        File out = new File(profile.getParentFile().getParentFile(), "output/4/main-built.js");
+        out.delete();
+
+        optimizer.optimize(wrapped, reporter, runner);
+        assertTrue(FileUtils.fileRead(out).contains("value:4"));
+    }
+
     // @Test
     // public void testBuildConfigFull2() throws Exception {
     // long start = System.currentTimeMillis();
@@ -144,6 +182,36 @@ public class OptimizerTest {
         log.debug("total time ::" + (end - start) + "msec");
     }
 
+    @Test
+    public void testNodeBuildWithOptions() throws Exception {
+        String[] args = { "optimize=none" };
+        String nodeCmd = NodeJsRunner.detectNodeCommand();
+        assumeTrue(nodeCmd != null); // skip if no node command detected.
+        File cache = new File(loadProfile("testcase3").getParentFile(), "node-compile-cache");
+        NodeJsOptions options = new NodeJsOptions(512, new String[] { "--stack-size=2000" }, cache, 0);
+        optimizer.optimize(loadProfile("testcase3/buildconfigNode3.js"), reporter, new NodeJsRunner(nodeCmd, options),
+                args);
+    }
+
+    @Test
+    public void testNodeDaemonBuildWithParameters() throws Exception {
+        String[] args = { "optimize=uglify" };
+        String nodeCmd = NodeJsRunner.detectNodeCommand();
+        assumeTrue(nodeCmd != null); // skip if no node command detected.
+        Runner daemonRunner = new NodeJsDaemonRunner(nodeCmd);
+        optimizer.optimize(loadProfile("testcase3/buildconfigNode3.js"), reporter, daemonRunner, args);
+        int started = NodeJsDaemonRunner.getStartedDaemons();
+        optimizer.optimize(loadProfile("testcase3/buildconfigNode3.js"), reporter, daemonRunner, args);
+        assertEquals("one daemon serves both runs", started, NodeJsDaemonRunner.getStartedDaemons());
+    }
+
+    @Test(expected = OptimizationException.class)
+    public void testNodeDaemonMissingProfile() throws Exception {
+        String nodeCmd = NodeJsRunner.detectNodeCommand();
+        assumeTrue(nodeCmd != null); // skip if no node command detected.
+        optimizer.optimize(new File("missing-buildconfig.js"), reporter, new NodeJsDaemonRunner(nodeCmd));
+    }
+
     @Test
     public void testNashornBuildWithParameters() throws Exception {
         checkNashornAvailability();
@@ -157,6 +225,14 @@ public class OptimizerTest {
         log.debug("total time ::" + (end - start) + "msec");
     }
 
+    @Test(expected = OptimizationException.class)
+    public void testNashornMissingProfile() throws Exception {
+        checkNashornAvailability();
+
+        Runner nashornRunner = new ScriptEngineRunner(new ScriptEngineManager().getEngineByName("nashorn"));
+        optimizer.optimize(new File("missing-buildconfig.js"), reporter, nashornRunner);
+    }
+
     /**
      * Check if the Nashorn engine is available. If not, halt the test.
      */
@@ -0,0 +1,84 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static com.github.bringking.maven.requirejs.TestFiles.write;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PrecompressorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCompressesFilesAboveThreshold() throws Exception {
+        File large = write(folder.getRoot(), "main.js", repeat("define('main', function () { return 42; });\n", 100));
+        File small = write(folder.getRoot(), "small.js", "define({});");
+        File random = write(folder.getRoot(), "random.css", "a{b:c}");
+
+        Precompressor precompressor = new Precompressor(5, 2);
+        precompressor.compress(Arrays.asList(large, small, random));
+
+        assertEquals(FileUtils.fileRead(large), gunzip(new File(large.getPath() + ".gz")));
+        assertTrue(new File(large.getPath() + ".gz").length() < large.length());
+        assertFalse("not smaller, not written", new File(random.getPath() + ".gz").exists());
+        assertEquals(1, precompressor.getCompressed());
+        assertTrue(precompressor.getSummary(), precompressor.getSummary().startsWith("1 files compressed, saving "));
+
+        precompressor = new Precompressor(20, 1);
+        precompressor.compress(Arrays.asList(small));
+        assertFalse("below the threshold", new File(small.getPath() + ".gz").exists());
+    }
+
+    @Test
+    public void testSkipsUpToDateVariants() throws Exception {
+        File file = write(folder.getRoot(), "main.js", repeat("var a = 1;\n", 200));
+        file.setLastModified(System.currentTimeMillis() - 60000);
+        new Precompressor(0, 1).compress(Arrays.asList(file));
+
+        Precompressor precompressor = new Precompressor(0, 1);
+        precompressor.compress(Arrays.asList(file));
+        assertEquals(0, precompressor.getCompressed());
+
+        FileUtils.fileWrite(file.getPath(), "UTF-8", repeat("var b = 2;\n", 200));
+        file.setLastModified(System.currentTimeMillis() + 60000);
+        precompressor = new Precompressor(0, 1);
+        precompressor.compress(Arrays.asList(file));
+        assertEquals(1, precompressor.getCompressed());
+        assertEquals(FileUtils.fileRead(file), gunzip(new File(file.getPath() + ".gz")));
+    }
+
+
+    private static String repeat(String text, int times) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            result.append(text);
+        }
+        return result.toString();
+    }
+
+    private static String gunzip(File file) throws IOException {
+        InputStream in = new GZIPInputStream(new FileInputStream(file));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IOUtil.copy(in, out);
+            return out.toString("UTF-8");
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+}
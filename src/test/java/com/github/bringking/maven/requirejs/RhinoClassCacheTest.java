@@ -0,0 +1,72 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+public class RhinoClassCacheTest {
+
+    private static final String SOURCE = "function square(x) { return x * x; }\nsquare(7);";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCompiledClassesAreReused() throws Exception {
+        File directory = folder.newFolder("classes");
+        Context cx = Context.enter();
+        try {
+            Script compiled = new RhinoClassCache(directory, 9).getScript(cx, SOURCE, "square.js", "abc");
+            assertEquals(49, run(cx, compiled));
+            File[] jars = directory.listFiles();
+            assertEquals(1, jars.length);
+            assertTrue(jars[0].getName().endsWith(".jar"));
+
+            long modified = jars[0].lastModified();
+            Script loaded = new RhinoClassCache(directory, 9).getScript(cx, SOURCE, "square.js", "abc");
+            assertEquals(49, run(cx, loaded));
+            assertEquals("loaded, not compiled again", modified, jars[0].lastModified());
+
+            new RhinoClassCache(directory, 0).getScript(cx, SOURCE, "square.js", "abc");
+            assertEquals("one jar per optimization level", 2, directory.listFiles().length);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void testTooLargeScriptIsInterpreted() throws Exception {
+        StringBuilder source = new StringBuilder("var total = 0;\n");
+        for (int i = 0; i < 20000; i++) {
+            source.append("total += ").append(i % 10).append(";\n");
+        }
+        source.append("total;");
+
+        File directory = folder.newFolder("classes");
+        Context cx = Context.enter();
+        try {
+            Script script = new RhinoClassCache(directory, 0).getScript(cx, source.toString(), "large.js", "def");
+            assertEquals(90000, run(cx, script));
+            File[] files = directory.listFiles();
+            assertEquals(1, files.length);
+            assertTrue(files[0].getName().endsWith(".interpreted"));
+            assertFalse(new File(directory, files[0].getName().replace(".interpreted", ".jar")).exists());
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static int run(Context cx, Script script) {
+        Scriptable scope = cx.initStandardObjects();
+        return ((Number) script.exec(cx, scope)).intValue();
+    }
+}
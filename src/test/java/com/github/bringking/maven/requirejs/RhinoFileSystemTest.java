@@ -0,0 +1,117 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RhinoFileSystemTest {
+
+    private static final String NL = System.getProperty("line.separator");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadLikeBufferedReader() {
+        assertEquals("", RhinoFileSystem.normalizeLines(""));
+        assertEquals("a" + NL, RhinoFileSystem.normalizeLines("a"));
+        assertEquals("a" + NL + "b" + NL + NL + "c" + NL, RhinoFileSystem.normalizeLines("a\r\nb\r\rc\n"));
+        assertEquals("define()" + NL, RhinoFileSystem.normalizeLines("\uFEFFdefine()"));
+        assertEquals(NL, RhinoFileSystem.normalizeLines("\uFEFF"));
+    }
+
+    @Test
+    public void testContentsAreSharedByRuns() throws Exception {
+        File file = folder.newFile("lib.js");
+        FileUtils.fileWrite(file.getPath(), "UTF-8", "var lib = '\u00e4';\n");
+        long lastModified = System.currentTimeMillis() - 60000;
+        file.setLastModified(lastModified);
+        lastModified = file.lastModified();
+
+        RhinoFileSystem.Cache cache = new RhinoFileSystem.Cache(1024 * 1024);
+        assertEquals("var lib = '\u00e4';" + NL, new RhinoFileSystem(cache).read(file.getPath(), "utf-8"));
+
+        // same length and time, only a cached read still sees the old content
+        FileUtils.fileWrite(file.getPath(), "UTF-8", "var lib = '\u00f6';\n");
+        file.setLastModified(lastModified);
+        RhinoFileSystem run = new RhinoFileSystem(cache);
+        assertEquals("var lib = '\u00e4';" + NL, run.read(file.getPath(), "utf-8"));
+        assertEquals("var lib = '\u00c3\u00b6';" + NL, run.read(file.getPath(), "ISO-8859-1"));
+
+        run.write(file.getPath(), "var lib = '\u00fc';\n", "UTF-8");
+        assertEquals("a write replaces the content", "var lib = '\u00fc';" + NL, run.read(file.getPath(), "UTF-8"));
+    }
+
+    @Test
+    public void testRecentlyModifiedFilesAreNotCached() throws Exception {
+        File file = folder.newFile("main.js");
+        FileUtils.fileWrite(file.getPath(), "UTF-8", "1");
+
+        RhinoFileSystem.Cache cache = new RhinoFileSystem.Cache(1024 * 1024);
+        new RhinoFileSystem(cache).read(file.getPath(), "UTF-8");
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testCacheStaysBelowMaximumSize() throws Exception {
+        RhinoFileSystem.Cache cache = new RhinoFileSystem.Cache(100);
+        RhinoFileSystem files = new RhinoFileSystem(cache);
+        for (int i = 0; i < 5; i++) {
+            File file = folder.newFile(i + ".js");
+            FileUtils.fileWrite(file.getPath(), "UTF-8", "var x = " + i + ";");
+            file.setLastModified(System.currentTimeMillis() - 60000);
+            files.read(file.getPath(), "UTF-8");
+        }
+        assertTrue(cache.getSize() > 0);
+        assertTrue(cache.getSize() <= 100);
+    }
+
+    @Test
+    public void testLargeFilesAreDecoded() throws Exception {
+        StringBuilder source = new StringBuilder();
+        while (source.length() <= RhinoFileSystem.MAPPED_SIZE) {
+            source.append("define('\u00fc', function () {});\n");
+        }
+        File file = folder.newFile("large.js");
+        FileUtils.fileWrite(file.getPath(), "UTF-8", source.toString());
+
+        String content = new RhinoFileSystem(new RhinoFileSystem.Cache(1024)).read(file.getPath(), "UTF-8");
+        assertEquals(source.toString().replace("\n", NL), content);
+    }
+
+    @Test
+    public void testStatsAreRememberedUntilWritten() throws Exception {
+        File dir = folder.newFolder("app");
+        File file = new File(dir, "js/main.js");
+        RhinoFileSystem files = new RhinoFileSystem(new RhinoFileSystem.Cache(1024));
+        assertFalse(files.exists(file.getPath()));
+        assertEquals(0, files.list(dir.getPath()).length);
+
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file.getPath(), "UTF-8", "main");
+        assertFalse("remembered for the run", files.exists(file.getPath()));
+
+        files.write(file.getPath(), "main", "");
+        assertTrue(files.isFile(file.getPath()));
+        assertTrue(files.isDirectory(file.getParent()));
+        assertEquals(Arrays.asList(file.getParent()), Arrays.asList(files.list(dir.getPath())));
+
+        assertTrue(files.copy(file.getPath(), new File(dir, "js/copy.js").getPath(), true));
+        assertFalse("not newer", files.copy(file.getPath(), new File(dir, "js/copy.js").getPath(), true));
+        assertEquals(2, files.list(file.getParent()).length);
+
+        files.delete(file.getPath());
+        files.delete(new File(dir, "js/copy.js").getPath());
+        files.deleteEmptyDirectories(dir.getPath());
+        assertFalse(files.exists(dir.getPath()));
+        assertFalse(dir.exists());
+    }
+}
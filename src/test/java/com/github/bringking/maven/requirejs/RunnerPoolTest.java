@@ -0,0 +1,102 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.mozilla.javascript.ErrorReporter;
+
+public class RunnerPoolTest {
+
+    private static final File SCRIPT = new File("r.js");
+
+    @Test
+    public void testPoolIsSharedByKey() {
+        CountingFactory factory = new CountingFactory(0);
+        RunnerPool pool = RunnerPool.get("test-shared", "test-shared", 2, false, factory);
+        assertSame(pool, RunnerPool.get("test-shared", "test-shared", 8, false, new CountingFactory(0)));
+        assertEquals("the first limit wins", 2, RunnerPool.getMaxConcurrent("test-shared"));
+
+        pool.exec(SCRIPT, new String[0], null);
+        pool.exec(SCRIPT, new String[0], null);
+        assertEquals("a thread safe runner is created once", 1, factory.created.get());
+    }
+
+    @Test
+    public void testGovernorLimitsConcurrentRuns() throws Exception {
+        CountingFactory factory = new CountingFactory(50);
+        final RunnerPool first = RunnerPool.get("test-limit-a", "test-limit", 2, true, factory);
+        final RunnerPool second = RunnerPool.get("test-limit-b", "test-limit", 2, true, factory);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<ExitStatus>> results = new ArrayList<Future<ExitStatus>>();
+        for (int i = 0; i < 8; i++) {
+            final RunnerPool pool = i % 2 == 0 ? first : second;
+            results.add(executor.submit(new Callable<ExitStatus>() {
+                @Override
+                public ExitStatus call() {
+                    return pool.exec(SCRIPT, new String[0], null);
+                }
+            }));
+        }
+        for (Future<ExitStatus> result : results) {
+            assertEquals(0, result.get().getExitCode());
+        }
+        executor.shutdown();
+
+        assertEquals("pools of a governor share its limit", 2, factory.maxRunning.get());
+        assertTrue("exclusive runners are reused", factory.created.get() <= 2 * 2);
+    }
+
+    @Test
+    public void testDefaultLimits() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        assertTrue(RunnerPool.getDefaultProcessLimit(0) >= 1);
+        assertTrue(RunnerPool.getDefaultProcessLimit(0) <= cores);
+        assertTrue(RunnerPool.getDefaultContextLimit() >= 1);
+        assertTrue(RunnerPool.getDefaultContextLimit() <= cores);
+    }
+
+    private static class CountingFactory implements RunnerPool.Factory {
+        private final long sleep;
+        private final AtomicInteger created = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+
+        CountingFactory(long sleep) {
+            this.sleep = sleep;
+        }
+
+        @Override
+        public Runner create() {
+            created.incrementAndGet();
+            return new Runner() {
+                @Override
+                public ExitStatus exec(File mainScript, String[] args, ErrorReporter reporter) {
+                    int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    try {
+                        Thread.sleep(sleep);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                    return new ExitStatus();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static com.github.bringking.maven.requirejs.TestFiles.write;
+import static com.github.bringking.maven.requirejs.TestFiles.writeProfile;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShardedBuildTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File appDir;
+    private File profileFile;
+    private File stagingRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        appDir = folder.newFolder("app");
+        write(appDir, "js/lib.js", "define({});");
+        write(appDir, "js/a.js", "define(['lib'], function () {});");
+        write(appDir, "js/b.js", "define(['lib'], function () {});");
+        write(appDir, "js/c.js", "define(['lib'], function () {});");
+        write(appDir, "js/d.js", "define(['a'], function () {});");
+
+        profileFile = writeProfile(appDir,
+                "({ appDir: './', baseUrl: 'js', dir: '../out', optimize: 'none', removeCombined: true,\n"
+                        + "  modules: [{ name: 'a' }, { name: 'b' }, { name: 'c' }, { name: 'd', exclude: ['a'] }] })");
+        stagingRoot = new File(folder.getRoot(), "shards");
+    }
+
+    @Test
+    public void testExcludedModulesStayTogether() throws Exception {
+        ShardedBuild build = new ShardedBuild(stagingRoot, BuildProfile.read(profileFile, null), 3);
+        assertNull(build.getUnshardableReason());
+        assertEquals(3, build.getShardCount());
+        assertEquals(Arrays.asList(0, 3), build.getModuleIndexes(0));
+        assertEquals(Arrays.asList(1), build.getModuleIndexes(1));
+        assertEquals(Arrays.asList(2), build.getModuleIndexes(2));
+    }
+
+    @Test
+    public void testShardProfiles() throws Exception {
+        ShardedBuild build = new ShardedBuild(stagingRoot, BuildProfile.read(profileFile, null), 2);
+        List<File> profiles = build.writeProfiles();
+        assertEquals(2, profiles.size());
+
+        BuildProfile shard = BuildProfile.read(profiles.get(1), null);
+        assertEquals(appDir.getCanonicalFile(), shard.getAppDir());
+        assertEquals(new File(appDir, "js").getCanonicalFile(), shard.getBaseUrl());
+        assertEquals(2, shard.getModules().size());
+        assertFalse(shard.isEnabled("removeCombined"));
+        assertTrue(shard.isEnabled("skipDirOptimize"));
+        assertFalse(BuildProfile.read(profiles.get(0), null).isEnabled("skipDirOptimize"));
+    }
+
+    @Test
+    public void testShardParameters() throws Exception {
+        ShardedBuild build = new ShardedBuild(stagingRoot, BuildProfile.read(profileFile, null), 2);
+        String[] params = build.getShardParameters(new String[] { "optimize=uglify", "dir=target/js" });
+        assertEquals(Arrays.asList("optimize=uglify"), Arrays.asList(params));
+    }
+
+    @Test
+    public void testUnshardable() throws Exception {
+        writeProfile(appDir, "({ baseUrl: 'js', out: '../out/main.js', name: 'a' })");
+        ShardedBuild build = new ShardedBuild(stagingRoot, BuildProfile.read(profileFile, null), 2);
+        assertTrue(build.getUnshardableReason() != null);
+    }
+
+    @Test
+    public void testOptimizeAndMerge() throws Exception {
+        ShardedBuild build = new ShardedBuild(stagingRoot, BuildProfile.read(profileFile, null), 2);
+        Optimizer optimizer = new Optimizer();
+        MojoErrorReporter reporter = new MojoErrorReporter(new SystemStreamLog(), true);
+        for (File shardProfile : build.writeProfiles()) {
+            optimizer.optimize(shardProfile, reporter, new RhinoRunner());
+        }
+        build.merge();
+
+        File out = new File(folder.getRoot(), "out/js");
+        for (String module : new String[] { "a", "b", "c", "d" }) {
+            assertTrue(module + " built", new File(out, module + ".js").isFile());
+        }
+        assertFalse("combined file removed", new File(out, "lib.js").exists());
+        String buildText = FileUtils.fileRead(new File(out.getParentFile(), "build.txt"));
+        assertTrue(buildText.contains("js/b.js"));
+        assertTrue(buildText.contains("js/c.js"));
+        assertFalse(stagingRoot.listFiles().length > 0);
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static com.github.bringking.maven.requirejs.TestFiles.write;
+import static com.github.bringking.maven.requirejs.TestFiles.writeProfile;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SizeReportTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+
+    @Before
+    public void setUp() {
+        root = folder.getRoot();
+    }
+
+    @Test
+    public void testReportsLayersOfDirBuild() throws Exception {
+        write(root, "app/js/main.js", "require(['app/page'], function () {});");
+        write(root, "app/js/app/page.js", "define(['lib'], function () { return 'a page with some more text'; });");
+        write(root, "app/js/lib.js", "define({});");
+        write(root, "out/js/main.js",
+                "define('lib',{});define('app/page',['lib'],function(){});require(['app/page']);");
+        write(root, "out/js/lib.js", "define({});");
+        write(root, "out/build.txt", "\njs/main.js\n----------------\njs/lib.js\njs/app/page.js\njs/main.js\n");
+        File profile = writeProfile(root,
+                "({ appDir: 'app', baseUrl: 'js', dir: 'out', modules: [{ name: 'main' }] })");
+
+        SizeReport report = new SizeReport(BuildProfile.read(profile, null), root, 2);
+        report.measure(new File(root, "unused.txt"));
+        assertEquals(1, report.getLayerCount());
+        String table = report.toTable();
+        assertTrue(table, table.matches("(?s).*\nout/js/main.js +79 +\\d+\n +js/app/page.js +70\n +js/main.js +38\n"));
+
+        File json = new File(root, "report/size-report.json");
+        report.write(json, new File(root, "report/size-report.txt"));
+        assertTrue(FileUtils.fileRead(json).contains("{\"layer\": \"out/js/main.js\", \"size\": 79, \"gzipSize\": "));
+        assertTrue(FileUtils.fileRead(json).contains("{\"module\": \"js/app/page.js\", \"size\": 70},"));
+    }
+
+    @Test
+    public void testReportsModulesOfOutFile() throws Exception {
+        write(root, "js/main.js", "require(['dep']);");
+        write(root, "js/dep.js", "define({});");
+        write(root, "www/main.js", "define('dep',{});require(['dep']);");
+        File buildText = write(root, "build.txt", "\n" + new File(root, "www/main.js").getAbsolutePath()
+                + "\n----------------\n" + new File(root, "js/dep.js").getAbsolutePath()
+                + "\n" + new File(root, "js/main.js").getAbsolutePath() + "\ntext!tpl.html\n");
+        File profile = writeProfile(root, "({ baseUrl: 'js', name: 'main', out: 'www/main.js' })");
+
+        SizeReport report = new SizeReport(BuildProfile.read(profile, null), root, 10);
+        report.measure(buildText);
+        assertTrue(report.toTable(), report.toTable().matches(
+                "(?s).*\nwww/main.js +34 +\\d+\n +main.js +17\n +dep.js +11\n"));
+
+        String wrapped = SizeReport.wrapProfile(profile, buildText);
+        assertTrue(wrapped, wrapped.contains("config.onModuleBundleComplete = function (data) {"));
+        assertTrue(wrapped, wrapped.contains("onModuleBundleComplete(data);"));
+    }
+
+    @Test
+    public void testChecksBudgetsAndBaseline() throws Exception {
+        write(root, "www/main.js",
+                "define('main', function () { return 'something to compress, compress, compress'; });");
+        File profile = writeProfile(root, "({ baseUrl: 'js', name: 'main', out: 'www/main.js' })");
+        SizeReport report = new SizeReport(BuildProfile.read(profile, null), root, 10);
+        report.measure(new File(root, "missing.txt"));
+
+        assertEquals(Collections.emptyList(), report.checkBudgets(Arrays.asList(new SizeBudget("**/main.js", 1000,
+                1000, 0), new SizeBudget("other.js", 1, 1, 0)), Collections.<String, long[]> emptyMap()));
+        List<String> exceeded = report.checkBudgets(Arrays.asList(new SizeBudget("www/*.js", 10, 0, 0),
+                new SizeBudget("**", 0, 10, 0)), Collections.<String, long[]> emptyMap());
+        assertEquals(2, exceeded.size());
+        assertTrue(exceeded.get(0), exceeded.get(0).startsWith("www/main.js is 84 bytes, over the budget of 10"));
+
+        File baselineFile = new File(root, "baseline.json");
+        write(root, "baseline.json", "{\"www/other.js\": {\"size\": 5, \"gzipSize\": 4}}");
+        report.updateBaseline(baselineFile);
+        Map<String, long[]> baseline = SizeReport.readBaseline(baselineFile);
+        assertEquals(2, baseline.size());
+        assertArrayEquals(new long[] { 5, 4 }, baseline.get("www/other.js"));
+        assertEquals(84, baseline.get("www/main.js")[0]);
+
+        List<SizeBudget> growth = Collections.singletonList(new SizeBudget("**", 0, 0, 5));
+        assertEquals(Collections.emptyList(), report.checkBudgets(growth, baseline));
+        baseline.get("www/main.js")[1] -= 10;
+        assertTrue(report.checkBudgets(growth, baseline).get(0).contains("more than 5.0% over the baseline"));
+    }
+}
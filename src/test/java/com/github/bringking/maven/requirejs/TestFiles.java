@@ -0,0 +1,43 @@
+package com.github.bringking.maven.requirejs;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Writes the small source trees and build profiles the tests run against.
+ */
+final class TestFiles {
+
+    private TestFiles() {
+    }
+
+    /**
+     * Write a UTF-8 file below a directory, creating its parents.
+     *
+     * @param root the directory the path is relative to.
+     * @param path the relative path of the file.
+     * @param content the text of the file.
+     * @return the written file.
+     * @throws IOException if the file cannot be written.
+     */
+    static File write(File root, String path, String content) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file.getPath(), "UTF-8", content);
+        return file;
+    }
+
+    /**
+     * Write a build profile named build.js into a directory.
+     *
+     * @param root the directory of the profile.
+     * @param source the text of the profile.
+     * @return the profile file.
+     * @throws IOException if the file cannot be written.
+     */
+    static File writeProfile(File root, String source) throws IOException {
+        return write(root, "build.js", source);
+    }
+}
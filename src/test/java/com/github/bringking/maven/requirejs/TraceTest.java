@@ -0,0 +1,45 @@
+package com.github.bringking.maven.requirejs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TraceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        Trace.attach(null);
+    }
+
+    @Test
+    public void testSpansOfAttachedTrace() throws Exception {
+        Trace trace = new Trace();
+        Trace.attach(trace);
+        Trace.begin("run r.js", "a \"quoted\" profile.js").end();
+        Trace.begin("run r.js", null).end();
+        Trace.attach(null);
+        Trace.begin("detached", null).end();
+
+        List<String> summary = trace.summarize();
+        assertEquals(1, summary.size());
+        assertTrue(summary.get(0), summary.get(0).startsWith("run r.js: 2x, "));
+
+        File file = new File(folder.getRoot(), "target/trace.json");
+        trace.write(file);
+        String json = FileUtils.fileRead(file);
+        assertTrue(json.startsWith("{\"traceEvents\":["));
+        assertTrue(json.contains("\"ph\":\"X\""));
+        assertTrue(json.contains("a \\\"quoted\\\" profile.js"));
+    }
+}
@@ -0,0 +1,5 @@
+({
+    // no baseUrl, r.js loads modules relative to this file
+    name: 'main',
+    out: '../output/4/main-built.js'
+})
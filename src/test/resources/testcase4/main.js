@@ -0,0 +1,3 @@
+define(['dep'], function (dep) {
+    return dep;
+});